@@ -25,8 +25,10 @@
 package net.fabricmc.loom;
 
 import java.io.File;
+import java.lang.ref.SoftReference;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -34,6 +36,7 @@ import java.util.Set;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.zip.Deflater;
 
 import com.google.gson.JsonObject;
 import org.cadixdev.lorenz.MappingSet;
@@ -56,6 +59,7 @@ import net.fabricmc.loom.configuration.providers.MinecraftProvider;
 import net.fabricmc.loom.configuration.providers.mappings.MappingsProvider;
 import net.fabricmc.loom.configuration.providers.mappings.MojangMappingsDependency;
 import net.fabricmc.loom.configuration.providers.minecraft.MinecraftMappedProvider;
+import net.fabricmc.loom.util.zip.ZipCompression;
 
 public class LoomGradleExtension {
 	public String refmapName;
@@ -65,6 +69,40 @@ public class LoomGradleExtension {
 	public File accessWidener = null;
 	public Function<String, Object> intermediaryUrl = mcVer -> "https://maven.quiltmc.org/repository/release/org/quiltmc/intermediary/" + mcVer + "/intermediary-" + mcVer + "-v2.jar";
 	public boolean shareCaches = false;
+	/**
+	 * The compression level of the jars written to Loom's caches: the remapped minecraft jars, the processed jars and the remapped mods.
+	 * 0 stores them uncompressed, which makes them faster to read for the compiler, IDE and game at the cost of disk space.
+	 * The jars are only written again once they are refreshed, the output of remapJar is not affected.
+	 */
+	public int cacheJarCompressionLevel = Deflater.DEFAULT_COMPRESSION;
+	/**
+	 * Runs FernFlower inside the Gradle daemon instead of a separate worker process, when the daemon has at least 3GB of heap.
+	 * Either way the decompiler is kept loaded between builds.
+	 */
+	public boolean decompileInProcess = false;
+	/**
+	 * The number of worker processes FernFlower splits the jar between by package, each with a smaller heap. 0 picks it
+	 * from the cores and memory of the machine, 1 decompiles in a single process. Not used when decompiling in process.
+	 */
+	public int decompileShards = 0;
+	/**
+	 * The threads to decompile with, 0 uses the cores of the machine or container when there is memory for them.
+	 */
+	public int decompileThreads = 0;
+	/**
+	 * The memory in MB that the decompiler processes may use together, 0 reads it from the memory of the machine or
+	 * container. The heap, garbage collector and number of processes are picked to fit it.
+	 */
+	public int decompileMemory = 0;
+	/**
+	 * The threads to remap the sources of dependencies with, 0 uses the cores of the machine when there is heap for them.
+	 */
+	public int sourceRemapThreads = 0;
+	/**
+	 * The heap of the daemon in MB that remapping the sources of dependencies may use, 0 uses half of the free heap.
+	 * Every thread needs about 256MB.
+	 */
+	public int sourceRemapMemory = 0;
 
 	private final ConfigurableFileCollection unmappedMods;
 	private final ConfigurableFileCollection log4jConfigs;
@@ -77,8 +115,11 @@ public class LoomGradleExtension {
 	private LoomDependencyManager dependencyManager;
 	private JarProcessorManager jarProcessorManager;
 	private JsonObject installerJson;
-	private MappingSet[] srcMappingCache = new MappingSet[2];
-	private Mercury[] srcMercuryCache = new Mercury[2];
+	// Soft so they are dropped when the daemon runs low on heap, they are created again when needed
+	@SuppressWarnings("unchecked")
+	private final SoftReference<MappingSet>[] srcMappingCache = new SoftReference[2];
+	@SuppressWarnings("unchecked")
+	private final SoftReference<Mercury>[] srcMercuryCache = new SoftReference[2];
 	private Set<File> mixinMappings = Collections.synchronizedSet(new HashSet<>());
 
 	@ApiStatus.Internal
@@ -105,12 +146,35 @@ public class LoomGradleExtension {
 		jarProcessors.add(processor);
 	}
 
-	public MappingSet getOrCreateSrcMappingCache(int id, Supplier<MappingSet> factory) {
-		return srcMappingCache[id] != null ? srcMappingCache[id] : (srcMappingCache[id] = factory.get());
+	public synchronized MappingSet getOrCreateSrcMappingCache(int id, Supplier<MappingSet> factory) {
+		MappingSet mappings = srcMappingCache[id] != null ? srcMappingCache[id].get() : null;
+
+		if (mappings == null) {
+			mappings = factory.get();
+			srcMappingCache[id] = new SoftReference<>(mappings);
+		}
+
+		return mappings;
 	}
 
-	public Mercury getOrCreateSrcMercuryCache(int id, Supplier<Mercury> factory) {
-		return srcMercuryCache[id] != null ? srcMercuryCache[id] : (srcMercuryCache[id] = factory.get());
+	public synchronized Mercury getOrCreateSrcMercuryCache(int id, Supplier<Mercury> factory) {
+		Mercury mercury = srcMercuryCache[id] != null ? srcMercuryCache[id].get() : null;
+
+		if (mercury == null) {
+			mercury = factory.get();
+			srcMercuryCache[id] = new SoftReference<>(mercury);
+		}
+
+		return mercury;
+	}
+
+	/**
+	 * Drops the cached {@link Mercury} instances and source mappings once no more sources are remapped with them, so
+	 * their class path and mappings do not stay on the heap of the daemon.
+	 */
+	public synchronized void evictSrcCaches() {
+		Arrays.fill(srcMappingCache, null);
+		Arrays.fill(srcMercuryCache, null);
 	}
 
 	public Dependency officialMojangMappings() {
@@ -339,6 +403,10 @@ public class LoomGradleExtension {
 		return shareCaches;
 	}
 
+	public ZipCompression getCacheJarCompression() {
+		return cacheJarCompressionLevel == Deflater.NO_COMPRESSION ? ZipCompression.STORED : ZipCompression.deflated(cacheJarCompressionLevel);
+	}
+
 	// Creates a new file each time its called, this is then held onto later when remapping the output jar
 	// Required as now when using parallel builds the old single file could be written by another sourceset compile task
 	public synchronized File getNextMixinMappings() {
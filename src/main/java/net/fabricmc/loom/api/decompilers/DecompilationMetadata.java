@@ -26,6 +26,16 @@ package net.fabricmc.loom.api.decompilers;
 
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.function.Predicate;
 
-public record DecompilationMetadata(int numberOfThreads, Path javaDocs, Collection<Path> libraries) {
+/**
+ * @param classFilter the internal names of the top level classes to decompile, the other classes of the jar are only
+ *                    decompiled against
+ * @param memoryBudget the most memory in bytes the decompiler should use, or 0 to let it decide. Decompilers that run in
+ *                     the Gradle daemon may not be able to limit themselves
+ */
+public record DecompilationMetadata(int numberOfThreads, Path javaDocs, Collection<Path> libraries, Predicate<String> classFilter, long memoryBudget) {
+	public DecompilationMetadata(int numberOfThreads, Path javaDocs, Collection<Path> libraries) {
+		this(numberOfThreads, javaDocs, libraries, className -> true, 0);
+	}
 }
@@ -33,7 +33,9 @@ public interface LoomDecompiler {
 	 * @param sourcesDestination Decompiled sources jar
 	 * @param linemapDestination A byproduct of decompilation that lines up the compiled jar's line numbers with the decompiled
 	 *                           sources jar for debugging.
-	 *                           A decompiler may not produce a linemap at all.
+	 *                           A decompiler may not produce a linemap at all. Each class is a line of its internal name,
+	 *                           max line and max line in the sources, followed by a line starting with a tab for each line
+	 *                           number and its line in the sources, all separated by tabs.
 	 * @param metaData Additional information that may or may not be needed while decompiling
 	 */
 	void decompile(Path compiledJar, Path sourcesDestination, Path linemapDestination, DecompilationMetadata metaData);
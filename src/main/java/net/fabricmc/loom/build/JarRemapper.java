@@ -37,10 +37,12 @@ import java.util.function.BiFunction;
 import org.gradle.api.Action;
 import org.objectweb.asm.commons.Remapper;
 
+import net.fabricmc.loom.util.AbiStubJars;
+import net.fabricmc.loom.util.zip.JarTransaction;
+import net.fabricmc.loom.util.zip.ZipArchive;
 import net.fabricmc.stitch.util.Pair;
 import net.fabricmc.tinyremapper.IMappingProvider;
 import net.fabricmc.tinyremapper.InputTag;
-import net.fabricmc.tinyremapper.OutputConsumerPath;
 import net.fabricmc.tinyremapper.TinyRemapper;
 
 public class JarRemapper {
@@ -48,6 +50,7 @@ public class JarRemapper {
 	private final Set<Path> classPath = new HashSet<>();
 	private final List<RemapData> remapData = new ArrayList<>();
 	private List<Action<TinyRemapper.Builder>> remapOptions;
+	private Path abiStubDirectory;
 
 	public void addMappings(IMappingProvider mappingProvider) {
 		mappingProviders.add(mappingProvider);
@@ -57,6 +60,13 @@ public class JarRemapper {
 		classPath.addAll(Arrays.asList(paths));
 	}
 
+	/**
+	 * Reads the class path from the ABI stubs of its jars in the directory, see {@link AbiStubJars}.
+	 */
+	public void setAbiStubDirectory(Path abiStubDirectory) {
+		this.abiStubDirectory = abiStubDirectory;
+	}
+
 	public RemapData scheduleRemap(Path input, Path output) {
 		RemapData data = new RemapData(input, output);
 		remapData.add(data);
@@ -79,6 +89,7 @@ public class JarRemapper {
 				.filter(path ->
 						remapData.stream().noneMatch(remapData -> remapData.input.equals(path))
 				)
+				.map(path -> abiStubDirectory != null ? AbiStubJars.get(abiStubDirectory, path) : path)
 				.toArray(Path[]::new);
 
 		remapper.readClassPathAsync(remapClasspath);
@@ -89,22 +100,37 @@ public class JarRemapper {
 			remapper.readInputsAsync(tag, data.input);
 		}
 
-		List<OutputConsumerPath> outputConsumers = new ArrayList<>();
-
-		for (RemapData data : remapData) {
-			OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(data.output).build();
-			outputConsumers.add(outputConsumer);
-
-			outputConsumer.addNonClassFiles(data.input);
-
-			data.processAccessWidener(remapper.getRemapper());
-			remapper.apply(outputConsumer, data.tag);
-		}
+		try {
+			for (RemapData data : remapData) {
+				// The output is the input jar with its classes replaced by the remapped ones, so the other files are copied as they are
+				JarTransaction transaction = JarTransaction.open(data.input);
+				data.transaction = transaction;
+
+				for (ZipArchive.Entry entry : transaction.getArchive().getEntries()) {
+					if (entry.getName().endsWith(".class")) {
+						transaction.delete(entry.getName());
+					}
+				}
+
+				data.processAccessWidener(remapper.getRemapper());
+				remapper.apply((className, bytes) -> {
+					synchronized (transaction) {
+						transaction.put(className + ".class", bytes);
+					}
+				}, data.tag);
+			}
 
-		remapper.finish();
+			remapper.finish();
 
-		for (OutputConsumerPath outputConsumer : outputConsumers) {
-			outputConsumer.close();
+			for (RemapData data : remapData) {
+				data.writeOutput();
+			}
+		} finally {
+			for (RemapData data : remapData) {
+				if (data.transaction != null) {
+					data.transaction.close();
+				}
+			}
 		}
 
 		remapData.forEach(RemapData::complete);
@@ -118,9 +144,13 @@ public class JarRemapper {
 		public final Path input;
 		public final Path output;
 		BiFunction<RemapData, Remapper, Pair<String, byte[]>> accesWidenerSupplier;
+		BiConsumer<JarTransaction, Pair<String, byte[]>> outputTransformer;
 		BiConsumer<RemapData, Pair<String, byte[]>> onComplete;
+		private boolean reproducibleFileOrder = false;
+		private boolean preserveFileTimestamps = true;
 
 		private InputTag tag;
+		private JarTransaction transaction;
 		private Pair<String, byte[]> accessWidener;
 
 		public RemapData(Path input, Path output) {
@@ -128,6 +158,23 @@ public class JarRemapper {
 			this.output = output;
 		}
 
+		/**
+		 * Called once the remapped classes are known, the changes made to the transaction are applied while the output is written.
+		 */
+		public RemapData transformOutput(BiConsumer<JarTransaction, Pair<String, byte[]>> outputTransformer) {
+			this.outputTransformer = outputTransformer;
+			return this;
+		}
+
+		public RemapData reproducibility(boolean reproducibleFileOrder, boolean preserveFileTimestamps) {
+			this.reproducibleFileOrder = reproducibleFileOrder;
+			this.preserveFileTimestamps = preserveFileTimestamps;
+			return this;
+		}
+
+		/**
+		 * Called after the output has been written.
+		 */
 		public RemapData complete(BiConsumer<RemapData, Pair<String, byte[]>> onComplete) {
 			this.onComplete = onComplete;
 			return this;
@@ -138,6 +185,14 @@ public class JarRemapper {
 			return this;
 		}
 
+		private void writeOutput() throws IOException {
+			if (outputTransformer != null) {
+				outputTransformer.accept(transaction, accessWidener);
+			}
+
+			transaction.commitTo(output, reproducibleFileOrder, preserveFileTimestamps);
+		}
+
 		private void complete() {
 			if (onComplete != null) {
 				onComplete.accept(this, accessWidener);
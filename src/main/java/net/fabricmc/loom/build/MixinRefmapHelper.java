@@ -24,55 +24,55 @@
 
 package net.fabricmc.loom.build;
 
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.zip.ZipEntry;
 
 import com.google.gson.JsonObject;
-import org.zeroturnaround.zip.ZipUtil;
-import org.zeroturnaround.zip.transform.StringZipEntryTransformer;
-import org.zeroturnaround.zip.transform.ZipEntryTransformerEntry;
 
 import net.fabricmc.loom.LoomGradlePlugin;
+import net.fabricmc.loom.util.zip.JarTransaction;
+import net.fabricmc.loom.util.zip.ZipArchive;
 
 public final class MixinRefmapHelper {
 	private MixinRefmapHelper() { }
 
 	public static boolean addRefmapName(String filename, Path outputPath) {
-		File output = outputPath.toFile();
-		Set<String> mixinFilenames = findMixins(output, true);
-
-		if (mixinFilenames.size() > 0) {
-			return ZipUtil.transformEntries(output, mixinFilenames.stream().map((f) -> new ZipEntryTransformerEntry(f, new StringZipEntryTransformer("UTF-8") {
-				@Override
-				protected String transform(ZipEntry zipEntry, String input) throws IOException {
-					JsonObject json = LoomGradlePlugin.GSON.fromJson(input, JsonObject.class);
+		try (JarTransaction transaction = JarTransaction.open(outputPath)) {
+			return addRefmapName(filename, transaction) && transaction.commit();
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to add refmap to " + outputPath, e);
+		}
+	}
 
-					if (!json.has("refmap")) {
-						json.addProperty("refmap", filename);
-					}
+	/**
+	 * Adds the refmap name to the mixin configs of a transaction, the jar is only written once it is committed.
+	 */
+	public static boolean addRefmapName(String filename, JarTransaction transaction) {
+		Set<String> mixinFilenames = findMixins(transaction.getArchive(), true);
 
-					return LoomGradlePlugin.GSON.toJson(json);
+		for (String mixinFilename : mixinFilenames) {
+			transaction.transformJson(mixinFilename, json -> {
+				if (!json.has("refmap")) {
+					json.addProperty("refmap", filename);
 				}
-			})).toArray(ZipEntryTransformerEntry[]::new));
-		} else {
-			return false;
+			});
 		}
+
+		return mixinFilenames.size() > 0;
 	}
 
-	private static Set<String> findMixins(File output, boolean onlyWithoutRefmap) {
+	private static Set<String> findMixins(ZipArchive archive, boolean onlyWithoutRefmap) {
 		// first, identify all of the mixin files
 		Set<String> mixinFilename = new HashSet<>();
-		// TODO: this is a lovely hack
-		ZipUtil.iterate(output, (stream, entry) -> {
+
+		for (ZipArchive.Entry entry : archive.getEntries()) {
 			if (!entry.isDirectory() && entry.getName().endsWith(".json") && !entry.getName().contains("/") && !entry.getName().contains("\\")) {
 				// JSON file in root directory
-				try (InputStreamReader inputStreamReader = new InputStreamReader(stream)) {
-					JsonObject json = LoomGradlePlugin.GSON.fromJson(inputStreamReader, JsonObject.class);
+				try {
+					JsonObject json = LoomGradlePlugin.GSON.fromJson(new String(archive.read(entry), StandardCharsets.UTF_8), JsonObject.class);
 
 					if (json != null) {
 						boolean hasMixins = json.has("mixins") && json.get("mixins").isJsonArray();
@@ -89,7 +89,8 @@ public final class MixinRefmapHelper {
 					// ...
 				}
 			}
-		});
+		}
+
 		return mixinFilename;
 	}
 }
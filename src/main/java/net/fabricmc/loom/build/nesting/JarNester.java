@@ -25,22 +25,16 @@
 package net.fabricmc.loom.build.nesting;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Collection;
-import java.util.zip.ZipEntry;
 
 import com.google.common.base.Preconditions;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import org.gradle.api.logging.Logger;
-import org.zeroturnaround.zip.FileSource;
-import org.zeroturnaround.zip.ZipEntrySource;
-import org.zeroturnaround.zip.ZipUtil;
-import org.zeroturnaround.zip.transform.StringZipEntryTransformer;
-import org.zeroturnaround.zip.transform.ZipEntryTransformerEntry;
 
-import net.fabricmc.loom.LoomGradlePlugin;
-import net.fabricmc.loom.util.ModUtils;
+import net.fabricmc.loom.util.zip.JarTransaction;
 
 public class JarNester {
 	public static void nestJars(Collection<File> jars, File modJar, Logger logger) {
@@ -49,47 +43,55 @@ public class JarNester {
 			return;
 		}
 
-		Preconditions.checkArgument(ModUtils.isMod(modJar), "Cannot nest jars into none mod jar " + modJar.getName());
+		try (JarTransaction transaction = JarTransaction.open(modJar.toPath())) {
+			nestJars(jars, transaction, modJar.getName(), logger);
+			transaction.commit();
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to nest jars into " + modJar.getName(), e);
+		}
+	}
 
-		ZipUtil.addEntries(modJar, jars.stream().map(file -> new FileSource("META-INF/jars/" + file.getName(), file)).toArray(ZipEntrySource[]::new));
+	/**
+	 * Adds the nested jars and their fabric.mod.json entries to a transaction, the jar is only written once it is committed.
+	 */
+	public static void nestJars(Collection<File> jars, JarTransaction transaction, String jarName, Logger logger) {
+		if (jars.isEmpty()) {
+			logger.debug("Nothing to nest into " + jarName);
+			return;
+		}
 
-		boolean didNest = ZipUtil.transformEntries(modJar, single(new ZipEntryTransformerEntry("fabric.mod.json", new StringZipEntryTransformer() {
-			@Override
-			protected String transform(ZipEntry zipEntry, String input) {
-				JsonObject json = LoomGradlePlugin.GSON.fromJson(input, JsonObject.class);
-				JsonArray nestedJars = json.getAsJsonArray("jars");
+		Preconditions.checkArgument(transaction.hasEntry("fabric.mod.json"), "Cannot nest jars into none mod jar " + jarName);
 
-				if (nestedJars == null || !json.has("jars")) {
-					nestedJars = new JsonArray();
-				}
+		for (File file : jars) {
+			transaction.put("META-INF/jars/" + file.getName(), file.toPath());
+		}
 
-				for (File file : jars) {
-					String nestedJarPath = "META-INF/jars/" + file.getName();
+		transaction.transformJson("fabric.mod.json", json -> {
+			JsonArray nestedJars = json.getAsJsonArray("jars");
 
-					for (JsonElement nestedJar : nestedJars) {
-						JsonObject jsonObject = nestedJar.getAsJsonObject();
+			if (nestedJars == null || !json.has("jars")) {
+				nestedJars = new JsonArray();
+			}
 
-						if (jsonObject.has("file") && jsonObject.get("file").getAsString().equals(nestedJarPath)) {
-							throw new IllegalStateException("Cannot nest 2 jars at the same path: " + nestedJarPath);
-						}
-					}
+			for (File file : jars) {
+				String nestedJarPath = "META-INF/jars/" + file.getName();
 
-					JsonObject jsonObject = new JsonObject();
-					jsonObject.addProperty("file", nestedJarPath);
-					nestedJars.add(jsonObject);
+				for (JsonElement nestedJar : nestedJars) {
+					JsonObject jsonObject = nestedJar.getAsJsonObject();
 
-					logger.debug("Nested " + nestedJarPath + " into " + modJar.getName());
+					if (jsonObject.has("file") && jsonObject.get("file").getAsString().equals(nestedJarPath)) {
+						throw new IllegalStateException("Cannot nest 2 jars at the same path: " + nestedJarPath);
+					}
 				}
 
-				json.add("jars", nestedJars);
+				JsonObject jsonObject = new JsonObject();
+				jsonObject.addProperty("file", nestedJarPath);
+				nestedJars.add(jsonObject);
 
-				return LoomGradlePlugin.GSON.toJson(json);
+				logger.debug("Nested " + nestedJarPath + " into " + jarName);
 			}
-		})));
-		Preconditions.checkArgument(didNest, "Failed to nest jars into " + modJar.getName());
-	}
 
-	private static ZipEntryTransformerEntry[] single(ZipEntryTransformerEntry element) {
-		return new ZipEntryTransformerEntry[]{element};
+			json.add("jars", nestedJars);
+		});
 	}
 }
@@ -24,6 +24,8 @@
 
 package net.fabricmc.loom.configuration;
 
+import java.io.IOException;
+
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.ConfigurationContainer;
 import org.gradle.api.plugins.JavaPlugin;
@@ -40,6 +42,7 @@ import net.fabricmc.loom.configuration.ide.SetupIntelijRunConfigs;
 import net.fabricmc.loom.configuration.providers.LaunchProvider;
 import net.fabricmc.loom.configuration.providers.MinecraftProvider;
 import net.fabricmc.loom.configuration.providers.mappings.MappingsProvider;
+import net.fabricmc.loom.util.AbiStubJars;
 import net.fabricmc.loom.util.Constants;
 
 public final class CompileConfiguration {
@@ -116,6 +119,12 @@ public final class CompileConfiguration {
 
 			dependencyManager.handleDependencies(project);
 
+			try {
+				AbiStubJars.cleanup(AbiStubJars.getDirectory(project));
+			} catch (IOException e) {
+				project.getLogger().info("Failed to clean up the ABI stubs", e);
+			}
+
 			project.getTasks().getByName("idea").finalizedBy(project.getTasks().getByName("genIdeaWorkspace"));
 			project.getTasks().getByName("eclipse").finalizedBy(project.getTasks().getByName("genEclipseRuns"));
 			project.getTasks().getByName("cleanEclipse").finalizedBy(project.getTasks().getByName("cleanEclipseRuns"));
@@ -168,6 +168,8 @@ public class LoomDependencyManager {
 		ModCompileRemapper.remapDependencies(project, mappingsKey, extension, sourceRemapper);
 
 		sourceRemapper.remapAll();
+		// The sources of the dependencies are only remapped here
+		extension.evictSrcCaches();
 
 		for (Runnable runnable : afterTasks) {
 			runnable.run();
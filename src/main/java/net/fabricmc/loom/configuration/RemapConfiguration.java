@@ -107,7 +107,10 @@ public class RemapConfiguration {
 
 				rootProject.getTasks().register(remapAllSourcesTaskName, RemapAllSourcesTask.class, task -> {
 					task.sourceRemapper = sourceRemapper;
-					task.doLast(t -> sourceRemapper.remapAll());
+					task.doLast(t -> {
+						sourceRemapper.remapAll();
+						rootProject.getExtensions().getByType(LoomGradleExtension.class).evictSrcCaches();
+					});
 				});
 
 				parentTask = rootProject.getTasks().getByName(remapAllSourcesTaskName);
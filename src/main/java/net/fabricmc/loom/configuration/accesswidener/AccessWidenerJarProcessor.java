@@ -33,8 +33,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
-import java.util.zip.ZipEntry;
+import java.util.function.UnaryOperator;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
@@ -44,9 +43,6 @@ import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.commons.Remapper;
 import org.zeroturnaround.zip.ZipUtil;
-import org.zeroturnaround.zip.transform.ByteArrayZipEntryTransformer;
-import org.zeroturnaround.zip.transform.ZipEntryTransformer;
-import org.zeroturnaround.zip.transform.ZipEntryTransformerEntry;
 
 import net.fabricmc.accesswidener.AccessWidener;
 import net.fabricmc.accesswidener.AccessWidenerReader;
@@ -57,7 +53,7 @@ import net.fabricmc.loom.LoomGradleExtension;
 import net.fabricmc.loom.configuration.processors.JarProcessor;
 import net.fabricmc.loom.util.Checksum;
 import net.fabricmc.loom.util.Constants;
-import net.fabricmc.tinyremapper.TinyRemapper;
+import net.fabricmc.loom.util.zip.JarTransaction;
 
 public class AccessWidenerJarProcessor implements JarProcessor {
 	private AccessWidener accessWidener = new AccessWidener();
@@ -94,13 +90,9 @@ public class AccessWidenerJarProcessor implements JarProcessor {
 					throw new UnsupportedOperationException(String.format("Access Widener namespace '%s' is not a valid namespace, it must be one of: '%s'", accessWidener.getNamespace(), String.join(", ", validNamespaces)));
 				}
 
-				TinyRemapper tinyRemapper = loomGradleExtension.getMinecraftMappedProvider().getTinyRemapper("official", "named");
-				tinyRemapper.readClassPath(loomGradleExtension.getMinecraftMappedProvider().getRemapClasspath());
-
-				AccessWidenerRemapper remapper = new AccessWidenerRemapper(accessWidener, tinyRemapper.getRemapper(), "named");
+				Remapper asmRemapper = loomGradleExtension.getMappingsProvider().getMappingsIndex().createRemapper(accessWidener.getNamespace(), "named");
+				AccessWidenerRemapper remapper = new AccessWidenerRemapper(accessWidener, asmRemapper, "named");
 				accessWidener = remapper.remap();
-
-				tinyRemapper.finish();
 			} catch (IOException e) {
 				throw new RuntimeException("Failed to remap access widener", e);
 			}
@@ -110,29 +102,29 @@ public class AccessWidenerJarProcessor implements JarProcessor {
 	@Override
 	public void process(File file) {
 		project.getLogger().lifecycle("Processing file: " + file.getName());
-		ZipUtil.transformEntries(file, getTransformers(accessWidener.getTargets()));
-		ZipUtil.addEntry(file, "aw.sha256", inputHash);
-	}
 
-	private ZipEntryTransformerEntry[] getTransformers(Set<String> classes) {
-		return classes.stream()
-				.map(string -> new ZipEntryTransformerEntry(string.replaceAll("\\.", "/") + ".class", getTransformer(string)))
-				.toArray(ZipEntryTransformerEntry[]::new);
+		try (JarTransaction transaction = JarTransaction.open(file.toPath()).compression(project.getExtensions().getByType(LoomGradleExtension.class).getCacheJarCompression())) {
+			for (String className : accessWidener.getTargets()) {
+				transaction.transform(className.replaceAll("\\.", "/") + ".class", getTransformer(className));
+			}
+
+			transaction.put("aw.sha256", inputHash);
+			transaction.commit();
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to apply access widener to " + file.getName(), e);
+		}
 	}
 
-	private ZipEntryTransformer getTransformer(String className) {
-		return new ByteArrayZipEntryTransformer() {
-			@Override
-			protected byte[] transform(ZipEntry zipEntry, byte[] input) {
-				ClassReader reader = new ClassReader(input);
-				ClassWriter writer = new ClassWriter(0);
-				ClassVisitor classVisitor = AccessWidenerVisitor.createClassVisitor(Constants.ASM_VERSION, writer, accessWidener);
+	private UnaryOperator<byte[]> getTransformer(String className) {
+		return input -> {
+			ClassReader reader = new ClassReader(input);
+			ClassWriter writer = new ClassWriter(0);
+			ClassVisitor classVisitor = AccessWidenerVisitor.createClassVisitor(Constants.ASM_VERSION, writer, accessWidener);
 
-				project.getLogger().lifecycle("Applying access widener to " + className);
+			project.getLogger().lifecycle("Applying access widener to " + className);
 
-				reader.accept(classVisitor, 0);
-				return writer.toByteArray();
-			}
+			reader.accept(classVisitor, 0);
+			return writer.toByteArray();
 		};
 	}
 
@@ -146,10 +138,14 @@ public class AccessWidenerJarProcessor implements JarProcessor {
 			throw new RuntimeException("Failed to find accessWidener in fabric.mod.json");
 		}
 
-		boolean replaced = ZipUtil.replaceEntry(modJarPath.toFile(), path, bytes);
+		try (JarTransaction transaction = JarTransaction.open(modJarPath)) {
+			if (!transaction.hasEntry(path)) {
+				project.getLogger().warn("Failed to replace access widener file at " + path);
+				return;
+			}
 
-		if (!replaced) {
-			project.getLogger().warn("Failed to replace access widener file at " + path);
+			transaction.put(path, bytes);
+			transaction.commit();
 		}
 	}
 
@@ -33,7 +33,6 @@ import java.io.InputStreamReader;
 import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -44,9 +43,6 @@ import java.util.zip.ZipEntry;
 import com.google.gson.JsonObject;
 import org.gradle.api.Project;
 import org.objectweb.asm.commons.Remapper;
-import org.zeroturnaround.zip.ZipUtil;
-import org.zeroturnaround.zip.transform.StringZipEntryTransformer;
-import org.zeroturnaround.zip.transform.ZipEntryTransformerEntry;
 
 import net.fabricmc.accesswidener.AccessWidener;
 import net.fabricmc.accesswidener.AccessWidenerReader;
@@ -58,10 +54,12 @@ import net.fabricmc.loom.configuration.RemappedConfigurationEntry;
 import net.fabricmc.loom.configuration.processors.dependency.ModDependencyInfo;
 import net.fabricmc.loom.configuration.providers.mappings.MappingsProvider;
 import net.fabricmc.loom.configuration.providers.minecraft.MinecraftMappedProvider;
+import net.fabricmc.loom.util.AbiStubJars;
 import net.fabricmc.loom.util.Constants;
 import net.fabricmc.loom.util.TinyRemapperMappingsHelper;
+import net.fabricmc.loom.util.zip.JarTransaction;
+import net.fabricmc.loom.util.zip.ZipArchive;
 import net.fabricmc.tinyremapper.InputTag;
-import net.fabricmc.tinyremapper.OutputConsumerPath;
 import net.fabricmc.tinyremapper.TinyRemapper;
 
 public class ModProcessor {
@@ -70,15 +68,9 @@ public class ModProcessor {
 			return;
 		}
 
-		ArrayList<ModDependencyInfo> remapList = new ArrayList<>();
-
 		for (ModDependencyInfo info : processList) {
-			if (info.requiresRemapping()) {
-				if (info.getRemappedOutput().exists()) {
-					info.getRemappedOutput().delete();
-				}
-
-				remapList.add(info);
+			if (info.requiresRemapping() && info.getRemappedOutput().exists()) {
+				info.getRemappedOutput().delete();
 			}
 		}
 
@@ -89,22 +81,11 @@ public class ModProcessor {
 				throw new RuntimeException("Failed to find remapped mod" + info);
 			}
 		}
-
-		for (ModDependencyInfo info : remapList) {
-			stripNestedJars(info.getRemappedOutput());
-		}
 	}
 
-	private static void stripNestedJars(File file) {
+	private static void stripNestedJars(JarTransaction transaction) {
 		// Strip out all contained jar info as we dont want loader to try and load the jars contained in dev.
-		ZipUtil.transformEntries(file, new ZipEntryTransformerEntry[] {(new ZipEntryTransformerEntry("fabric.mod.json", new StringZipEntryTransformer() {
-			@Override
-			protected String transform(ZipEntry zipEntry, String input) {
-				JsonObject json = LoomGradlePlugin.GSON.fromJson(input, JsonObject.class);
-				json.remove("jars");
-				return LoomGradlePlugin.GSON.toJson(json);
-			}
-		}))});
+		transaction.transformJson("fabric.mod.json", json -> json.remove("jars"));
 	}
 
 	private static byte[] remapAccessWidener(byte[] input, Remapper remapper) {
@@ -147,19 +128,20 @@ public class ModProcessor {
 						.renameInvalidLocals(false)
 						.build();
 
-		remapper.readClassPathAsync(mc);
-		remapper.readClassPathAsync(mcDeps);
+		remapper.readClassPathAsync(AbiStubJars.get(project, mc));
+		remapper.readClassPathAsync(AbiStubJars.get(project, mcDeps));
 
 		final Map<ModDependencyInfo, InputTag> tagMap = new HashMap<>();
-		final Map<ModDependencyInfo, OutputConsumerPath> outputConsumerMap = new HashMap<>();
+		final Map<ModDependencyInfo, JarTransaction> transactionMap = new HashMap<>();
 		final Map<ModDependencyInfo, byte[]> accessWidenerMap = new HashMap<>();
+		final Remapper accessWidenerRemapper = mappingsProvider.getMappingsIndex().createRemapper(fromM, toM);
 
 		for (RemappedConfigurationEntry entry : Constants.MOD_COMPILE_ENTRIES) {
 			for (File inputFile : project.getConfigurations().getByName(entry.sourceConfiguration()).getFiles()) {
 				if (remapList.stream().noneMatch(info -> info.getInputFile().equals(inputFile))) {
 					project.getLogger().debug("Adding " + inputFile + " onto the remap classpath");
 
-					remapper.readClassPathAsync(inputFile.toPath());
+					remapper.readClassPathAsync(AbiStubJars.get(project, inputFile.toPath()));
 				}
 			}
 		}
@@ -173,31 +155,50 @@ public class ModProcessor {
 			tagMap.put(info, tag);
 		}
 
-		// Apply this in a second loop as we need to ensure all the inputs are on the classpath before remapping.
-		for (ModDependencyInfo info : remapList) {
-			OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(info.getRemappedOutput().toPath()).build();
-			outputConsumer.addNonClassFiles(info.getInputFile().toPath());
-			outputConsumerMap.put(info, outputConsumer);
-			String accessWidener = info.getAccessWidener();
+		try {
+			// Apply this in a second loop as we need to ensure all the inputs are on the classpath before remapping.
+			for (ModDependencyInfo info : remapList) {
+				// The remapped mod is the input jar with its classes replaced, so the other files are copied as they are
+				JarTransaction transaction = JarTransaction.open(info.getInputFile().toPath()).compression(extension.getCacheJarCompression());
+				transactionMap.put(info, transaction);
+
+				for (ZipArchive.Entry entry : transaction.getArchive().getEntries()) {
+					if (entry.getName().endsWith(".class")) {
+						transaction.delete(entry.getName());
+					}
+				}
+
+				String accessWidener = info.getAccessWidener();
 
-			if (accessWidener != null) {
-				accessWidenerMap.put(info, remapAccessWidener(ZipUtil.unpackEntry(info.inputFile, accessWidener), remapper.getRemapper()));
+				if (accessWidener != null && transaction.getArchive().hasEntry(accessWidener)) {
+					accessWidenerMap.put(info, remapAccessWidener(transaction.getArchive().read(transaction.getArchive().getEntry(accessWidener)), accessWidenerRemapper));
+				}
+
+				remapper.apply((className, bytes) -> {
+					synchronized (transaction) {
+						transaction.put(className + ".class", bytes);
+					}
+				}, tagMap.get(info));
 			}
 
-			remapper.apply(outputConsumer, tagMap.get(info));
-		}
+			remapper.finish();
 
-		remapper.finish();
+			for (ModDependencyInfo info : remapList) {
+				JarTransaction transaction = transactionMap.get(info);
+				stripNestedJars(transaction);
+				byte[] accessWidener = accessWidenerMap.get(info);
 
-		for (ModDependencyInfo info : remapList) {
-			outputConsumerMap.get(info).close();
-			byte[] accessWidener = accessWidenerMap.get(info);
+				if (accessWidener != null) {
+					transaction.put(info.getAccessWidener(), accessWidener);
+				}
 
-			if (accessWidener != null) {
-				ZipUtil.replaceEntry(info.getRemappedOutput(), info.getAccessWidener(), accessWidener);
+				transaction.commitTo(info.getRemappedOutput().toPath(), false, true);
+				info.finaliseRemapping();
+			}
+		} finally {
+			for (JarTransaction transaction : transactionMap.values()) {
+				transaction.close();
 			}
-
-			info.finaliseRemapping();
 		}
 	}
 
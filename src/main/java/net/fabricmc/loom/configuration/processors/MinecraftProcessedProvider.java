@@ -55,6 +55,8 @@ public class MinecraftProcessedProvider extends MinecraftMappedProvider {
 		if (jarProcessorManager.isInvalid(projectMappedJar) || isRefreshDeps()) {
 			getProject().getLogger().info(":processing mapped jar");
 			invalidateJars();
+			// The line mapped jar is a copy of the old processed jar
+			invalidateLineMappedJar();
 
 			try {
 				FileUtils.copyFile(super.getMappedJar(), projectMappedJar);
@@ -65,8 +67,9 @@ public class MinecraftProcessedProvider extends MinecraftMappedProvider {
 			jarProcessorManager.process(projectMappedJar);
 		}
 
+		deleteUnusedLineMappedJars();
 		getProject().getDependencies().add(Constants.Configurations.MINECRAFT_NAMED,
-				getProject().getDependencies().module("net.minecraft:minecraft:" + getJarVersionString(projectMappedClassifier)));
+				getProject().getDependencies().module(getNamedDependencyNotation(getJarVersionString(projectMappedClassifier))));
 	}
 
 	private void invalidateJars() {
@@ -57,6 +57,7 @@ import net.fabricmc.loom.configuration.providers.minecraft.MinecraftMappedProvid
 import net.fabricmc.loom.util.Constants;
 import net.fabricmc.loom.util.DeletingFileVisitor;
 import net.fabricmc.loom.util.DownloadUtil;
+import net.fabricmc.loom.util.TinyMappingsIndex;
 import net.fabricmc.mapping.reader.v2.TinyV2Factory;
 import net.fabricmc.mapping.tree.TinyTree;
 import net.fabricmc.stitch.Command;
@@ -83,6 +84,7 @@ public class MappingsProvider extends DependencyProvider {
 	private File unpickDefinitionsFile;
 	private boolean hasUnpickDefinitions;
 	private UnpickMetadata unpickMetadata;
+	private TinyMappingsIndex mappingsIndex;
 
 	public MappingsProvider(Project project) {
 		super(project);
@@ -98,6 +100,16 @@ public class MappingsProvider extends DependencyProvider {
 		return MappingsCache.INSTANCE.get(tinyMappings.toPath());
 	}
 
+	public TinyMappingsIndex getMappingsIndex() throws IOException {
+		TinyTree mappings = getMappings();
+
+		if (mappingsIndex == null || mappingsIndex.getMappings() != mappings) {
+			mappingsIndex = new TinyMappingsIndex(mappings);
+		}
+
+		return mappingsIndex;
+	}
+
 	@Override
 	public void provide(DependencyInfo dependency, Consumer<Runnable> postPopulationScheduler) throws Exception {
 		MinecraftProvider minecraftProvider = getDependencyManager().getProvider(MinecraftProvider.class);
@@ -26,8 +26,14 @@ package net.fabricmc.loom.configuration.providers.minecraft;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.function.Consumer;
@@ -38,9 +44,11 @@ import org.gradle.api.Project;
 import net.fabricmc.loom.configuration.DependencyProvider;
 import net.fabricmc.loom.configuration.providers.MinecraftProvider;
 import net.fabricmc.loom.configuration.providers.mappings.MappingsProvider;
+import net.fabricmc.loom.util.AbiStubJars;
 import net.fabricmc.loom.util.Constants;
 import net.fabricmc.loom.util.TinyRemapperMappingsHelper;
-import net.fabricmc.tinyremapper.OutputConsumerPath;
+import net.fabricmc.loom.util.zip.ParallelZipWriter;
+import net.fabricmc.loom.util.zip.ZipArchive;
 import net.fabricmc.tinyremapper.TinyRemapper;
 
 public class MinecraftMappedProvider extends DependencyProvider {
@@ -50,6 +58,11 @@ public class MinecraftMappedProvider extends DependencyProvider {
 			.put("javax/annotation/concurrent/Immutable", "org/jetbrains/annotations/Unmodifiable")
 			.build();
 
+	public static final String LINE_MAPPED_CLASSIFIER = "linemapped";
+	// Line mapped jars are shared by every project with the same mappings, one may be on the classpath of another build
+	private static final Duration MAX_UNUSED_TIME = Duration.ofDays(14);
+	private static final Duration MARK_USED_INTERVAL = Duration.ofDays(1);
+
 	private File minecraftMappedJar;
 	private File minecraftIntermediaryJar;
 
@@ -74,6 +87,9 @@ public class MinecraftMappedProvider extends DependencyProvider {
 				minecraftMappedJar.delete();
 			}
 
+			// The line mapped jar is a copy of the old mapped jar
+			getLineMappedPointer(minecraftMappedJar).delete();
+
 			minecraftMappedJar.getParentFile().mkdirs();
 
 			if (minecraftIntermediaryJar.exists()) {
@@ -116,11 +132,22 @@ public class MinecraftMappedProvider extends DependencyProvider {
 
 			TinyRemapper remapper = getTinyRemapper(fromM, toM);
 
-			try (OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(output).build()) {
-				outputConsumer.addNonClassFiles(input);
-				remapper.readClassPath(getRemapClasspath());
+			try (ZipArchive inputArchive = ZipArchive.open(input); ParallelZipWriter writer = ParallelZipWriter.create(output, getExtension().getCacheJarCompression(), true)) {
+				for (ZipArchive.Entry entry : inputArchive.getEntries()) {
+					if (!entry.getName().endsWith(".class")) {
+						writer.copy(inputArchive, entry);
+					}
+				}
+
+				remapper.readClassPath(AbiStubJars.get(getProject(), getRemapClasspath()));
 				remapper.readInputs(input);
-				remapper.apply(outputConsumer);
+				remapper.apply((className, bytes) -> {
+					try {
+						writer.write(className + ".class", bytes);
+					} catch (IOException e) {
+						throw new RuntimeException("Failed to write " + className, e);
+					}
+				});
 			} catch (Exception e) {
 				throw new RuntimeException("Failed to remap JAR " + input + " with mappings from " + mappingsProvider.tinyMappings, e);
 			} finally {
@@ -144,8 +171,17 @@ public class MinecraftMappedProvider extends DependencyProvider {
 	}
 
 	protected void addDependencies(DependencyInfo dependency, Consumer<Runnable> postPopulationScheduler) {
+		deleteUnusedLineMappedJars();
 		getProject().getDependencies().add(Constants.Configurations.MINECRAFT_NAMED,
-				getProject().getDependencies().module("net.minecraft:minecraft:" + getJarVersionString("mapped")));
+				getProject().getDependencies().module(getNamedDependencyNotation(getJarVersionString("mapped"))));
+	}
+
+	/**
+	 * @return the notation of the mapped jar, or of its line mapped copy when genSources has written one
+	 */
+	protected String getNamedDependencyNotation(String version) {
+		String classifier = getLineMappedClassifier();
+		return "net.minecraft:minecraft:" + version + (classifier != null ? ":" + classifier : "");
 	}
 
 	public void initFiles(MinecraftProvider minecraftProvider, MappingsProvider mappingsProvider) {
@@ -170,6 +206,111 @@ public class MinecraftMappedProvider extends DependencyProvider {
 		return minecraftMappedJar;
 	}
 
+	/**
+	 * The copy of the mapped jar with the line numbers of the decompiled sources. Every copy gets a new classifier, so a
+	 * jar that is already in use by the IDE or another build is never written to.
+	 */
+	public File getLineMappedJar(String classifier) {
+		File mappedJar = getMappedJar();
+		String name = mappedJar.getName();
+		return new File(mappedJar.getParentFile(), name.substring(0, name.length() - 4) + "-" + classifier + ".jar");
+	}
+
+	/**
+	 * @return the classifier of the line mapped jar that is used in place of the mapped jar, or null if there is none
+	 */
+	public String getLineMappedClassifier() {
+		File pointer = getLineMappedPointer(getMappedJar());
+
+		if (!pointer.exists()) {
+			return null;
+		}
+
+		try {
+			String classifier = Files.readString(pointer.toPath(), StandardCharsets.UTF_8).trim();
+			return getLineMappedJar(classifier).exists() ? classifier : null;
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to read line mapped jar of " + getMappedJar(), e);
+		}
+	}
+
+	/**
+	 * Switches to another line mapped jar from the next configuration on. The old one may still be on the classpath of
+	 * this build or another, it is only deleted once no project has used it for a while.
+	 */
+	public void setLineMappedClassifier(String classifier) throws IOException {
+		Path pointer = getLineMappedPointer(getMappedJar()).toPath();
+		Path tempFile = Files.createTempFile(pointer.getParent(), pointer.getFileName().toString(), ".tmp");
+
+		try {
+			Files.writeString(tempFile, classifier, StandardCharsets.UTF_8);
+
+			try {
+				Files.move(tempFile, pointer, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile, pointer, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	/**
+	 * Stops using the line mapped jar, once the mapped jar it is a copy of is written again.
+	 */
+	protected void invalidateLineMappedJar() {
+		getLineMappedPointer(getMappedJar()).delete();
+	}
+
+	/**
+	 * Marks the line mapped jar the pointer refers to as used, and deletes the others that have not been used by any
+	 * project for a while. Only done while the project is configured, before any of them is put on the classpath.
+	 */
+	protected void deleteUnusedLineMappedJars() {
+		String classifier = getLineMappedClassifier();
+		File usedJar = classifier != null ? getLineMappedJar(classifier) : null;
+		Instant now = Instant.now();
+
+		if (usedJar != null) {
+			markUsed(usedJar, now);
+		}
+
+		String mappedJarName = getMappedJar().getName();
+		String prefix = mappedJarName.substring(0, mappedJarName.length() - 4) + "-" + LINE_MAPPED_CLASSIFIER + "-";
+		File[] lineMappedJars = getMappedJar().getParentFile().listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(".jar"));
+
+		if (lineMappedJars == null) {
+			return;
+		}
+
+		long oldest = now.minus(MAX_UNUSED_TIME).toEpochMilli();
+
+		for (File lineMappedJar : lineMappedJars) {
+			if (!lineMappedJar.equals(usedJar) && lineMappedJar.lastModified() < oldest && !lineMappedJar.delete()) {
+				getProject().getLogger().info("Could not delete old line mapped jar {}, it may still be in use", lineMappedJar);
+			}
+		}
+	}
+
+	/**
+	 * Keeps the line mapped jar from being deleted by another project, at most once a day.
+	 */
+	private static void markUsed(File lineMappedJar, Instant now) {
+		try {
+			Path path = lineMappedJar.toPath();
+
+			if (Files.getLastModifiedTime(path).toInstant().isBefore(now.minus(MARK_USED_INTERVAL))) {
+				Files.setLastModifiedTime(path, FileTime.from(now));
+			}
+		} catch (IOException e) {
+			// Only means another project may delete it, the mapped jar is used again until genSources runs
+		}
+	}
+
+	private static File getLineMappedPointer(File mappedJar) {
+		return new File(mappedJar.getPath() + ".linemapped");
+	}
+
 	public File getUnpickedJar() {
 		return new File(getJarDirectory(getExtension().getUserCache(), "mapped"), "minecraft-" + getJarVersionString("unpicked") + ".jar");
 	}
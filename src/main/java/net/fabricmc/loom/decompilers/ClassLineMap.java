@@ -0,0 +1,248 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The line numbers of a decompiled class, which line of the sources each line of the bytecode ended up at.
+ *
+ * <p>A line map file starts with {@link #MAGIC}, followed by the classes as written by {@link #write(DataOutputStream)}
+ * until the end of the file. Files without it are read as the tab separated text of older versions, see
+ * {@link #readText(Path)}.
+ */
+public record ClassLineMap(String name, int maxLine, int maxLineDest, int[] lines, int[] destLines) {
+	public static final int MAGIC = 0x4C4D4150; // LMAP
+
+	/**
+	 * @param mapping pairs of a line of the bytecode followed by its line in the sources, as reported by FernFlower
+	 */
+	public static ClassLineMap of(String name, int[] mapping) {
+		int maxLine = 0;
+		int maxLineDest = 0;
+		long[] pairs = new long[mapping.length / 2];
+
+		for (int i = 0; i < pairs.length; i++) {
+			int line = mapping[i * 2];
+			int destLine = mapping[i * 2 + 1];
+			maxLine = Math.max(maxLine, line);
+			maxLineDest = Math.max(maxLineDest, destLine);
+			// Sorted by line first, keeping the order of duplicates so the last one wins below
+			pairs[i] = ((long) line << 32) | ((long) i & 0xFFFFFFFFL);
+		}
+
+		Arrays.sort(pairs);
+
+		int[] lines = new int[pairs.length];
+		int[] destLines = new int[pairs.length];
+		int count = 0;
+
+		for (long pair : pairs) {
+			int line = (int) (pair >>> 32);
+			int destLine = mapping[(int) pair * 2 + 1];
+
+			if (count > 0 && lines[count - 1] == line) {
+				destLines[count - 1] = destLine;
+			} else {
+				lines[count] = line;
+				destLines[count] = destLine;
+				count++;
+			}
+		}
+
+		return new ClassLineMap(name, maxLine, maxLineDest, Arrays.copyOf(lines, count), Arrays.copyOf(destLines, count));
+	}
+
+	/**
+	 * @return the pairs of a line of the bytecode followed by its line in the sources, as passed to {@link #of(String, int[])}
+	 */
+	public int[] toMapping() {
+		int[] mapping = new int[lines.length * 2];
+
+		for (int i = 0; i < lines.length; i++) {
+			mapping[i * 2] = lines[i];
+			mapping[i * 2 + 1] = destLines[i];
+		}
+
+		return mapping;
+	}
+
+	/**
+	 * @return the line in the sources of a line of the bytecode, or of the next line after it that has one
+	 */
+	public int remap(int line) {
+		if (line >= maxLine) {
+			return maxLineDest;
+		}
+
+		int index = Arrays.binarySearch(lines, line);
+
+		if (index < 0) {
+			index = -index - 1;
+		}
+
+		return index < lines.length ? destLines[index] : maxLineDest;
+	}
+
+	public void write(DataOutputStream output) throws IOException {
+		output.writeUTF(name);
+		output.writeInt(maxLine);
+		output.writeInt(maxLineDest);
+		output.writeInt(lines.length);
+
+		for (int i = 0; i < lines.length; i++) {
+			output.writeInt(lines[i]);
+			output.writeInt(destLines[i]);
+		}
+	}
+
+	/**
+	 * @return the next class, or null at the end of the input
+	 */
+	public static ClassLineMap read(DataInputStream input) throws IOException {
+		String name;
+
+		try {
+			name = input.readUTF();
+		} catch (EOFException e) {
+			return null;
+		}
+
+		int maxLine = input.readInt();
+		int maxLineDest = input.readInt();
+		int[] lines = new int[input.readInt()];
+		int[] destLines = new int[lines.length];
+
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = input.readInt();
+			destLines[i] = input.readInt();
+		}
+
+		return new ClassLineMap(name, maxLine, maxLineDest, lines, destLines);
+	}
+
+	/**
+	 * Reads the classes of a line map file by their name.
+	 */
+	public static Map<String, ClassLineMap> readFile(Path path) throws IOException {
+		Map<String, ClassLineMap> classes = new HashMap<>();
+
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			int magic;
+
+			try {
+				magic = input.readInt();
+			} catch (EOFException e) {
+				return classes;
+			}
+
+			if (magic != MAGIC) {
+				return readText(path);
+			}
+
+			ClassLineMap classLineMap;
+
+			while ((classLineMap = read(input)) != null) {
+				classes.put(classLineMap.name(), classLineMap);
+			}
+		}
+
+		return classes;
+	}
+
+	/**
+	 * Reads the text line map written by older versions and by decompilers outside of Loom. Each class is a line of its
+	 * name, max line and max line in the sources, followed by a line starting with a tab for each of its lines and the
+	 * line in the sources, all separated by tabs.
+	 */
+	private static Map<String, ClassLineMap> readText(Path path) throws IOException {
+		Map<String, TextClass> textClasses = new HashMap<>();
+
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			TextClass textClass = null;
+			String line = null;
+			int i = 0;
+
+			try {
+				while ((line = reader.readLine()) != null) {
+					i++;
+
+					if (line.isEmpty()) {
+						continue;
+					}
+
+					String[] segs = line.trim().split("\t");
+
+					if (line.charAt(0) != '\t') {
+						textClass = textClasses.computeIfAbsent(segs[0], name -> new TextClass());
+						textClass.maxLine = Integer.parseInt(segs[1]);
+						textClass.maxLineDest = Integer.parseInt(segs[2]);
+					} else {
+						textClass.add(Integer.parseInt(segs[0]), Integer.parseInt(segs[1]));
+					}
+				}
+			} catch (RuntimeException e) {
+				throw new IOException("Invalid line map " + path + " at line " + i + ": " + line, e);
+			}
+		}
+
+		Map<String, ClassLineMap> classes = new HashMap<>();
+
+		textClasses.forEach((name, textClass) -> {
+			ClassLineMap lines = of(name, Arrays.copyOf(textClass.mapping, textClass.size));
+			// The max lines are the ones given by the file rather than the highest of the lines
+			classes.put(name, new ClassLineMap(name, textClass.maxLine, textClass.maxLineDest, lines.lines(), lines.destLines()));
+		});
+
+		return classes;
+	}
+
+	private static class TextClass {
+		private int maxLine;
+		private int maxLineDest;
+		private int[] mapping = new int[16];
+		private int size;
+
+		private void add(int line, int destLine) {
+			if (size + 2 > mapping.length) {
+				mapping = Arrays.copyOf(mapping, mapping.length * 2);
+			}
+
+			mapping[size++] = line;
+			mapping[size++] = destLine;
+		}
+	}
+}
@@ -0,0 +1,475 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
+
+import net.fabricmc.loom.LoomGradlePlugin;
+import net.fabricmc.loom.api.decompilers.LoomDecompiler;
+import net.fabricmc.loom.util.AbiHashingVisitor;
+import net.fabricmc.loom.util.Checksum;
+import net.fabricmc.loom.util.zip.ZipArchive;
+import net.fabricmc.loom.util.zip.ZipArchiveWriter;
+import net.fabricmc.loom.util.zip.ZipCompression;
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.mapping.tree.FieldDef;
+import net.fabricmc.mapping.tree.LocalVariableDef;
+import net.fabricmc.mapping.tree.MethodDef;
+import net.fabricmc.mapping.tree.ParameterDef;
+import net.fabricmc.mapping.tree.TinyTree;
+
+/**
+ * Caches the decompiled sources and line map of every top level class, so that only the classes that changed since
+ * an earlier decompilation have to be decompiled again.
+ *
+ * <p>A class is looked up by a key made of the bytes of the class and its inner classes, the javadoc and names of
+ * their mappings, the ABI of the classes of the jar they reference, the decompiler and the libraries. Entries that
+ * have not been used for a while are removed.
+ */
+public final class DecompilationCache {
+	private static final int VERSION = 3;
+	private static final String NAMESPACE = "named";
+	private static final Duration MAX_UNUSED_TIME = Duration.ofDays(14);
+	private static final Duration CLEANUP_INTERVAL = Duration.ofDays(1);
+
+	private final Path directory;
+
+	public DecompilationCache(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Computes the key of every top level class of the jar and looks them up in the cache.
+	 *
+	 * @param refresh when true all classes are decompiled again, replacing the cached entries
+	 */
+	public Session open(Path compiledJar, TinyTree mappings, LoomDecompiler decompiler, Collection<Path> libraries, boolean refresh) throws IOException {
+		try (ZipArchive archive = ZipArchive.open(compiledJar)) {
+			Map<String, ClassInfo> classes = readClasses(archive);
+			Map<String, ClassDef> classDefs = new HashMap<>();
+
+			for (ClassDef classDef : mappings.getClasses()) {
+				classDefs.put(classDef.getName(NAMESPACE), classDef);
+			}
+
+			Map<String, List<ClassInfo>> groups = new TreeMap<>();
+
+			for (ClassInfo info : classes.values()) {
+				groups.computeIfAbsent(DecompilerUtils.getTopLevelName(info.name(), classes.keySet()), s -> new ArrayList<>()).add(info);
+			}
+
+			byte[] globalKey = getGlobalKey(decompiler, libraries);
+			Map<String, String> keys = new TreeMap<>();
+
+			groups.entrySet().parallelStream().forEach(entry -> {
+				String key = getKey(globalKey, entry.getValue(), classes, classDefs);
+
+				synchronized (keys) {
+					keys.put(entry.getKey(), key);
+				}
+			});
+
+			Set<String> missing = new TreeSet<>();
+
+			for (Map.Entry<String, String> entry : keys.entrySet()) {
+				if (refresh || !Files.exists(getEntryPath(entry.getValue()))) {
+					missing.add(entry.getKey());
+				}
+			}
+
+			return new Session(keys, missing);
+		}
+	}
+
+	private static Map<String, ClassInfo> readClasses(ZipArchive archive) throws IOException {
+		Map<String, ClassInfo> classes = new ConcurrentHashMap<>();
+
+		try {
+			archive.getEntries().parallelStream().filter(entry -> entry.getName().endsWith(".class")).forEach(entry -> {
+				try {
+					ClassInfo info = ClassInfo.read(archive.read(entry));
+					classes.put(info.name(), info);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		return classes;
+	}
+
+	private static byte[] getGlobalKey(LoomDecompiler decompiler, Collection<Path> libraries) {
+		Hasher hasher = Hashing.sha256().newHasher();
+		hasher.putInt(VERSION);
+		putString(hasher, String.valueOf(LoomGradlePlugin.class.getPackage().getImplementationVersion()));
+		putString(hasher, decompiler.getClass().getName());
+		putString(hasher, decompiler.name());
+
+		// Sorted by their contents so that the key does not depend on where the libraries are stored
+		Set<String> libraryHashes = new TreeSet<>();
+
+		for (Path library : libraries) {
+			libraryHashes.add(HashCode.fromBytes(Checksum.sha256(library.toFile())).toString());
+		}
+
+		libraryHashes.forEach(hash -> putString(hasher, hash));
+		return hasher.hash().asBytes();
+	}
+
+	private static String getKey(byte[] globalKey, List<ClassInfo> group, Map<String, ClassInfo> classes, Map<String, ClassDef> classDefs) {
+		Hasher hasher = Hashing.sha256().newHasher();
+		hasher.putBytes(globalKey);
+
+		Set<String> names = new TreeSet<>();
+		Set<String> references = new TreeSet<>();
+
+		for (ClassInfo info : group) {
+			names.add(info.name());
+			references.addAll(info.references());
+		}
+
+		for (String name : names) {
+			ClassInfo info = classes.get(name);
+			putString(hasher, name);
+			hasher.putBytes(info.hash());
+			putMappings(hasher, classDefs.get(name));
+		}
+
+		references.removeAll(names);
+
+		for (String reference : references) {
+			ClassInfo info = classes.get(reference);
+
+			if (info != null) {
+				putString(hasher, reference);
+				hasher.putBytes(info.abiHash());
+			}
+		}
+
+		return hasher.hash().toString();
+	}
+
+	private static void putMappings(Hasher hasher, ClassDef classDef) {
+		if (classDef == null) {
+			hasher.putBoolean(false);
+			return;
+		}
+
+		hasher.putBoolean(true);
+		putString(hasher, classDef.getComment());
+
+		for (FieldDef field : classDef.getFields()) {
+			putString(hasher, field.getName(NAMESPACE));
+			putString(hasher, field.getDescriptor(NAMESPACE));
+			putString(hasher, field.getComment());
+		}
+
+		for (MethodDef method : classDef.getMethods()) {
+			putString(hasher, method.getName(NAMESPACE));
+			putString(hasher, method.getDescriptor(NAMESPACE));
+			putString(hasher, method.getComment());
+
+			for (ParameterDef parameter : method.getParameters()) {
+				hasher.putInt(parameter.getLocalVariableIndex());
+				putString(hasher, parameter.getName(NAMESPACE));
+				putString(hasher, parameter.getComment());
+			}
+
+			for (LocalVariableDef local : method.getLocalVariables()) {
+				hasher.putInt(local.getLocalVariableIndex());
+				hasher.putInt(local.getLocalVariableStartOffset());
+				putString(hasher, local.getName(NAMESPACE));
+			}
+		}
+	}
+
+	private static void putString(Hasher hasher, String string) {
+		if (string == null) {
+			hasher.putInt(-1);
+			return;
+		}
+
+		hasher.putInt(string.length());
+		hasher.putString(string, StandardCharsets.UTF_8);
+	}
+
+	private Path getEntryPath(String key) {
+		return directory.resolve(key.substring(0, 2)).resolve(key);
+	}
+
+	/**
+	 * Removes the entries that have not been used recently, at most once a day.
+	 */
+	public void cleanup() throws IOException {
+		Path marker = directory.resolve(".last-cleanup");
+		Instant now = Instant.now();
+
+		if (Files.exists(marker) && Files.getLastModifiedTime(marker).toInstant().isAfter(now.minus(CLEANUP_INTERVAL))) {
+			return;
+		}
+
+		Files.createDirectories(directory);
+		Files.write(marker, new byte[0]);
+
+		Instant oldest = now.minus(MAX_UNUSED_TIME);
+
+		try (Stream<Path> files = Files.walk(directory, 2)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				if (!file.equals(marker) && Files.isRegularFile(file) && Files.getLastModifiedTime(file).toInstant().isBefore(oldest)) {
+					Files.deleteIfExists(file);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The classes of a jar that is being decompiled.
+	 */
+	public final class Session {
+		private final Map<String, String> keys;
+		private final Set<String> missing;
+		private final Set<String> stored = ConcurrentHashMap.newKeySet();
+
+		private Session(Map<String, String> keys, Set<String> missing) {
+			this.keys = keys;
+			this.missing = missing;
+		}
+
+		public int getClassCount() {
+			return keys.size();
+		}
+
+		/**
+		 * @return the internal names of the top level classes of the jar
+		 */
+		public Set<String> getClasses() {
+			return Collections.unmodifiableSet(keys.keySet());
+		}
+
+		/**
+		 * @return the number of top level classes that are not cached yet
+		 */
+		public int getMissingCount() {
+			return missing.size() - stored.size();
+		}
+
+		/**
+		 * @return whether the sources of a class that was missing have been cached since
+		 */
+		public boolean isStored(String className) {
+			return stored.contains(className);
+		}
+
+		/**
+		 * @return the top level classes that were not cached when the jar was looked up
+		 */
+		public Set<String> getMissingClasses() {
+			return Collections.unmodifiableSet(missing);
+		}
+
+		/**
+		 * Stores the decompiled sources and line map of a class that had to be decompiled. Can be called from any thread.
+		 */
+		public void store(String className, String sources, int[] lineMapping) {
+			if (!missing.contains(className)) {
+				return;
+			}
+
+			byte[] data = sources.getBytes(StandardCharsets.UTF_8);
+			// Kept compressed so the entry can be copied to the sources jar as is
+			byte[] compressed = ZipCompression.DEFAULT.compress(data, data.length);
+
+			try {
+				writeEntry(keys.get(className), new CachedSource(ZipEntry.DEFLATED, ZipArchiveWriter.crc(data), data.length, compressed), lineMapping != null ? ClassLineMap.of(className, lineMapping) : null);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to cache the sources of " + className, e);
+			}
+
+			stored.add(className);
+		}
+
+		/**
+		 * Writes the cached sources of every class to the sources jar, and their line maps to the line map if any were written.
+		 *
+		 * <p>Classes that are still missing are left out and not cached, whether they were not decompiled or the
+		 * decompiler failed on them, so they are decompiled again the next time.
+		 */
+		public void writeSources(Path sources, Path lineMap) throws IOException {
+			Files.deleteIfExists(sources);
+			Files.deleteIfExists(lineMap);
+
+			int dosTime = ZipArchiveWriter.toDosTime(System.currentTimeMillis());
+			ByteArrayOutputStream lineMapBytes = new ByteArrayOutputStream();
+			DataOutputStream lineMapOutput = new DataOutputStream(lineMapBytes);
+			FileTime now = FileTime.from(Instant.now());
+
+			try (ZipArchiveWriter writer = ZipArchiveWriter.create(sources)) {
+				for (Map.Entry<String, String> entry : keys.entrySet()) {
+					if (missing.contains(entry.getKey()) && !stored.contains(entry.getKey())) {
+						continue;
+					}
+
+					Path entryPath = getEntryPath(entry.getValue());
+					CacheEntry cacheEntry = readEntry(entryPath);
+
+					if (cacheEntry.source() != null) {
+						CachedSource source = cacheEntry.source();
+						writer.writeCompressed(entry.getKey() + ".java", source.method(), dosTime, source.crc(), source.size(), source.data(), source.data().length);
+					}
+
+					if (cacheEntry.lineMap() != null) {
+						cacheEntry.lineMap().write(lineMapOutput);
+					}
+
+					Files.setLastModifiedTime(entryPath, now);
+				}
+			}
+
+			if (lineMapBytes.size() > 0) {
+				try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(lineMap))) {
+					output.writeInt(ClassLineMap.MAGIC);
+					lineMapBytes.writeTo(output);
+				}
+			}
+		}
+	}
+
+	private void writeEntry(String key, CachedSource source, ClassLineMap lineMap) throws IOException {
+		Path entryPath = getEntryPath(key);
+		Files.createDirectories(entryPath.getParent());
+		Path tempFile = Files.createTempFile(entryPath.getParent(), key, ".tmp");
+
+		try {
+			try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(tempFile))) {
+				output.writeInt(VERSION);
+				output.writeBoolean(source != null);
+
+				if (source != null) {
+					output.writeInt(source.method());
+					output.writeInt(source.crc());
+					output.writeLong(source.size());
+					output.writeInt(source.data().length);
+					output.write(source.data());
+				}
+
+				output.writeBoolean(lineMap != null);
+
+				if (lineMap != null) {
+					lineMap.write(output);
+				}
+			}
+
+			try {
+				Files.move(tempFile, entryPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile, entryPath, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	private static CacheEntry readEntry(Path entryPath) throws IOException {
+		try (DataInputStream input = new DataInputStream(Files.newInputStream(entryPath))) {
+			if (input.readInt() != VERSION) {
+				throw new IOException("Unsupported decompilation cache entry " + entryPath);
+			}
+
+			CachedSource source = null;
+
+			if (input.readBoolean()) {
+				int method = input.readInt();
+				int crc = input.readInt();
+				long size = input.readLong();
+				byte[] data = new byte[input.readInt()];
+				input.readFully(data);
+				source = new CachedSource(method, crc, size, data);
+			}
+
+			ClassLineMap lineMap = input.readBoolean() ? ClassLineMap.read(input) : null;
+			return new CacheEntry(source, lineMap);
+		} catch (NoSuchFileException e) {
+			throw new IOException("Decompilation cache entry " + entryPath + " was removed while decompiling", e);
+		}
+	}
+
+	private record CacheEntry(CachedSource source, ClassLineMap lineMap) {
+	}
+
+	private record CachedSource(int method, int crc, long size, byte[] data) {
+	}
+
+	private record ClassInfo(String name, byte[] hash, byte[] abiHash, Set<String> references) {
+		static ClassInfo read(byte[] bytes) {
+			Set<String> references = new TreeSet<>();
+			Hasher abiHasher = Hashing.sha256().newHasher();
+			AbiHashingVisitor abiVisitor = new AbiHashingVisitor(abiHasher);
+
+			new ClassReader(bytes).accept(new ClassRemapper(abiVisitor, new Remapper() {
+				@Override
+				public String map(String internalName) {
+					references.add(internalName);
+					return internalName;
+				}
+			}), ClassReader.SKIP_FRAMES);
+
+			return new ClassInfo(abiVisitor.getName(), Hashing.sha256().hashBytes(bytes).asBytes(), abiHasher.hash().asBytes(), references);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import com.sun.management.OperatingSystemMXBean;
+import org.gradle.api.Project;
+
+import net.fabricmc.loom.LoomGradleExtension;
+
+/**
+ * The threads and memory a decompiler may use, from the limits of the container the build runs in and the overrides
+ * in the extension.
+ *
+ * <p>The JVM of the daemon may not see the limits of a cgroup, so they are read directly as well and the lowest limit
+ * wins. The heap of the daemon and some room for the rest of the system are kept out of the memory budget, which is
+ * what decompiler processes outside the daemon may use together.
+ */
+public record DecompilerBudget(int threads, long memory) {
+	private static final long MB = 1024 * 1024;
+	// Left for the system and the processes other than the daemon and decompilers
+	private static final long RESERVED_MEMORY = 512 * MB;
+	private static final long MIN_MEMORY = 512 * MB;
+	// Each decompiler thread holds the classes it is working on
+	private static final long MEMORY_PER_THREAD = 256 * MB;
+
+	private static final Path CGROUP = Paths.get("/sys/fs/cgroup");
+
+	public static DecompilerBudget get(Project project) {
+		LoomGradleExtension extension = project.getExtensions().getByType(LoomGradleExtension.class);
+		long memory;
+
+		if (extension.decompileMemory > 0) {
+			memory = extension.decompileMemory * MB;
+		} else {
+			long totalMemory = ((OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getTotalMemorySize();
+			long limit = getMemoryLimit();
+
+			if (limit > 0) {
+				totalMemory = Math.min(totalMemory, limit);
+			}
+
+			// A workstation also runs the IDE, a container only the build
+			memory = Math.max(MIN_MEMORY, Math.min(totalMemory * 3 / 4, totalMemory - RESERVED_MEMORY) - Runtime.getRuntime().maxMemory());
+		}
+
+		int threads;
+
+		if (extension.decompileThreads > 0) {
+			threads = extension.decompileThreads;
+		} else {
+			threads = Runtime.getRuntime().availableProcessors();
+			int cpuLimit = getCpuLimit();
+
+			if (cpuLimit > 0) {
+				threads = Math.min(threads, cpuLimit);
+			}
+
+			threads = (int) Math.max(1, Math.min(threads, memory / MEMORY_PER_THREAD));
+		}
+
+		return new DecompilerBudget(threads, memory);
+	}
+
+	/**
+	 * @return the memory limit of the cgroup in bytes, or 0 if there is none
+	 */
+	static long getMemoryLimit() {
+		// cgroup v2, then v1 which reports a huge number when there is no limit
+		String limit = read(CGROUP.resolve("memory.max"));
+
+		if (limit == null) {
+			limit = read(CGROUP.resolve("memory/memory.limit_in_bytes"));
+		}
+
+		return parseMemoryLimit(limit);
+	}
+
+	static long parseMemoryLimit(String limit) {
+		if (limit == null || limit.equals("max")) {
+			return 0;
+		}
+
+		try {
+			long bytes = Long.parseLong(limit);
+			return bytes < Long.MAX_VALUE / 2 ? bytes : 0;
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * @return the cores the cgroup may use, rounded up, or 0 if there is no limit
+	 */
+	static int getCpuLimit() {
+		// cgroup v2 has the quota and period in one file, v1 in two with -1 as no quota
+		String max = read(CGROUP.resolve("cpu.max"));
+
+		if (max == null) {
+			String quota = read(CGROUP.resolve("cpu/cpu.cfs_quota_us"));
+			String period = read(CGROUP.resolve("cpu/cpu.cfs_period_us"));
+			max = quota != null && period != null ? quota + " " + period : null;
+		}
+
+		return parseCpuLimit(max);
+	}
+
+	static int parseCpuLimit(String max) {
+		if (max == null) {
+			return 0;
+		}
+
+		String[] parts = max.split("\\s+");
+
+		if (parts.length != 2 || parts[0].equals("max")) {
+			return 0;
+		}
+
+		try {
+			long quota = Long.parseLong(parts[0]);
+			long period = Long.parseLong(parts[1]);
+
+			if (quota <= 0 || period <= 0) {
+				return 0;
+			}
+
+			return (int) Math.max(1, (quota + period - 1) / period);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static String read(Path path) {
+		if (!Files.isReadable(path)) {
+			return null;
+		}
+
+		try {
+			return Files.readString(path).trim();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import net.fabricmc.loom.api.decompilers.DecompilationMetadata;
+import net.fabricmc.loom.api.decompilers.DecompilationSink;
+import net.fabricmc.loom.api.decompilers.LoomDecompiler;
+import net.fabricmc.loom.api.decompilers.StreamingDecompiler;
+import net.fabricmc.loom.util.zip.ZipArchive;
+
+public final class DecompilerUtils {
+	private DecompilerUtils() {
+	}
+
+	/**
+	 * The outer most class that exists in the jar, decompilers write inner classes into the source of their outer class.
+	 */
+	public static String getTopLevelName(String name, Set<String> classes) {
+		int dollarPos = name.indexOf('$');
+
+		while (dollarPos > 0) {
+			String outer = name.substring(0, dollarPos);
+
+			if (classes.contains(outer)) {
+				return outer;
+			}
+
+			dollarPos = name.indexOf('$', dollarPos + 1);
+		}
+
+		return name;
+	}
+
+	/**
+	 * @return the internal names of the classes in the jar
+	 */
+	public static Set<String> getClassNames(ZipArchive archive) {
+		Set<String> classes = new HashSet<>();
+
+		for (ZipArchive.Entry entry : archive.getEntries()) {
+			if (entry.getName().endsWith(".class")) {
+				classes.add(entry.getName().substring(0, entry.getName().length() - 6));
+			}
+		}
+
+		return classes;
+	}
+
+	/**
+	 * @return the class entries of the jar whose top level class is accepted by the filter
+	 */
+	public static Stream<ZipArchive.Entry> getFilteredClasses(ZipArchive archive, Predicate<String> classFilter) {
+		Set<String> classes = getClassNames(archive);
+
+		return archive.getEntries().stream()
+				.filter(entry -> entry.getName().endsWith(".class"))
+				.filter(entry -> classFilter.test(getTopLevelName(entry.getName().substring(0, entry.getName().length() - 6), classes)));
+	}
+
+	/**
+	 * Passes each class accepted by {@link DecompilationMetadata#classFilter()} to the sink, as soon as it is decompiled
+	 * if the decompiler supports it or else once all are done.
+	 */
+	public static void decompile(LoomDecompiler decompiler, Path compiledJar, DecompilationSink sink, DecompilationMetadata metaData) {
+		if (decompiler instanceof StreamingDecompiler streamingDecompiler) {
+			streamingDecompiler.decompile(compiledJar, sink, metaData);
+		} else {
+			decompileThroughJar(decompiler, compiledJar, sink, metaData);
+		}
+	}
+
+	/**
+	 * Decompiles to a temporary sources jar and line map, and passes the classes in them to the sink once all are done.
+	 */
+	private static void decompileThroughJar(LoomDecompiler decompiler, Path compiledJar, DecompilationSink sink, DecompilationMetadata metaData) {
+		Path directory = null;
+
+		try {
+			directory = Files.createTempDirectory(compiledJar.toAbsolutePath().getParent(), "decompile");
+			Path sources = directory.resolve("sources.jar");
+			Path lineMap = directory.resolve("sources.lmap");
+
+			decompiler.decompile(compiledJar, sources, lineMap, metaData);
+
+			Map<String, ClassLineMap> classLineMaps = Files.exists(lineMap) ? ClassLineMap.readFile(lineMap) : Map.of();
+
+			try (ZipArchive archive = ZipArchive.open(sources)) {
+				for (ZipArchive.Entry entry : archive.getEntries()) {
+					if (!entry.getName().endsWith(".java")) {
+						continue;
+					}
+
+					String className = entry.getName().substring(0, entry.getName().length() - 5);
+
+					if (metaData.classFilter().test(className)) {
+						ClassLineMap classLineMap = classLineMaps.get(className);
+						sink.accept(className, new String(archive.read(entry), StandardCharsets.UTF_8), classLineMap != null ? classLineMap.toMapping() : null);
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to decompile " + compiledJar, e);
+		} finally {
+			if (directory != null) {
+				delete(directory);
+			}
+		}
+	}
+
+	private static void delete(Path directory) {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to delete " + directory, e);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.fabricmc.loom.api.decompilers.DecompilationSink;
+import net.fabricmc.loom.util.zip.ParallelZipWriter;
+import net.fabricmc.loom.util.zip.ZipCompression;
+
+/**
+ * Writes the decompiled classes to a sources jar and line map, both sorted by name once the sink is closed.
+ */
+public final class JarDecompilationSink implements DecompilationSink, Closeable {
+	private final ParallelZipWriter writer;
+	private final Path lineMapDestination;
+	private final Map<String, ClassLineMap> lineMaps = new ConcurrentHashMap<>();
+
+	private JarDecompilationSink(ParallelZipWriter writer, Path lineMapDestination) {
+		this.writer = writer;
+		this.lineMapDestination = lineMapDestination;
+	}
+
+	/**
+	 * @param lineMapDestination where the line map is written to, or null to not write one
+	 */
+	public static JarDecompilationSink create(Path sourcesDestination, Path lineMapDestination) throws IOException {
+		return new JarDecompilationSink(ParallelZipWriter.create(sourcesDestination, ZipCompression.DEFAULT, true), lineMapDestination);
+	}
+
+	@Override
+	public void accept(String className, String sources, int[] lineMapping) {
+		try {
+			for (int i = className.indexOf('/'); i != -1; i = className.indexOf('/', i + 1)) {
+				writer.writeDirectory(className.substring(0, i + 1));
+			}
+
+			writer.write(className + ".java", sources.getBytes(StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write sources of " + className, e);
+		}
+
+		if (lineMapping != null) {
+			lineMaps.put(className, ClassLineMap.of(className, lineMapping));
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+
+		if (lineMapDestination != null) {
+			try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(lineMapDestination)))) {
+				output.writeInt(ClassLineMap.MAGIC);
+
+				for (ClassLineMap classLineMap : new TreeMap<>(lineMaps).values()) {
+					classLineMap.write(output);
+				}
+			}
+		}
+	}
+}
@@ -24,19 +24,9 @@
 
 package net.fabricmc.loom.decompilers;
 
-import static java.text.MessageFormat.format;
-
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.StandardCopyOption;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -48,101 +38,76 @@ import org.objectweb.asm.MethodVisitor;
 
 import net.fabricmc.loom.util.Constants;
 import net.fabricmc.loom.util.gradle.ProgressLogger;
+import net.fabricmc.loom.util.zip.ParallelZipWriter;
+import net.fabricmc.loom.util.zip.ZipArchive;
+import net.fabricmc.loom.util.zip.ZipCompression;
 
 /**
  * TODO, Move to stitch.
  * Created by covers1624 on 18/02/19.
  */
 public class LineNumberRemapper {
-	private final Map<String, RClass> lineMap = new HashMap<>();
+	private final Map<String, ClassLineMap> lineMap = new HashMap<>();
 
 	public void readMappings(File lineMappings) {
-		try (BufferedReader reader = new BufferedReader(new FileReader(lineMappings))) {
-			RClass clazz = null;
-			String line = null;
-			int i = 0;
-
-			try {
-				while ((line = reader.readLine()) != null) {
-					if (line.isEmpty()) {
-						continue;
-					}
-
-					String[] segs = line.trim().split("\t");
-
-					if (line.charAt(0) != '\t') {
-						clazz = lineMap.computeIfAbsent(segs[0], RClass::new);
-						clazz.maxLine = Integer.parseInt(segs[1]);
-						clazz.maxLineDest = Integer.parseInt(segs[2]);
-					} else {
-						clazz.lineMap.put(Integer.parseInt(segs[0]), Integer.parseInt(segs[1]));
-					}
-
-					i++;
-				}
-			} catch (Exception e) {
-				throw new RuntimeException(format("Exception reading mapping line @{0}: {1}", i, line), e);
-			}
+		try {
+			lineMap.putAll(ClassLineMap.readFile(lineMappings.toPath()));
 		} catch (IOException e) {
 			throw new RuntimeException("Exception reading LineMappings file.", e);
 		}
 	}
 
-	public void process(ProgressLogger logger, Path input, Path output) throws IOException {
-		Files.walkFileTree(input, new SimpleFileVisitor<>() {
-			@Override
-			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-				String rel = input.relativize(file).toString();
-				Path dst = output.resolve(rel);
-				Path parent = dst.getParent();
-
-				if (parent != null) {
-					Files.createDirectories(parent);
-				}
-
-				String fName = file.getFileName().toString();
-
-				if (fName.endsWith(".class")) {
-					if (Files.exists(dst)) {
-						Files.delete(dst);
-					}
-
-					String idx = rel.substring(0, rel.length() - 6);
-
-					if (logger != null) {
-						logger.progress("Remapping " + idx);
-					}
-
+	/**
+	 * Writes the jar with the line numbers of its classes remapped, the classes are remapped on all cores and written in
+	 * their original order. Entries without a line map or whose line numbers stay the same are copied as is.
+	 */
+	public void process(ProgressLogger logger, Path input, Path output, ZipCompression compression) throws IOException {
+		try (ZipArchive archive = ZipArchive.open(input); ParallelZipWriter writer = ParallelZipWriter.create(output, compression, false)) {
+			for (ZipArchive.Entry entry : archive.getEntries()) {
+				String name = entry.getName();
+				ClassLineMap classLineMap = null;
+
+				if (name.endsWith(".class")) {
+					String idx = name.substring(0, name.length() - 6);
 					int dollarPos = idx.indexOf('$'); //This makes the assumption that only Java classes are to be remapped.
 
 					if (dollarPos >= 0) {
 						idx = idx.substring(0, dollarPos);
 					}
 
-					if (lineMap.containsKey(idx)) {
-						try (InputStream is = Files.newInputStream(file)) {
-							ClassReader reader = new ClassReader(is);
-							ClassWriter writer = new ClassWriter(0);
+					classLineMap = lineMap.get(idx);
+				}
 
-							reader.accept(new LineNumberVisitor(Constants.ASM_VERSION, writer, lineMap.get(idx)), 0);
-							Files.write(dst, writer.toByteArray());
-						}
-					}
-				} else {
-					Files.copy(file, dst, StandardCopyOption.REPLACE_EXISTING);
+				if (classLineMap == null) {
+					writer.copy(archive, entry);
+					continue;
+				}
+
+				if (logger != null) {
+					logger.progress("Remapping " + name);
 				}
 
-				return FileVisitResult.CONTINUE;
+				ClassLineMap finalClassLineMap = classLineMap;
+				writer.transform(archive, entry, data -> {
+					ClassReader reader = new ClassReader(data);
+					ClassWriter classWriter = new ClassWriter(0);
+					LineNumberVisitor visitor = new LineNumberVisitor(Constants.ASM_VERSION, classWriter, finalClassLineMap);
+
+					reader.accept(visitor, 0);
+					// Classes that keep their line numbers are copied without being compressed again
+					return visitor.changed ? classWriter.toByteArray() : null;
+				});
 			}
-		});
+		}
 	}
 
 	private static class LineNumberVisitor extends ClassVisitor {
-		private final RClass rClass;
+		private final ClassLineMap classLineMap;
+		private boolean changed;
 
-		LineNumberVisitor(int api, ClassVisitor classVisitor, RClass rClass) {
+		LineNumberVisitor(int api, ClassVisitor classVisitor, ClassLineMap classLineMap) {
 			super(api, classVisitor);
-			this.rClass = rClass;
+			this.classLineMap = classLineMap;
 		}
 
 		@Override
@@ -150,34 +115,11 @@ public class LineNumberRemapper {
 			return new MethodVisitor(api, super.visitMethod(access, name, descriptor, signature, exceptions)) {
 				@Override
 				public void visitLineNumber(int line, Label start) {
-					int tLine = line;
-
-					if (tLine <= 0) {
-						super.visitLineNumber(line, start);
-					} else if (tLine >= rClass.maxLine) {
-						super.visitLineNumber(rClass.maxLineDest, start);
-					} else {
-						Integer matchedLine = null;
-
-						while (tLine <= rClass.maxLine && ((matchedLine = rClass.lineMap.get(tLine)) == null)) {
-							tLine++;
-						}
-
-						super.visitLineNumber(matchedLine != null ? matchedLine : rClass.maxLineDest, start);
-					}
+					int remapped = line <= 0 ? line : classLineMap.remap(line);
+					changed |= remapped != line;
+					super.visitLineNumber(remapped, start);
 				}
 			};
 		}
 	}
-
-	private static class RClass {
-		private final String name;
-		private int maxLine;
-		private int maxLineDest;
-		private final Map<Integer, Integer> lineMap = new HashMap<>();
-
-		private RClass(String name) {
-			this.name = name;
-		}
-	}
 }
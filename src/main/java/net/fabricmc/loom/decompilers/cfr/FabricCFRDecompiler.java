@@ -26,33 +26,25 @@ package net.fabricmc.loom.decompilers.cfr;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.function.Function;
-import java.util.jar.Attributes;
-import java.util.jar.JarEntry;
-import java.util.jar.JarOutputStream;
-import java.util.jar.Manifest;
-import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-
-import com.google.common.base.Charsets;
+import java.util.function.Predicate;
+
 import com.google.common.collect.ImmutableMap;
 import org.benf.cfr.reader.api.CfrDriver;
 import org.benf.cfr.reader.api.ClassFileSource;
@@ -66,9 +58,26 @@ import org.gradle.internal.logging.progress.ProgressLoggerFactory;
 import org.gradle.internal.service.ServiceRegistry;
 
 import net.fabricmc.loom.api.decompilers.DecompilationMetadata;
-import net.fabricmc.loom.api.decompilers.LoomDecompiler;
+import net.fabricmc.loom.api.decompilers.DecompilationSink;
+import net.fabricmc.loom.api.decompilers.StreamingDecompiler;
+import net.fabricmc.loom.decompilers.JarDecompilationSink;
+import net.fabricmc.loom.util.zip.ZipArchive;
+
+/**
+ * Decompiles with CFR on all threads.
+ *
+ * <p>Each thread takes batches of classes of the same package and analyses them together, so the classes they
+ * reference are only read once per batch. The classes of the libraries are kept by each thread between batches. Every
+ * class is passed on with the line numbers CFR tracked as soon as it is written.
+ */
+public class FabricCFRDecompiler implements StreamingDecompiler {
+	private static final Map<String, String> OPTIONS = ImmutableMap.of(
+			"renameillegalidents", "true",
+			"trackbytecodeloc", "true"
+	);
+	private static final int MAX_BATCH_SIZE = 256;
+	private static final int LIBRARY_CACHE_SIZE = 4096;
 
-public class FabricCFRDecompiler implements LoomDecompiler {
 	private final Project project;
 
 	public FabricCFRDecompiler(Project project) {
@@ -82,96 +91,50 @@ public class FabricCFRDecompiler implements LoomDecompiler {
 
 	@Override
 	public void decompile(Path compiledJar, Path sourcesDestination, Path linemapDestination, DecompilationMetadata metaData) {
-		project.getLogger().warn("!!!! The CFR decompiler support is currently incomplete, line numbers will not match up and there will be no javadocs in the generated source.");
+		try (JarDecompilationSink sink = JarDecompilationSink.create(sourcesDestination, linemapDestination)) {
+			decompile(compiledJar, sink, metaData);
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to write decompiled sources", e);
+		}
+	}
+
+	@Override
+	public void decompile(Path compiledJar, DecompilationSink sink, DecompilationMetadata metaData) {
+		project.getLogger().warn("!!!! The CFR decompiler support is currently incomplete, there will be no javadocs in the generated source.");
 
-		// Setups the multi threaded logger, the thread id is used as the key to the ProgressLogger's
 		ServiceRegistry registry = ((ProjectInternal) project).getServices();
 		ProgressLoggerFactory factory = registry.get(ProgressLoggerFactory.class);
 		ProgressLogger progressGroup = factory.newOperation(getClass()).setDescription("Decompile");
-
-		Map<Long, ProgressLogger> loggerMap = new ConcurrentHashMap<>();
-		Function<Long, ProgressLogger> createLogger = (threadId) -> {
-			ProgressLogger pl = factory.newOperation(getClass(), progressGroup);
-			pl.setDescription("decompile worker");
-			pl.started();
-			return pl;
-		};
+		List<ProgressLogger> progressLoggers = Collections.synchronizedList(new ArrayList<>());
 
 		progressGroup.started();
 
-		Manifest manifest = new Manifest();
-		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
-		Set<String> addedDirectories = new HashSet<>();
-
-		try (OutputStream fos = Files.newOutputStream(sourcesDestination); JarOutputStream jos = new JarOutputStream(fos, manifest); ZipFile inputZip = new ZipFile(compiledJar.toFile())) {
-			CfrDriver driver = new CfrDriver.Builder()
-					.withOptions(ImmutableMap.of(
-							"renameillegalidents", "true",
-							"trackbytecodeloc", "true"
-					))
-					.withClassFileSource(new ClassFileSource() {
-						@Override
-						public void informAnalysisRelativePathDetail(String usePath, String classFilePath) {
-						}
-
-						@Override
-						public Collection<String> addJar(String jarPath) {
-							return null;
-						}
-
-						@Override
-						public String getPossiblyRenamedPath(String path) {
-							return path;
-						}
-
-						@Override
-						public Pair<byte[], String> getClassFileContent(String path) throws IOException {
-							ZipEntry zipEntry = inputZip.getEntry(path);
-
-							if (zipEntry == null) {
-								throw new FileNotFoundException(path);
-							}
-
-							try (InputStream inputStream = inputZip.getInputStream(zipEntry)) {
-								return Pair.make(inputStream.readAllBytes(), path);
-							}
-						}
-					})
-					.withOutputSink(new OutputSinkFactory() {
-						@Override
-						public List<SinkClass> getSupportedSinks(SinkType sinkType, Collection<SinkClass> available) {
-							return switch (sinkType) {
-								case PROGRESS -> Collections.singletonList(SinkClass.STRING);
-								case JAVA -> Collections.singletonList(SinkClass.DECOMPILED);
-								default -> Collections.emptyList();
-							};
-						}
-
-						@SuppressWarnings("unchecked")
-						@Override
-						public <T> Sink<T> getSink(SinkType sinkType, SinkClass sinkClass) {
-							return switch (sinkType) {
-								case PROGRESS -> (p) -> project.getLogger().debug((String) p);
-								case JAVA -> (Sink<T>) decompiledSink(jos, addedDirectories);
-								case EXCEPTION -> (e) -> project.getLogger().error((String) e);
-								default -> null;
-							};
-						}
-					})
-					.build();
+		List<ZipArchive> libraries = new ArrayList<>();
+		ExecutorService executorService = Executors.newFixedThreadPool(metaData.numberOfThreads());
 
-			List<String> classes = Collections.list(inputZip.entries()).stream()
-									.map(ZipEntry::getName)
-									.filter(input -> input.endsWith(".class"))
-									.collect(Collectors.toList());
+		try (ZipArchive input = ZipArchive.open(compiledJar)) {
+			for (Path library : metaData.libraries()) {
+				if (Files.isRegularFile(library)) {
+					libraries.add(ZipArchive.open(library));
+				}
+			}
 
-			ExecutorService executorService = Executors.newFixedThreadPool(metaData.numberOfThreads());
-			List<Future<?>> futures = new LinkedList<>();
+			Queue<List<String>> batches = new ConcurrentLinkedQueue<>(getBatches(input, metaData.classFilter(), metaData.numberOfThreads()));
+			List<Future<?>> futures = new ArrayList<>();
 
-			for (String clazz : classes) {
+			for (int i = 0; i < metaData.numberOfThreads(); i++) {
 				futures.add(executorService.submit(() -> {
-					loggerMap.computeIfAbsent(Thread.currentThread().getId(), createLogger).progress(clazz);
-					driver.analyse(Collections.singletonList(clazz));
+					ProgressLogger progressLogger = factory.newOperation(getClass(), progressGroup);
+					progressLogger.setDescription("decompile worker");
+					progressLogger.started();
+					progressLoggers.add(progressLogger);
+
+					Worker worker = new Worker(input, libraries, sink, progressLogger);
+					List<String> batch;
+
+					while ((batch = batches.poll()) != null) {
+						worker.analyse(batch);
+					}
 				}));
 			}
 
@@ -181,53 +144,219 @@ public class FabricCFRDecompiler implements LoomDecompiler {
 		} catch (IOException | InterruptedException | ExecutionException e) {
 			throw new RuntimeException("Failed to decompile", e);
 		} finally {
-			loggerMap.forEach((threadId, progressLogger) -> progressLogger.completed());
+			executorService.shutdownNow();
+
+			for (ZipArchive library : libraries) {
+				try {
+					library.close();
+				} catch (IOException e) {
+					project.getLogger().warn("Failed to close " + library.getPath(), e);
+				}
+			}
+
+			progressLoggers.forEach(ProgressLogger::completed);
+			progressGroup.completed();
 		}
 	}
 
-	private static OutputSinkFactory.Sink<SinkReturns.Decompiled> decompiledSink(JarOutputStream jos, Set<String> addedDirectories) {
-		return decompiled -> {
-			String filename = decompiled.getPackageName().replace('.', '/');
-			if (!filename.isEmpty()) filename += "/";
-			filename += decompiled.getClassName() + ".java";
+	/**
+	 * Splits the top level classes to decompile into batches of the same package, small enough that all threads have
+	 * work until the end. Inner classes are decompiled with their outer class.
+	 */
+	private static List<List<String>> getBatches(ZipArchive input, Predicate<String> classFilter, int threads) {
+		Map<String, List<String>> packages = new TreeMap<>();
+		int classCount = 0;
 
-			byte[] data = decompiled.getJava().getBytes(Charsets.UTF_8);
+		for (ZipArchive.Entry entry : input.getEntries()) {
+			String name = entry.getName();
 
-			writeToJar(filename, data, jos, addedDirectories);
-		};
+			if (!name.endsWith(".class")) {
+				continue;
+			}
+
+			int packageEnd = name.lastIndexOf('/');
+			int innerClassStart = name.indexOf('$', packageEnd + 1);
+
+			if (innerClassStart > 0 && input.hasEntry(name.substring(0, innerClassStart) + ".class")) {
+				continue;
+			}
+
+			if (!classFilter.test(name.substring(0, name.length() - 6))) {
+				continue;
+			}
+
+			packages.computeIfAbsent(packageEnd == -1 ? "" : name.substring(0, packageEnd), packageName -> new ArrayList<>()).add(name);
+			classCount++;
+		}
+
+		int batchSize = Math.max(1, Math.min(MAX_BATCH_SIZE, classCount / (threads * 4)));
+		List<List<String>> batches = new ArrayList<>();
+
+		for (List<String> classes : packages.values()) {
+			Collections.sort(classes);
+
+			for (int i = 0; i < classes.size(); i += batchSize) {
+				batches.add(classes.subList(i, Math.min(classes.size(), i + batchSize)));
+			}
+		}
+
+		// Largest batches first, so the small ones fill up the threads at the end
+		batches.sort(Comparator.<List<String>>comparingInt(List::size).reversed());
+		return batches;
 	}
 
-	// TODO move to task queue?
-	private static synchronized void writeToJar(String filename, byte[] data, JarOutputStream jos, Set<String> addedDirectories) {
-		String[] path = filename.split("/");
-		String pathPart = "";
+	/**
+	 * The state of a single thread, CFR reports a class on the thread that analyses it.
+	 */
+	private final class Worker implements ClassFileSource, OutputSinkFactory {
+		private final ZipArchive input;
+		private final List<ZipArchive> libraries;
+		private final DecompilationSink sink;
+		private final ProgressLogger progressLogger;
+		private final CfrDriver driver;
+		private final Map<String, byte[]> libraryCache = new LinkedHashMap<>(16, 0.75F, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+				return size() > LIBRARY_CACHE_SIZE;
+			}
+		};
+		// Line numbers of the class being written, CFR reports them right before its sources
+		private final NavigableMap<Integer, Integer> lines = new TreeMap<>();
+
+		Worker(ZipArchive input, List<ZipArchive> libraries, DecompilationSink sink, ProgressLogger progressLogger) {
+			this.input = input;
+			this.libraries = libraries;
+			this.sink = sink;
+			this.progressLogger = progressLogger;
+			this.driver = new CfrDriver.Builder()
+					.withOptions(OPTIONS)
+					.withClassFileSource(this)
+					.withOutputSink(this)
+					.build();
+		}
 
-		for (int i = 0; i < path.length - 1; i++) {
-			pathPart += path[i] + "/";
+		@Override
+		public void informAnalysisRelativePathDetail(String usePath, String classFilePath) {
+		}
 
-			if (addedDirectories.add(pathPart)) {
-				JarEntry entry = new JarEntry(pathPart);
-				entry.setTime(new Date().getTime());
+		@Override
+		public Collection<String> addJar(String jarPath) {
+			return null;
+		}
 
-				try {
-					jos.putNextEntry(entry);
-					jos.closeEntry();
-				} catch (IOException e) {
-					throw new RuntimeException(e);
+		@Override
+		public String getPossiblyRenamedPath(String path) {
+			return path;
+		}
+
+		@Override
+		public Pair<byte[], String> getClassFileContent(String path) throws IOException {
+			ZipArchive.Entry entry = input.getEntry(path);
+
+			if (entry != null) {
+				return Pair.make(input.read(entry), path);
+			}
+
+			byte[] data = libraryCache.get(path);
+
+			if (data == null) {
+				for (ZipArchive library : libraries) {
+					entry = library.getEntry(path);
+
+					if (entry != null) {
+						data = library.read(entry);
+						libraryCache.put(path, data);
+						break;
+					}
 				}
 			}
+
+			if (data == null) {
+				throw new FileNotFoundException(path);
+			}
+
+			return Pair.make(data, path);
+		}
+
+		@Override
+		public List<SinkClass> getSupportedSinks(SinkType sinkType, Collection<SinkClass> available) {
+			return switch (sinkType) {
+			case PROGRESS -> Collections.singletonList(SinkClass.STRING);
+			case JAVA -> Collections.singletonList(SinkClass.DECOMPILED);
+			case LINENUMBER -> Collections.singletonList(SinkClass.LINE_NUMBER_MAPPING);
+			case EXCEPTION -> Collections.singletonList(SinkClass.EXCEPTION_MESSAGE);
+			default -> Collections.emptyList();
+			};
 		}
 
-		JarEntry entry = new JarEntry(filename);
-		entry.setTime(new Date().getTime());
-		entry.setSize(data.length);
+		@SuppressWarnings("unchecked")
+		@Override
+		public <T> Sink<T> getSink(SinkType sinkType, SinkClass sinkClass) {
+			return switch (sinkType) {
+			case PROGRESS -> (p) -> progressLogger.progress((String) p);
+			case JAVA -> (Sink<T>) (Sink<SinkReturns.Decompiled>) this::writeDecompiled;
+			case LINENUMBER -> (Sink<T>) (Sink<SinkReturns.LineNumberMapping>) this::addLineNumbers;
+			case EXCEPTION -> (Sink<T>) (Sink<SinkReturns.ExceptionMessage>) this::onException;
+			default -> null;
+			};
+		}
 
-		try {
-			jos.putNextEntry(entry);
-			jos.write(data);
-			jos.closeEntry();
-		} catch (IOException e) {
-			throw new RuntimeException(e);
+		void analyse(List<String> batch) {
+			// Left over when the last class of the previous batch failed
+			lines.clear();
+			driver.analyse(batch);
+		}
+
+		/**
+		 * A class CFR failed on is not passed on to the sink, so it is decompiled again the next time.
+		 */
+		private void onException(SinkReturns.ExceptionMessage exception) {
+			// Its line numbers may already have been reported, they are not those of the next class
+			lines.clear();
+			project.getLogger().error("Failed to decompile " + exception.getPath() + ": " + exception.getMessage(), exception.getThrownException());
+		}
+
+		private void addLineNumbers(SinkReturns.LineNumberMapping mapping) {
+			NavigableMap<Integer, Integer> classFileLines = mapping.getClassFileMappings();
+
+			if (classFileLines == null || mapping.getMappings() == null) {
+				return;
+			}
+
+			// Both are by the offset in the bytecode, from the line in the class file to the line in the sources
+			for (Map.Entry<Integer, Integer> entry : mapping.getMappings().entrySet()) {
+				Integer line = classFileLines.get(entry.getKey());
+
+				if (line != null && entry.getValue() != null) {
+					lines.put(line, entry.getValue());
+				}
+			}
+		}
+
+		private void writeDecompiled(SinkReturns.Decompiled decompiled) {
+			String className = decompiled.getPackageName().replace('.', '/');
+
+			if (!className.isEmpty()) {
+				className += "/";
+			}
+
+			className += decompiled.getClassName();
+
+			int[] mapping = null;
+
+			if (!lines.isEmpty()) {
+				mapping = new int[lines.size() * 2];
+				int i = 0;
+
+				for (Map.Entry<Integer, Integer> entry : lines.entrySet()) {
+					mapping[i++] = entry.getKey();
+					mapping[i++] = entry.getValue();
+				}
+
+				lines.clear();
+			}
+
+			sink.accept(className, decompiled.getJava(), mapping);
 		}
 	}
 }
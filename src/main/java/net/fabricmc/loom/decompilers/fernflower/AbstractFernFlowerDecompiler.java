@@ -24,31 +24,42 @@
 
 package net.fabricmc.loom.decompilers.fernflower;
 
-import static java.text.MessageFormat.format;
-
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
-import java.util.function.Supplier;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 import org.gradle.api.Project;
 import org.gradle.api.internal.project.ProjectInternal;
-import org.gradle.api.logging.LogLevel;
 import org.gradle.internal.logging.progress.ProgressLogger;
 import org.gradle.internal.logging.progress.ProgressLoggerFactory;
 import org.gradle.internal.service.ServiceRegistry;
-import org.gradle.process.ExecResult;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
 import org.jetbrains.java.decompiler.main.extern.IFernflowerPreferences;
 
+import net.fabricmc.loom.LoomGradleExtension;
 import net.fabricmc.loom.api.decompilers.DecompilationMetadata;
 import net.fabricmc.loom.api.decompilers.LoomDecompiler;
-import net.fabricmc.loom.util.ConsumingOutputStream;
 import net.fabricmc.loom.util.OperatingSystem;
 
 public abstract class AbstractFernFlowerDecompiler implements LoomDecompiler {
+	// Slightly less than 3GB, the max memory reported by the JVM is smaller than -Xmx
+	private static final long MIN_IN_PROCESS_HEAP = 2900L * 1024 * 1024;
+	private static final String METRICS_FILE = "decompile-metrics.csv";
+	private static final String METRICS_HEADER = "time,decompiler,classes,processes,threads,heapMB,gc,budgetMB,wallMillis,decompilerMillis,gcMillis,peakHeapMB,peakResidentMB";
+
 	private final Project project;
 
 	protected AbstractFernFlowerDecompiler(Project project) {
@@ -63,100 +74,179 @@ public abstract class AbstractFernFlowerDecompiler implements LoomDecompiler {
 			throw new UnsupportedOperationException("FernFlower decompiler requires a 64bit JVM to run due to the memory requirements");
 		}
 
-		project.getLogging().captureStandardOutput(LogLevel.LIFECYCLE);
-
-		Map<String, Object> options = new HashMap<>() {{
+		Map<String, String> options = new HashMap<>() {{
 				put(IFernflowerPreferences.DECOMPILE_GENERIC_SIGNATURES, "1");
 				put(IFernflowerPreferences.BYTECODE_SOURCE_MAPPING, "1");
 				put(IFernflowerPreferences.REMOVE_SYNTHETIC, "1");
-				put(IFernflowerPreferences.LOG_LEVEL, "trace");
-				put(IFernflowerPreferences.THREADS, metaData.numberOfThreads());
+				put(IFernflowerPreferences.LOG_LEVEL, "warn");
 			}};
 
-		List<String> args = new ArrayList<>();
-
-		options.forEach((k, v) -> args.add(format("-{0}={1}", k, v)));
-		args.add(absolutePathOf(compiledJar));
-		args.add("-o=" + absolutePathOf(sourcesDestination));
-		args.add("-l=" + absolutePathOf(linemapDestination));
-		args.add("-m=" + absolutePathOf(metaData.javaDocs()));
-
-		// TODO, Decompiler breaks on jemalloc, J9 module-info.class?
-		for (Path library : metaData.libraries()) {
-			args.add("-e=" + absolutePathOf(library));
-		}
-
 		ServiceRegistry registry = ((ProjectInternal) project).getServices();
 		ProgressLoggerFactory factory = registry.get(ProgressLoggerFactory.class);
 		ProgressLogger progressGroup = factory.newOperation(getClass()).setDescription("Decompile");
-		Supplier<ProgressLogger> loggerFactory = () -> {
-			ProgressLogger pl = factory.newOperation(getClass(), progressGroup);
-			pl.setDescription("decompile worker");
-			pl.started();
-			return pl;
-		};
-		Stack<ProgressLogger> freeLoggers = new Stack<>();
-		Map<String, ProgressLogger> inUseLoggers = new HashMap<>();
+		boolean inProcess = isInProcess();
+		int shards = inProcess ? 1 : getShardCount(compiledJar, metaData);
+		boolean filtered = isFiltered(compiledJar, metaData.classFilter());
+		int threads = Math.max(1, metaData.numberOfThreads() / shards);
+		long startTime = System.nanoTime();
 
+		options.put(IFernflowerPreferences.THREADS, String.valueOf(threads));
 		progressGroup.started();
-		ExecResult result = ForkingJavaExec.javaexec(
-				project,
-				spec -> {
-					spec.getMainClass().set(fernFlowerExecutor().getName());
-					spec.jvmArgs("-Xms200m", "-Xmx3G");
-					spec.setArgs(args);
-					spec.setErrorOutput(new ConsumingOutputStream(line -> {
-						if (line.startsWith("Inconsistent inner class entries")) {
-							// Suppress this
-							return;
-						}
-
-						System.err.println(line);
-					}));
-					spec.setStandardOutput(new ConsumingOutputStream(line -> {
-						if (line.startsWith("Listening for transport") || !line.contains("::")) {
-							System.out.println(line);
-							return;
-						}
-
-						int sepIdx = line.indexOf("::");
-						String id = line.substring(0, sepIdx).trim();
-						String data = line.substring(sepIdx + 2).trim();
-
-						ProgressLogger logger = inUseLoggers.get(id);
-
-						String[] segs = data.split(" ");
-
-						if (segs[0].equals("waiting")) {
-							if (logger != null) {
-								logger.progress("Idle..");
-								inUseLoggers.remove(id);
-								freeLoggers.push(logger);
-							}
-						} else {
-							if (logger == null) {
-								if (!freeLoggers.isEmpty()) {
-									logger = freeLoggers.pop();
-								} else {
-									logger = loggerFactory.get();
-								}
-
-								inUseLoggers.put(id, logger);
-							}
-
-							logger.progress(data);
-						}
-					}));
-				});
-		inUseLoggers.values().forEach(ProgressLogger::completed);
-		freeLoggers.forEach(ProgressLogger::completed);
-		progressGroup.completed();
-
-		result.rethrowFailure();
-		result.assertNormalExitValue();
+
+		try {
+			long heapSize = DecompilerShards.getHeapSize(compiledJar, shards, metaData.memoryBudget());
+			String garbageCollector = DecompilerShards.getGarbageCollector(heapSize, threads);
+			ProgressChannelReceiver progressReceiver = ProgressChannelReceiver.start(project.getLogger(), factory, progressGroup, shards);
+
+			try (progressReceiver) {
+				// TODO, Decompiler breaks on jemalloc, J9 module-info.class?
+				WorkQueue workQueue = getWorkQueue(registry.get(WorkerExecutor.class), inProcess, heapSize, garbageCollector);
+
+				if (shards == 1 && !filtered) {
+					submit(workQueue, options, compiledJar, sourcesDestination, linemapDestination, metaData.javaDocs(), metaData.libraries(), progressReceiver.getPort(), !inProcess);
+					workQueue.await();
+				} else {
+					if (shards > 1) {
+						project.getLogger().lifecycle(":decompiling in {} processes with {}MB of heap each", shards, heapSize);
+					}
+
+					decompileShards(workQueue, options, compiledJar, sourcesDestination, linemapDestination, metaData, shards, progressReceiver.getPort(), !inProcess);
+				}
+			}
+
+			if (!inProcess) {
+				project.getLogger().info(":decompiled in {} processes with {} threads, {}MB of heap and {} each, from a budget of {}MB", shards, threads, heapSize, garbageCollector, metaData.memoryBudget() >> 20);
+				recordMetrics(progressReceiver.getMetrics(), shards, threads, heapSize, garbageCollector, metaData.memoryBudget(), System.nanoTime() - startTime);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to decompile " + compiledJar, e);
+		} finally {
+			progressGroup.completed();
+		}
+	}
+
+	private void decompileShards(WorkQueue workQueue, Map<String, String> options, Path compiledJar, Path sourcesDestination, Path linemapDestination, DecompilationMetadata metaData, int shards, int progressPort, boolean forked) throws IOException {
+		// Every shard decompiles against the classes of the others, and the classes that are not decompiled
+		List<Path> libraries = new ArrayList<>(metaData.libraries());
+		libraries.add(compiledJar);
+
+		Path shardDirectory = Files.createTempDirectory(sourcesDestination.toAbsolutePath().getParent(), "decompile-shards");
+
+		try {
+			List<Path> shardJars = DecompilerShards.split(compiledJar, metaData.classFilter(), shards, shardDirectory);
+			List<Path> shardSources = new ArrayList<>();
+			List<Path> shardLineMaps = new ArrayList<>();
+
+			for (Path shardJar : shardJars) {
+				String name = shardJar.getFileName().toString();
+				Path sources = shardDirectory.resolve(name.replace(".jar", "-sources.jar"));
+				Path lineMap = linemapDestination != null ? shardDirectory.resolve(name.replace(".jar", "-sources.lmap")) : null;
+				shardSources.add(sources);
+				shardLineMaps.add(lineMap);
+
+				submit(workQueue, options, shardJar, sources, lineMap, metaData.javaDocs(), libraries, progressPort, forked);
+			}
+
+			workQueue.await();
+			DecompilerShards.merge(shardSources, shardLineMaps, sourcesDestination, linemapDestination);
+		} finally {
+			try (Stream<Path> files = Files.walk(shardDirectory)) {
+				files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+			}
+		}
+	}
+
+	/**
+	 * Appends the budget and what the decompilers actually used to a file in the user cache, to tune the budget with.
+	 */
+	private void recordMetrics(ProgressChannelReceiver.Metrics metrics, int shards, int threads, long heapSize, String garbageCollector, long memoryBudget, long nanos) {
+		LoomGradleExtension extension = project.getExtensions().getByType(LoomGradleExtension.class);
+		Path metricsFile = extension.getUserCache().toPath().resolve(METRICS_FILE);
+
+		String line = String.join(",", Instant.now().toString(), getClass().getSimpleName(), String.valueOf(metrics.classCount()),
+				String.valueOf(shards), String.valueOf(threads), String.valueOf(heapSize), garbageCollector, String.valueOf(memoryBudget >> 20),
+				String.valueOf(TimeUnit.NANOSECONDS.toMillis(nanos)), String.valueOf(metrics.decompilerMillis()), String.valueOf(metrics.gcMillis()),
+				String.valueOf(metrics.peakHeap() >> 20), String.valueOf(metrics.peakResidentMemory() >> 20)) + System.lineSeparator();
+
+		try {
+			if (!Files.exists(metricsFile)) {
+				line = METRICS_HEADER + System.lineSeparator() + line;
+			}
+
+			Files.writeString(metricsFile, line, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		} catch (IOException e) {
+			project.getLogger().info("Failed to record decompiler metrics to " + metricsFile, e);
+		}
+	}
+
+	private void submit(WorkQueue workQueue, Map<String, String> options, Path input, Path sources, Path lineMap, Path javaDocs, Collection<Path> libraries, int progressPort, boolean forked) {
+		workQueue.submit(FernFlowerWorkAction.class, parameters -> {
+			parameters.getExecutorClass().set(fernFlowerExecutor().getName());
+			parameters.getOptions().set(options);
+			parameters.getInput().set(input.toFile());
+			parameters.getOutput().set(sources.toFile());
+			parameters.getLineMap().set(lineMap != null ? lineMap.toFile() : null);
+			parameters.getMappings().set(javaDocs.toFile());
+			parameters.getLibraries().from(libraries);
+			parameters.getProgressPort().set(progressPort);
+			parameters.getForked().set(forked);
+		});
 	}
 
-	private static String absolutePathOf(Path path) {
-		return path.toAbsolutePath().toString();
+	private boolean isInProcess() {
+		LoomGradleExtension extension = project.getExtensions().getByType(LoomGradleExtension.class);
+
+		if (extension.decompileInProcess) {
+			if (Runtime.getRuntime().maxMemory() >= MIN_IN_PROCESS_HEAP) {
+				return true;
+			}
+
+			project.getLogger().warn("Not decompiling in process, the Gradle daemon has less than 3GB of heap. Increase org.gradle.jvmargs to decompile in process.");
+		}
+
+		return false;
+	}
+
+	private int getShardCount(Path compiledJar, DecompilationMetadata metaData) {
+		LoomGradleExtension extension = project.getExtensions().getByType(LoomGradleExtension.class);
+
+		try {
+			if (extension.decompileShards > 0) {
+				if (extension.decompileShards > 1 && !DecompilerShards.fitsBudget(compiledJar, extension.decompileShards, metaData.memoryBudget())) {
+					project.getLogger().warn(":{} decompiler processes do not fit in {}MB of memory, decompiling in one", extension.decompileShards, metaData.memoryBudget() >> 20);
+					return 1;
+				}
+
+				return extension.decompileShards;
+			}
+
+			return DecompilerShards.getShardCount(compiledJar, metaData.classFilter(), metaData.numberOfThreads(), metaData.memoryBudget());
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to read " + compiledJar, e);
+		}
+	}
+
+	private static boolean isFiltered(Path compiledJar, Predicate<String> classFilter) {
+		try {
+			return DecompilerShards.isFiltered(compiledJar, classFilter);
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to read " + compiledJar, e);
+		}
+	}
+
+	/**
+	 * Decompiles in worker processes that are reused between builds, or inside the daemon when enabled and the daemon
+	 * has enough memory.
+	 */
+	private WorkQueue getWorkQueue(WorkerExecutor workerExecutor, boolean inProcess, long heapSize, String garbageCollector) {
+		if (inProcess) {
+			return workerExecutor.noIsolation();
+		}
+
+		return workerExecutor.processIsolation(spec -> {
+			spec.getForkOptions().setMinHeapSize("200m");
+			spec.getForkOptions().setMaxHeapSize(heapSize + "m");
+			spec.getForkOptions().jvmArgs(garbageCollector);
+		});
 	}
 }
@@ -31,6 +31,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
+import org.jetbrains.java.decompiler.main.extern.IFernflowerLogger;
+
 /**
  * Entry point for Forked FernFlower task.
  * Takes one parameter, a single file, each line is treated as command line input.
@@ -100,8 +102,8 @@ public abstract class AbstractForkedFFExecutor {
 		Objects.requireNonNull(output, "Output not set.");
 		Objects.requireNonNull(mappings, "Mappings not set.");
 
-		ffExecutor.runFF(options, libraries, input, output, lineMap, mappings);
+		ffExecutor.runFF(options, libraries, input, output, lineMap, mappings, new ThreadIDFFLogger());
 	}
 
-	public abstract void runFF(Map<String, Object> options, List<File> libraries, File input, File output, File lineMap, File mappings);
+	public abstract void runFF(Map<String, Object> options, List<File> libraries, File input, File output, File lineMap, File mappings, IFernflowerLogger logger);
 }
@@ -0,0 +1,310 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers.fernflower;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.java.decompiler.main.extern.IFernflowerLogger;
+
+/**
+ * Reports the progress of FernFlower to the build over a {@link ProgressChannel}.
+ *
+ * <p>The state of the threads, the decompiled classes and the heap are collected and only sent every
+ * {@value #FLUSH_INTERVAL_MS}ms, states that did not change since the last flush are not sent again. Messages are
+ * written as they come but also only sent with the next flush, except for errors which are sent right away so they
+ * reach the build even if the worker dies.
+ */
+public class ChannelFFLogger extends IFernflowerLogger implements Closeable {
+	private static final long FLUSH_INTERVAL_MS = 100;
+	private static final Path PROC_STATUS = Paths.get("/proc/self/status");
+	private static final Path PROC_CLEAR_REFS = Paths.get("/proc/self/clear_refs");
+
+	private final Socket socket;
+	private final DataOutputStream output;
+	private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "Decompiler progress");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Map<Long, String> threadStates = new ConcurrentHashMap<>();
+	private final Map<Long, String> sentThreadStates = new HashMap<>();
+	private final Queue<ClassTime> decompiledClasses = new ConcurrentLinkedQueue<>();
+	private final ThreadLocal<Deque<String>> states = ThreadLocal.withInitial(ArrayDeque::new);
+	private final ThreadLocal<Deque<Long>> classStartTimes = ThreadLocal.withInitial(ArrayDeque::new);
+	private final ThreadLocal<Deque<String>> classNames = ThreadLocal.withInitial(ArrayDeque::new);
+	private final boolean forked;
+	private final long startGcMillis;
+	private boolean disconnected;
+
+	private ChannelFFLogger(Socket socket, boolean forked) throws IOException {
+		this.socket = socket;
+		this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		this.forked = forked;
+		// The worker process may be reused, only this decompilation is measured
+		this.startGcMillis = getGarbageCollectionMillis();
+
+		// The memory of the Gradle daemon is not touched, nor would it say anything about the decompiler
+		if (forked) {
+			resetPeakResidentMemory();
+		}
+
+		flusher.scheduleAtFixedRate(this::flush, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Connects to the channel the build is listening on.
+	 *
+	 * @param forked whether this runs in a worker process of its own, the peak memory is only measured then
+	 */
+	public static ChannelFFLogger connect(int port, boolean forked) throws IOException {
+		return new ChannelFFLogger(new Socket(InetAddress.getLoopbackAddress(), port), forked);
+	}
+
+	@Override
+	public void writeMessage(String message, Severity severity) {
+		writeMessage(message, severity, null);
+	}
+
+	@Override
+	public void writeMessage(String message, Severity severity, Throwable t) {
+		if (!accepts(severity) || message.startsWith("Inconsistent inner class entries")) {
+			return;
+		}
+
+		String stackTrace = "";
+
+		if (t != null) {
+			StringWriter writer = new StringWriter();
+			t.printStackTrace(new PrintWriter(writer));
+			stackTrace = writer.toString();
+		}
+
+		String finalStackTrace = stackTrace;
+		send(output -> {
+			output.writeByte(ProgressChannel.MESSAGE);
+			output.writeByte(severity.ordinal());
+			ProgressChannel.writeString(output, message);
+			ProgressChannel.writeString(output, finalStackTrace);
+
+			if (severity == Severity.ERROR) {
+				output.flush();
+			}
+		});
+	}
+
+	@Override
+	public void startReadingClass(String className) {
+		pushState("Decompiling " + className);
+	}
+
+	@Override
+	public void endReadingClass() {
+		popState();
+	}
+
+	@Override
+	public void startClass(String className) {
+		classNames.get().push(className);
+		classStartTimes.get().push(System.nanoTime());
+		pushState("Decompiling " + className);
+	}
+
+	@Override
+	public void endClass() {
+		Long startTime = classStartTimes.get().poll();
+
+		if (startTime != null) {
+			long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime);
+			decompiledClasses.add(new ClassTime(classNames.get().pop(), (int) Math.min(Integer.MAX_VALUE, micros)));
+		}
+
+		popState();
+	}
+
+	@Override
+	public void startMethod(String methodName) {
+		// No need to report methods
+	}
+
+	@Override
+	public void endMethod() {
+	}
+
+	@Override
+	public void startWriteClass(String className) {
+		pushState("Writing " + className);
+	}
+
+	@Override
+	public void endWriteClass() {
+		popState();
+	}
+
+	private void pushState(String state) {
+		states.get().push(state);
+		threadStates.put(Thread.currentThread().getId(), state);
+	}
+
+	private void popState() {
+		Deque<String> stack = states.get();
+		stack.poll();
+		threadStates.put(Thread.currentThread().getId(), stack.isEmpty() ? "" : stack.peek());
+	}
+
+	private void flush() {
+		send(output -> {
+			for (Map.Entry<Long, String> entry : threadStates.entrySet()) {
+				if (!entry.getValue().equals(sentThreadStates.put(entry.getKey(), entry.getValue()))) {
+					output.writeByte(ProgressChannel.THREAD_STATE);
+					output.writeLong(entry.getKey());
+					ProgressChannel.writeString(output, entry.getValue());
+				}
+			}
+
+			ClassTime classTime;
+
+			while ((classTime = decompiledClasses.poll()) != null) {
+				output.writeByte(ProgressChannel.CLASS_DONE);
+				ProgressChannel.writeString(output, classTime.name());
+				output.writeInt(classTime.micros());
+			}
+
+			Runtime runtime = Runtime.getRuntime();
+			output.writeByte(ProgressChannel.HEAP);
+			output.writeLong(runtime.totalMemory() - runtime.freeMemory());
+			output.writeLong(runtime.maxMemory());
+			output.writeLong(getGarbageCollectionMillis() - startGcMillis);
+			output.writeLong(forked ? getPeakResidentMemory() : 0);
+			output.flush();
+		});
+	}
+
+	private static long getGarbageCollectionMillis() {
+		long millis = 0;
+
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, collector.getCollectionTime());
+		}
+
+		return millis;
+	}
+
+	/**
+	 * @return the peak resident memory of the process in bytes as Linux reports it, or 0 on other systems
+	 */
+	private static long getPeakResidentMemory() {
+		if (!Files.isReadable(PROC_STATUS)) {
+			return 0;
+		}
+
+		try {
+			for (String line : Files.readAllLines(PROC_STATUS)) {
+				// VmHWM:    123456 kB
+				if (line.startsWith("VmHWM:")) {
+					return Long.parseLong(line.substring(6).replace("kB", "").trim()) * 1024;
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			// Not worth failing the decompilation for
+		}
+
+		return 0;
+	}
+
+	private static void resetPeakResidentMemory() {
+		try {
+			Files.writeString(PROC_CLEAR_REFS, "5", StandardOpenOption.WRITE);
+		} catch (IOException | UnsupportedOperationException e) {
+			// Not Linux, then the peak is not known anyway
+		}
+	}
+
+	private synchronized void send(EventWriter writer) {
+		if (disconnected) {
+			return;
+		}
+
+		try {
+			writer.write(output);
+		} catch (IOException e) {
+			// The build stopped listening, there is no one to report to but the decompiler can still finish
+			disconnected = true;
+		}
+	}
+
+	/**
+	 * Sends everything that was collected and the end of the events.
+	 */
+	@Override
+	public void close() throws IOException {
+		flusher.shutdown();
+
+		try {
+			flusher.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		flush();
+		send(output -> {
+			output.writeByte(ProgressChannel.END);
+			output.flush();
+		});
+
+		socket.close();
+	}
+
+	@FunctionalInterface
+	private interface EventWriter {
+		void write(DataOutputStream output) throws IOException;
+	}
+
+	private record ClassTime(String name, int micros) {
+	}
+}
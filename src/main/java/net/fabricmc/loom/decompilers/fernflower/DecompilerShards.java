@@ -0,0 +1,292 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers.fernflower;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+import com.sun.management.OperatingSystemMXBean;
+
+import net.fabricmc.loom.decompilers.ClassLineMap;
+import net.fabricmc.loom.decompilers.DecompilerUtils;
+import net.fabricmc.loom.util.zip.ParallelZipWriter;
+import net.fabricmc.loom.util.zip.ZipArchive;
+import net.fabricmc.loom.util.zip.ZipCompression;
+
+/**
+ * Splits a jar by package so it can be decompiled by several FernFlower processes at once, and merges what they
+ * decompiled back together.
+ *
+ * <p>A single FernFlower process with many threads spends most of its time collecting garbage in its heap, several
+ * processes with smaller heaps use the cores of large machines better. Every process still needs the libraries and
+ * the rest of the jar to decompile against, so the heap of a process only partly shrinks with the shards it is split in.
+ *
+ * <p>The heap a jar needs grows with the size of its classes, the numbers are tuned from the metrics every decompilation records.
+ */
+final class DecompilerShards {
+	private static final long MB = 1024 * 1024;
+	// Heap of every process for the libraries and the classes it only decompiles against, and per byte of the classes
+	private static final long BASE_HEAP = 256 * MB;
+	private static final long BASE_HEAP_PER_BYTE = 16;
+	// Heap of a single process for the classes it decompiles, split between the processes
+	private static final long DECOMPILE_HEAP = 256 * MB;
+	private static final long DECOMPILE_HEAP_PER_BYTE = 40;
+	// Metaspace, code cache and thread stacks of a process, outside of its heap
+	private static final long PROCESS_OVERHEAD = 256 * MB;
+	// Below this the heap is collected quickly enough by a single thread
+	private static final long PARALLEL_GC_HEAP = 1536 * MB;
+	private static final int MIN_THREADS_PER_SHARD = 4;
+	private static final int MIN_CLASSES_PER_SHARD = 2000;
+
+	private DecompilerShards() {
+	}
+
+	/**
+	 * @param memoryBudget the memory all processes may use together, or 0 for half of the physical memory
+	 * @return the number of processes to decompile the classes of the jar with, as many as the cores and memory allow for
+	 */
+	static int getShardCount(Path jar, Predicate<String> classFilter, int threads, long memoryBudget) throws IOException {
+		int classCount;
+		long classBytes;
+
+		try (ZipArchive archive = ZipArchive.open(jar)) {
+			classCount = (int) DecompilerUtils.getFilteredClasses(archive, classFilter).count();
+			classBytes = getClassBytes(archive);
+		}
+
+		long memory = memoryBudget > 0 ? memoryBudget : ((OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getTotalMemorySize() / 2;
+		long byMemory = (memory - getDecompileHeap(classBytes)) / (getBaseHeap(classBytes) + PROCESS_OVERHEAD);
+
+		return (int) Math.max(1, Math.min(Math.min(threads / MIN_THREADS_PER_SHARD, classCount / MIN_CLASSES_PER_SHARD), byMemory));
+	}
+
+	/**
+	 * @param memoryBudget the memory all processes may use together, or 0 for no limit
+	 * @return whether every process gets the heap it needs from the budget when the jar is split into this many shards
+	 */
+	static boolean fitsBudget(Path jar, int shards, long memoryBudget) throws IOException {
+		return memoryBudget <= 0 || getHeap(readClassBytes(jar), shards) <= memoryBudget / shards - PROCESS_OVERHEAD;
+	}
+
+	/**
+	 * @param memoryBudget the memory all processes may use together, or 0 for no limit
+	 * @return the max heap of each process, in MB
+	 * @throws RuntimeException if the budget does not leave the processes the heap they need, rather than running out
+	 * of memory part way through
+	 */
+	static long getHeapSize(Path jar, int shards, long memoryBudget) throws IOException {
+		long heap = getHeap(readClassBytes(jar), shards);
+
+		if (memoryBudget > 0 && heap > memoryBudget / shards - PROCESS_OVERHEAD) {
+			long required = (heap + PROCESS_OVERHEAD) * shards;
+			throw new RuntimeException(String.format("Decompiling %s in %d process(es) needs about %dMB of memory, but only %dMB are available to the decompiler. "
+					+ "Set loom.decompileMemory to at least %d, or free up memory", jar.getFileName(), shards, required / MB, memoryBudget / MB, required / MB));
+		}
+
+		return heap / MB;
+	}
+
+	private static long getHeap(long classBytes, int shards) {
+		return getBaseHeap(classBytes) + getDecompileHeap(classBytes) / shards;
+	}
+
+	/**
+	 * @return the garbage collector for a process, the decompiler only cares for throughput and not for pauses
+	 */
+	static String getGarbageCollector(long heapSize, int threads) {
+		return heapSize * MB >= PARALLEL_GC_HEAP && threads > 1 ? "-XX:+UseParallelGC" : "-XX:+UseSerialGC";
+	}
+
+	private static long getBaseHeap(long classBytes) {
+		return BASE_HEAP + classBytes * BASE_HEAP_PER_BYTE;
+	}
+
+	private static long getDecompileHeap(long classBytes) {
+		return DECOMPILE_HEAP + classBytes * DECOMPILE_HEAP_PER_BYTE;
+	}
+
+	private static long readClassBytes(Path jar) throws IOException {
+		try (ZipArchive archive = ZipArchive.open(jar)) {
+			return getClassBytes(archive);
+		}
+	}
+
+	/**
+	 * @return the uncompressed size of all classes of the jar, as the jar may be stored without compression
+	 */
+	private static long getClassBytes(ZipArchive archive) {
+		long size = 0;
+
+		for (ZipArchive.Entry entry : archive.getEntries()) {
+			if (entry.getName().endsWith(".class")) {
+				size += entry.getSize();
+			}
+		}
+
+		return size;
+	}
+
+	/**
+	 * @return whether the filter does not accept all classes of the jar
+	 */
+	static boolean isFiltered(Path jar, Predicate<String> classFilter) throws IOException {
+		try (ZipArchive archive = ZipArchive.open(jar)) {
+			long classCount = archive.getEntries().stream().filter(entry -> entry.getName().endsWith(".class")).count();
+			return DecompilerUtils.getFilteredClasses(archive, classFilter).count() < classCount;
+		}
+	}
+
+	/**
+	 * Splits the classes of the jar accepted by the filter into shards of about the same size, keeping all classes
+	 * of a package together. All other entries that are not classes go into the first shard.
+	 */
+	static List<Path> split(Path jar, Predicate<String> classFilter, int shards, Path directory) throws IOException {
+		try (ZipArchive archive = ZipArchive.open(jar)) {
+			Map<String, List<ZipArchive.Entry>> packages = new TreeMap<>();
+			List<ZipArchive.Entry> resources = new ArrayList<>();
+
+			DecompilerUtils.getFilteredClasses(archive, classFilter).forEach(entry -> {
+				int packageEnd = entry.getName().lastIndexOf('/');
+				packages.computeIfAbsent(packageEnd == -1 ? "" : entry.getName().substring(0, packageEnd), name -> new ArrayList<>()).add(entry);
+			});
+
+			for (ZipArchive.Entry entry : archive.getEntries()) {
+				if (!entry.isDirectory() && !entry.getName().endsWith(".class")) {
+					resources.add(entry);
+				}
+			}
+
+			// Largest packages first, each into the smallest shard so far
+			List<List<ZipArchive.Entry>> sortedPackages = new ArrayList<>(packages.values());
+			sortedPackages.sort(Comparator.comparingLong(DecompilerShards::getSize).reversed());
+
+			List<List<ZipArchive.Entry>> shardEntries = new ArrayList<>();
+			long[] shardSizes = new long[shards];
+
+			for (int i = 0; i < shards; i++) {
+				shardEntries.add(new ArrayList<>());
+			}
+
+			shardEntries.get(0).addAll(resources);
+
+			for (List<ZipArchive.Entry> packageEntries : sortedPackages) {
+				int smallest = 0;
+
+				for (int i = 1; i < shards; i++) {
+					if (shardSizes[i] < shardSizes[smallest]) {
+						smallest = i;
+					}
+				}
+
+				shardEntries.get(smallest).addAll(packageEntries);
+				shardSizes[smallest] += getSize(packageEntries);
+			}
+
+			List<Path> shardJars = new ArrayList<>();
+
+			for (int i = 0; i < shards; i++) {
+				Path shardJar = directory.resolve("shard-" + i + ".jar");
+
+				try (ParallelZipWriter writer = ParallelZipWriter.create(shardJar, ZipCompression.DEFAULT, false)) {
+					for (ZipArchive.Entry entry : shardEntries.get(i)) {
+						writer.copy(archive, entry);
+					}
+				}
+
+				shardJars.add(shardJar);
+			}
+
+			return shardJars;
+		}
+	}
+
+	/**
+	 * Merges the sources and line maps of the shards, sorted by name so the result does not depend on how the jar
+	 * was split.
+	 */
+	static void merge(List<Path> sources, List<Path> lineMaps, Path sourcesDestination, Path lineMapDestination) throws IOException {
+		List<ZipArchive> archives = new ArrayList<>();
+
+		try (ParallelZipWriter writer = ParallelZipWriter.create(sourcesDestination, ZipCompression.DEFAULT, true)) {
+			Set<String> metadata = new HashSet<>();
+
+			for (Path source : sources) {
+				ZipArchive archive = ZipArchive.open(source);
+				archives.add(archive);
+
+				for (ZipArchive.Entry entry : archive.getEntries()) {
+					// Every shard has its own manifest
+					if (entry.getName().startsWith("META-INF/") && !metadata.add(entry.getName())) {
+						continue;
+					}
+
+					writer.copy(archive, entry);
+				}
+			}
+		} finally {
+			for (ZipArchive archive : archives) {
+				archive.close();
+			}
+		}
+
+		if (lineMapDestination != null) {
+			Map<String, ClassLineMap> classes = new TreeMap<>();
+
+			for (Path lineMap : lineMaps) {
+				classes.putAll(ClassLineMap.readFile(lineMap));
+			}
+
+			try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(lineMapDestination)))) {
+				output.writeInt(ClassLineMap.MAGIC);
+
+				for (ClassLineMap classLineMap : classes.values()) {
+					classLineMap.write(output);
+				}
+			}
+		}
+	}
+
+	private static long getSize(List<ZipArchive.Entry> entries) {
+		long size = 0;
+
+		for (ZipArchive.Entry entry : entries) {
+			size += entry.getSize();
+		}
+
+		return size;
+	}
+}
@@ -40,11 +40,10 @@ public class FabricForkedFFExecutor extends AbstractForkedFFExecutor {
 	}
 
 	@Override
-	public void runFF(Map<String, Object> options, List<File> libraries, File input, File output, File lineMap, File mappings) {
-		options.put(IFabricJavadocProvider.PROPERTY_NAME, new TinyJavadocProvider(mappings));
+	public void runFF(Map<String, Object> options, List<File> libraries, File input, File output, File lineMap, File mappings, IFernflowerLogger logger) {
+		options.put(IFabricJavadocProvider.PROPERTY_NAME, TinyJavadocProvider.forMappings(mappings));
 
 		IResultSaver saver = new ThreadSafeResultSaver(() -> output, () -> lineMap);
-		IFernflowerLogger logger = new ThreadIDFFLogger();
 		Fernflower ff = new Fernflower(FernFlowerUtils::getBytecode, saver, options, logger);
 
 		for (File library : libraries) {
@@ -0,0 +1,93 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers.fernflower;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+/**
+ * Runs an {@link AbstractForkedFFExecutor} in a Gradle worker.
+ *
+ * <p>Worker processes are kept alive by Gradle and reused by later builds, so the decompiler classes are already
+ * loaded and compiled, and the javadoc of unchanged mappings is not read again.
+ */
+public abstract class FernFlowerWorkAction implements WorkAction<FernFlowerWorkAction.Parameters> {
+	public interface Parameters extends WorkParameters {
+		Property<String> getExecutorClass();
+
+		MapProperty<String, String> getOptions();
+
+		RegularFileProperty getInput();
+
+		RegularFileProperty getOutput();
+
+		RegularFileProperty getLineMap();
+
+		RegularFileProperty getMappings();
+
+		ConfigurableFileCollection getLibraries();
+
+		/**
+		 * The port the build listens for the progress of the decompiler on, see {@link ProgressChannel}.
+		 */
+		Property<Integer> getProgressPort();
+
+		/**
+		 * Whether the action runs in a worker process of its own, rather than in the Gradle daemon.
+		 */
+		Property<Boolean> getForked();
+	}
+
+	@Override
+	public void execute() {
+		Parameters parameters = getParameters();
+		AbstractForkedFFExecutor executor;
+
+		try {
+			executor = Class.forName(parameters.getExecutorClass().get()).asSubclass(AbstractForkedFFExecutor.class).getConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new RuntimeException("Failed to create decompiler executor " + parameters.getExecutorClass().get(), e);
+		}
+
+		Map<String, Object> options = new HashMap<>(parameters.getOptions().get());
+		File lineMap = parameters.getLineMap().isPresent() ? parameters.getLineMap().get().getAsFile() : null;
+
+		try (ChannelFFLogger logger = ChannelFFLogger.connect(parameters.getProgressPort().get(), parameters.getForked().get())) {
+			executor.runFF(options, new ArrayList<>(parameters.getLibraries().getFiles()), parameters.getInput().get().getAsFile(), parameters.getOutput().get().getAsFile(), lineMap, parameters.getMappings().get().getAsFile(), logger);
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to report decompiler progress", e);
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers.fernflower;
+
+/**
+ * The docs of fields or methods by their owner, name and descriptor, in an open addressing table.
+ *
+ * <p>The owner, name and descriptor of an entry are joined into a single string key once when it is added, looking an
+ * entry up compares the parts against that key in place so it does not allocate.
+ */
+final class MemberDocIndex {
+	private static final char SEPARATOR = ' ';
+
+	private String[] keys = new String[64];
+	private String[] docs = new String[64];
+	private int[] hashes = new int[64];
+	private int size;
+
+	void put(String owner, String name, String descriptor, String doc) {
+		int hash = hash(owner, name, descriptor);
+		int mask = keys.length - 1;
+		int index = hash & mask;
+
+		while (keys[index] != null) {
+			if (hashes[index] == hash && matches(keys[index], owner, name, descriptor)) {
+				docs[index] = doc;
+				return;
+			}
+
+			index = (index + 1) & mask;
+		}
+
+		keys[index] = owner + SEPARATOR + name + SEPARATOR + descriptor;
+		docs[index] = doc;
+		hashes[index] = hash;
+
+		if (++size * 4 > keys.length * 3) {
+			rehash(keys.length * 2);
+		}
+	}
+
+	/**
+	 * @return the doc of the member, or null if it has none
+	 */
+	String get(String owner, String name, String descriptor) {
+		int hash = hash(owner, name, descriptor);
+		int mask = keys.length - 1;
+		int index = hash & mask;
+		String key;
+
+		while ((key = keys[index]) != null) {
+			if (hashes[index] == hash && matches(key, owner, name, descriptor)) {
+				return docs[index];
+			}
+
+			index = (index + 1) & mask;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Shrinks the table to the entries it has, once all were added.
+	 */
+	void trim() {
+		int capacity = Integer.highestOneBit(Math.max(size * 4 / 3, 1)) << 1;
+
+		if (capacity < keys.length) {
+			rehash(capacity);
+		}
+	}
+
+	private void rehash(int capacity) {
+		String[] oldKeys = keys;
+		String[] oldDocs = docs;
+		int[] oldHashes = hashes;
+		keys = new String[capacity];
+		docs = new String[capacity];
+		hashes = new int[capacity];
+		int mask = capacity - 1;
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == null) {
+				continue;
+			}
+
+			int index = oldHashes[i] & mask;
+
+			while (keys[index] != null) {
+				index = (index + 1) & mask;
+			}
+
+			keys[index] = oldKeys[i];
+			docs[index] = oldDocs[i];
+			hashes[index] = oldHashes[i];
+		}
+	}
+
+	private static int hash(String owner, String name, String descriptor) {
+		int hash = (owner.hashCode() * 31 + name.hashCode()) * 31 + descriptor.hashCode();
+		// Spread the high bits, the table is indexed by the low ones
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean matches(String key, String owner, String name, String descriptor) {
+		int nameStart = owner.length() + 1;
+		int descriptorStart = nameStart + name.length() + 1;
+
+		return key.length() == descriptorStart + descriptor.length()
+				&& key.startsWith(owner)
+				&& key.charAt(owner.length()) == SEPARATOR
+				&& key.startsWith(name, nameStart)
+				&& key.charAt(descriptorStart - 1) == SEPARATOR
+				&& key.startsWith(descriptor, descriptorStart);
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers.fernflower;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The binary protocol the decompiler worker reports its progress with, over a socket to the build.
+ *
+ * <p>Every event starts with its type as a byte, followed by its fields. Strings are written as their length and
+ * UTF-8 bytes, as messages with stack traces can be longer than {@link DataOutputStream#writeUTF(String)} allows.
+ */
+final class ProgressChannel {
+	/**
+	 * What a thread of the decompiler is working on: thread id (long), state (string), empty when the thread is idle.
+	 */
+	static final byte THREAD_STATE = 1;
+	/**
+	 * A class was decompiled: class name (string), time it took in microseconds (int).
+	 */
+	static final byte CLASS_DONE = 2;
+	/**
+	 * The resources of the worker: used heap bytes (long), max heap bytes (long), total garbage collection time in
+	 * milliseconds (long), peak resident memory bytes (long), 0 if it is not known.
+	 */
+	static final byte HEAP = 3;
+	/**
+	 * A message of the decompiler: severity ordinal (byte), message (string), stack trace (string), empty if there is none.
+	 */
+	static final byte MESSAGE = 4;
+	/**
+	 * The decompiler is done, nothing is sent after this.
+	 */
+	static final byte END = 5;
+
+	private ProgressChannel() {
+	}
+
+	static void writeString(DataOutputStream output, String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	static String readString(DataInputStream input) throws IOException {
+		byte[] bytes = new byte[input.readInt()];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,265 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers.fernflower;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.internal.logging.progress.ProgressLogger;
+import org.gradle.internal.logging.progress.ProgressLoggerFactory;
+import org.jetbrains.java.decompiler.main.extern.IFernflowerLogger;
+
+/**
+ * Listens for the events of one or more {@link ChannelFFLogger}s, shows what each decompiler thread is doing as a
+ * progress logger and logs the metrics of the decompilation once it is done.
+ */
+final class ProgressChannelReceiver implements Closeable {
+	private static final int SLOWEST_CLASS_COUNT = 5;
+
+	private final ServerSocket serverSocket;
+	private final Logger logger;
+	private final ProgressLoggerFactory factory;
+	private final ProgressLogger progressGroup;
+	private final int connections;
+	private final Thread thread;
+	private final List<Thread> connectionThreads = new ArrayList<>();
+	private volatile int connected;
+
+	private final Deque<ProgressLogger> freeLoggers = new ArrayDeque<>();
+	private final List<ProgressLogger> allLoggers = new ArrayList<>();
+	private final PriorityQueue<ClassTime> slowestClasses = new PriorityQueue<>(Comparator.comparingInt(ClassTime::micros));
+	private int classCount;
+	private long totalMicros;
+	private long peakHeap;
+	private long maxHeap;
+	private long gcMillis;
+	private long peakResidentMemory;
+
+	private ProgressChannelReceiver(ServerSocket serverSocket, Logger logger, ProgressLoggerFactory factory, ProgressLogger progressGroup, int connections) {
+		this.serverSocket = serverSocket;
+		this.logger = logger;
+		this.factory = factory;
+		this.progressGroup = progressGroup;
+		this.connections = connections;
+		this.thread = new Thread(this::accept, "Decompiler progress receiver");
+		this.thread.setDaemon(true);
+	}
+
+	/**
+	 * Starts listening on a port of the loopback address, each of the decompilers connects to {@link #getPort()}.
+	 */
+	static ProgressChannelReceiver start(Logger logger, ProgressLoggerFactory factory, ProgressLogger progressGroup, int connections) throws IOException {
+		ProgressChannelReceiver receiver = new ProgressChannelReceiver(new ServerSocket(0, connections, InetAddress.getLoopbackAddress()), logger, factory, progressGroup, connections);
+		receiver.thread.start();
+		return receiver;
+	}
+
+	int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	private void accept() {
+		try {
+			while (connected < connections) {
+				Socket socket = serverSocket.accept();
+				connected++;
+
+				Thread connectionThread = new Thread(() -> receive(socket), "Decompiler progress receiver " + connected);
+				connectionThread.setDaemon(true);
+				connectionThread.start();
+
+				synchronized (connectionThreads) {
+					connectionThreads.add(connectionThread);
+				}
+			}
+		} catch (IOException e) {
+			// Closed as not every decompiler connected, which the workers report
+		}
+	}
+
+	private void receive(Socket socket) {
+		// Thread ids are only unique within a decompiler
+		Map<Long, ProgressLogger> inUseLoggers = new HashMap<>();
+		// Both are totals of the process, only the last ones count
+		long processGcMillis = 0;
+		long processResidentMemory = 0;
+
+		try (socket; DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+			while (true) {
+				byte type = input.readByte();
+
+				switch (type) {
+				case ProgressChannel.THREAD_STATE -> updateThread(inUseLoggers, input.readLong(), ProgressChannel.readString(input));
+				case ProgressChannel.CLASS_DONE -> addClassTime(new ClassTime(ProgressChannel.readString(input), input.readInt()));
+				case ProgressChannel.HEAP -> {
+					updateHeap(input.readLong(), input.readLong());
+					processGcMillis = input.readLong();
+					processResidentMemory = input.readLong();
+				}
+				case ProgressChannel.MESSAGE -> log(IFernflowerLogger.Severity.values()[input.readByte()], ProgressChannel.readString(input), ProgressChannel.readString(input));
+				case ProgressChannel.END -> {
+					return;
+				}
+				default -> throw new IOException("Unknown decompiler progress event " + type);
+				}
+			}
+		} catch (SocketException | EOFException e) {
+			// The decompiler failed or was never started, which the worker reports
+		} catch (IOException e) {
+			logger.warn("Failed to receive decompiler progress", e);
+		} finally {
+			synchronized (this) {
+				freeLoggers.addAll(inUseLoggers.values());
+				gcMillis += processGcMillis;
+				peakResidentMemory += processResidentMemory;
+			}
+		}
+	}
+
+	private synchronized void updateThread(Map<Long, ProgressLogger> inUseLoggers, long threadId, String state) {
+		ProgressLogger threadLogger = inUseLoggers.get(threadId);
+
+		if (state.isEmpty()) {
+			if (threadLogger != null) {
+				threadLogger.progress("Idle..");
+				inUseLoggers.remove(threadId);
+				freeLoggers.push(threadLogger);
+			}
+
+			return;
+		}
+
+		if (threadLogger == null) {
+			threadLogger = freeLoggers.poll();
+
+			if (threadLogger == null) {
+				threadLogger = factory.newOperation(getClass(), progressGroup);
+				threadLogger.setDescription("decompile worker");
+				threadLogger.started();
+				allLoggers.add(threadLogger);
+			}
+
+			inUseLoggers.put(threadId, threadLogger);
+		}
+
+		threadLogger.progress(state);
+	}
+
+	private synchronized void addClassTime(ClassTime classTime) {
+		classCount++;
+		totalMicros += classTime.micros();
+		slowestClasses.add(classTime);
+
+		if (slowestClasses.size() > SLOWEST_CLASS_COUNT) {
+			slowestClasses.poll();
+		}
+	}
+
+	private synchronized void updateHeap(long used, long max) {
+		peakHeap = Math.max(peakHeap, used);
+		maxHeap = Math.max(maxHeap, max);
+	}
+
+	private void log(IFernflowerLogger.Severity severity, String message, String stackTrace) {
+		String text = stackTrace.isEmpty() ? message : message + System.lineSeparator() + stackTrace;
+
+		switch (severity) {
+		case ERROR -> logger.error(text);
+		case WARN -> logger.warn(text);
+		default -> logger.info(text);
+		}
+	}
+
+	/**
+	 * Waits for the decompilers to send their last events and logs the metrics.
+	 */
+	@Override
+	public void close() throws IOException {
+		// Stop waiting for decompilers that never connected
+		serverSocket.close();
+
+		try {
+			// The decompilers are done once this is called, only buffered events are left
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			thread.join(TimeUnit.SECONDS.toMillis(10));
+
+			List<Thread> threads;
+
+			synchronized (connectionThreads) {
+				threads = new ArrayList<>(connectionThreads);
+			}
+
+			for (Thread connectionThread : threads) {
+				connectionThread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		synchronized (this) {
+			allLoggers.forEach(ProgressLogger::completed);
+		}
+
+		if (classCount > 0) {
+			logger.info(":decompiled {} classes, {}ms of decompiler time, {}ms collecting garbage, peak heap {}MB of {}MB, peak resident memory {}MB", classCount, TimeUnit.MICROSECONDS.toMillis(totalMicros), gcMillis, peakHeap >> 20, maxHeap >> 20, peakResidentMemory >> 20);
+			slowestClasses.stream().sorted(Comparator.comparingInt(ClassTime::micros).reversed())
+					.forEach(classTime -> logger.info("  {} took {}ms", classTime.name(), TimeUnit.MICROSECONDS.toMillis(classTime.micros())));
+		}
+	}
+
+	/**
+	 * @return the metrics of all decompilers together, once they are closed
+	 */
+	synchronized Metrics getMetrics() {
+		return new Metrics(classCount, TimeUnit.MICROSECONDS.toMillis(totalMicros), gcMillis, peakHeap, peakResidentMemory);
+	}
+
+	/**
+	 * @param peakHeap the highest used heap of a single decompiler
+	 * @param peakResidentMemory the peak resident memory of all decompiler processes added up, 0 if it is not known
+	 */
+	record Metrics(int classCount, long decompilerMillis, long gcMillis, long peakHeap, long peakResidentMemory) {
+	}
+
+	private record ClassTime(String name, int micros) {
+	}
+}
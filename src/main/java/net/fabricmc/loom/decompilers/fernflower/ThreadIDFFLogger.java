@@ -54,6 +54,11 @@ public class ThreadIDFFLogger extends IFernflowerLogger {
 
 	@Override
 	public void writeMessage(String message, Severity severity) {
+		if (message.startsWith("Inconsistent inner class entries")) {
+			// Suppress this
+			return;
+		}
+
 		System.err.println(message);
 	}
 
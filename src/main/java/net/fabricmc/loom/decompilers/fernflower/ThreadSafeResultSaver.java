@@ -24,28 +24,26 @@
 
 package net.fabricmc.loom.decompilers.fernflower;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.function.Supplier;
-import java.util.jar.JarOutputStream;
+import java.util.jar.JarFile;
 import java.util.jar.Manifest;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import org.jetbrains.java.decompiler.main.DecompilerContext;
 import org.jetbrains.java.decompiler.main.extern.IResultSaver;
 
 import net.fabricmc.fernflower.api.IFabricResultSaver;
+import net.fabricmc.loom.decompilers.ClassLineMap;
+import net.fabricmc.loom.util.zip.ParallelZipWriter;
+import net.fabricmc.loom.util.zip.ZipCompression;
 
 /**
  * Created by covers1624 on 18/02/19.
@@ -54,9 +52,8 @@ public class ThreadSafeResultSaver implements IResultSaver, IFabricResultSaver {
 	private final Supplier<File> output;
 	private final Supplier<File> lineMapFile;
 
-	public Map<String, ZipOutputStream> outputStreams = new HashMap<>();
-	public Map<String, ExecutorService> saveExecutors = new HashMap<>();
-	public PrintWriter lineMapWriter;
+	public Map<String, ParallelZipWriter> outputWriters = new HashMap<>();
+	public DataOutputStream lineMapWriter;
 
 	public ThreadSafeResultSaver(Supplier<File> output, Supplier<File> lineMapFile) {
 		this.output = output;
@@ -69,17 +66,26 @@ public class ThreadSafeResultSaver implements IResultSaver, IFabricResultSaver {
 		File file = output.get();
 
 		try {
-			FileOutputStream fos = new FileOutputStream(file);
-			ZipOutputStream zos = manifest == null ? new ZipOutputStream(fos) : new JarOutputStream(fos, manifest);
-			outputStreams.put(key, zos);
-			saveExecutors.put(key, Executors.newSingleThreadExecutor());
+			// The entries are compressed on all cores, and sorted so the output does not depend on the order the classes finish in
+			ParallelZipWriter writer = ParallelZipWriter.create(file.toPath(), ZipCompression.DEFAULT, true);
+
+			if (manifest != null) {
+				ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+				manifest.write(manifestBytes);
+				writer.write(JarFile.MANIFEST_NAME, manifestBytes.toByteArray());
+			}
+
+			synchronized (outputWriters) {
+				outputWriters.put(key, writer);
+			}
 		} catch (IOException e) {
 			throw new RuntimeException("Unable to create archive: " + file, e);
 		}
 
 		if (lineMapFile.get() != null) {
 			try {
-				lineMapWriter = new PrintWriter(new FileWriter(lineMapFile.get()));
+				lineMapWriter = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(lineMapFile.get())));
+				lineMapWriter.writeInt(ClassLineMap.MAGIC);
 			} catch (IOException e) {
 				throw new RuntimeException("Unable to create line mapping file: " + lineMapFile.get(), e);
 			}
@@ -94,64 +100,52 @@ public class ThreadSafeResultSaver implements IResultSaver, IFabricResultSaver {
 	@Override
 	public void saveClassEntry(String path, String archiveName, String qualifiedName, String entryName, String content, int[] mapping) {
 		String key = path + "/" + archiveName;
-		ExecutorService executor = saveExecutors.get(key);
-		executor.submit(() -> {
-			ZipOutputStream zos = outputStreams.get(key);
+		ParallelZipWriter writer;
 
-			try {
-				zos.putNextEntry(new ZipEntry(entryName));
+		synchronized (outputWriters) {
+			writer = outputWriters.get(key);
+		}
 
-				if (content != null) {
-					zos.write(content.getBytes(StandardCharsets.UTF_8));
-				}
-			} catch (IOException e) {
-				DecompilerContext.getLogger().writeMessage("Cannot write entry " + entryName, e);
-			}
+		try {
+			writer.write(entryName, content != null ? content.getBytes(StandardCharsets.UTF_8) : new byte[0]);
+		} catch (IOException e) {
+			DecompilerContext.getLogger().writeMessage("Cannot write entry " + entryName, e);
+		}
 
-			if (mapping != null && lineMapWriter != null) {
-				int maxLine = 0;
-				int maxLineDest = 0;
-				StringBuilder builder = new StringBuilder();
+		if (mapping != null && lineMapWriter != null) {
+			ClassLineMap classLineMap = ClassLineMap.of(qualifiedName, mapping);
 
-				for (int i = 0; i < mapping.length; i += 2) {
-					maxLine = Math.max(maxLine, mapping[i]);
-					maxLineDest = Math.max(maxLineDest, mapping[i + 1]);
-					builder.append("\t").append(mapping[i]).append("\t").append(mapping[i + 1]).append("\n");
+			synchronized (lineMapWriter) {
+				try {
+					classLineMap.write(lineMapWriter);
+				} catch (IOException e) {
+					DecompilerContext.getLogger().writeMessage("Cannot write line mapping of " + qualifiedName, e);
 				}
-
-				lineMapWriter.println(qualifiedName + "\t" + maxLine + "\t" + maxLineDest);
-				lineMapWriter.println(builder.toString());
 			}
-		});
+		}
 	}
 
 	@Override
 	public void closeArchive(String path, String archiveName) {
 		String key = path + "/" + archiveName;
-		ExecutorService executor = saveExecutors.get(key);
-		Future<?> closeFuture = executor.submit(() -> {
-			ZipOutputStream zos = outputStreams.get(key);
+		ParallelZipWriter writer;
 
-			try {
-				zos.close();
-			} catch (IOException e) {
-				throw new RuntimeException("Unable to close zip. " + key, e);
-			}
-		});
-		executor.shutdown();
+		synchronized (outputWriters) {
+			writer = outputWriters.remove(key);
+		}
 
 		try {
-			closeFuture.get();
-		} catch (InterruptedException | ExecutionException e) {
-			throw new RuntimeException(e);
+			writer.close();
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to close zip. " + key, e);
 		}
 
-		outputStreams.remove(key);
-		saveExecutors.remove(key);
-
 		if (lineMapWriter != null) {
-			lineMapWriter.flush();
-			lineMapWriter.close();
+			try {
+				lineMapWriter.close();
+			} catch (IOException e) {
+				throw new RuntimeException("Unable to close line mapping file: " + lineMapFile.get(), e);
+			}
 		}
 	}
 
@@ -27,6 +27,7 @@ package net.fabricmc.loom.decompilers.fernflower;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -46,42 +47,77 @@ import net.fabricmc.mapping.tree.MethodDef;
 import net.fabricmc.mapping.tree.ParameterDef;
 import net.fabricmc.mapping.tree.TinyMappingFactory;
 import net.fabricmc.mapping.tree.TinyTree;
-import net.fabricmc.mappings.EntryTriple;
 
+/**
+ * Provides the javadoc comments of the mappings to FernFlower.
+ *
+ * <p>Only the documented classes and members are kept once the mappings are read, with the docs of methods already
+ * joined with those of their parameters. Most of the mappings have no docs, and this is kept in the heap of the
+ * decompiler for the whole decompilation.
+ */
 public class TinyJavadocProvider implements IFabricJavadocProvider {
-	private final Map<String, ClassDef> classes = new HashMap<>();
-	private final Map<EntryTriple, FieldDef> fields = new HashMap<>();
-	private final Map<EntryTriple, MethodDef> methods = new HashMap<>();
+	private final Map<String, String> classes = new HashMap<>();
+	private final MemberDocIndex fields = new MemberDocIndex();
+	private final MemberDocIndex methods = new MemberDocIndex();
 
 	private final String namespace = "named";
 
+	/**
+	 * The provider of the last mappings that were read, kept while there is enough memory so a reused decompiler
+	 * worker does not have to read the same mappings again.
+	 */
+	private static SoftReference<Cached> cached = new SoftReference<>(null);
+
 	public TinyJavadocProvider(File tinyFile) {
 		final TinyTree mappings = readMappings(tinyFile);
 
 		for (ClassDef classDef : mappings.getClasses()) {
 			final String className = classDef.getName(namespace);
-			classes.put(className, classDef);
+
+			if (classDef.getComment() != null) {
+				classes.put(className, classDef.getComment());
+			}
 
 			for (FieldDef fieldDef : classDef.getFields()) {
-				fields.put(new EntryTriple(className, fieldDef.getName(namespace), fieldDef.getDescriptor(namespace)), fieldDef);
+				if (fieldDef.getComment() != null) {
+					fields.put(className, fieldDef.getName(namespace), fieldDef.getDescriptor(namespace), fieldDef.getComment());
+				}
 			}
 
 			for (MethodDef methodDef : classDef.getMethods()) {
-				methods.put(new EntryTriple(className, methodDef.getName(namespace), methodDef.getDescriptor(namespace)), methodDef);
+				String doc = getMethodDoc(methodDef);
+
+				if (doc != null) {
+					methods.put(className, methodDef.getName(namespace), methodDef.getDescriptor(namespace), doc);
+				}
 			}
 		}
+
+		fields.trim();
+		methods.trim();
+	}
+
+	/**
+	 * @return the provider of the mappings file, reused if the file did not change since it was last read
+	 */
+	public static synchronized TinyJavadocProvider forMappings(File tinyFile) {
+		Cached last = cached.get();
+
+		if (last != null && last.file().equals(tinyFile.getAbsoluteFile()) && last.lastModified() == tinyFile.lastModified() && last.length() == tinyFile.length()) {
+			return last.provider();
+		}
+
+		TinyJavadocProvider provider = new TinyJavadocProvider(tinyFile);
+		cached = new SoftReference<>(new Cached(tinyFile.getAbsoluteFile(), tinyFile.lastModified(), tinyFile.length(), provider));
+		return provider;
 	}
 
 	@Override
 	public String getClassDoc(StructClass structClass) {
-		ClassDef classDef = classes.get(structClass.qualifiedName);
-
-		if (classDef == null) {
-			return null;
-		}
+		String classComment = classes.get(structClass.qualifiedName);
 
 		if (!isRecord(structClass)) {
-			return classDef.getComment();
+			return classComment;
 		}
 
 		/**
@@ -91,30 +127,24 @@ public class TinyJavadocProvider implements IFabricJavadocProvider {
 		 */
 		List<String> parts = new ArrayList<>();
 
-		if (classDef.getComment() != null) {
-			parts.add(classDef.getComment());
+		if (classComment != null) {
+			parts.add(classComment);
 		}
 
 		boolean addedParam = false;
 
 		for (StructRecordComponent component : structClass.getRecordComponents()) {
 			// The component will always match the field name and descriptor
-			FieldDef fieldDef = fields.get(new EntryTriple(structClass.qualifiedName, component.getName(), component.getDescriptor()));
-
-			if (fieldDef == null) {
-				continue;
-			}
-
-			String comment = fieldDef.getComment();
+			String comment = fields.get(structClass.qualifiedName, component.getName(), component.getDescriptor());
 
 			if (comment != null) {
-				if (!addedParam && classDef.getComment() != null) {
+				if (!addedParam && classComment != null) {
 					//Add a blank line before components when the class has a comment
 					parts.add("");
 					addedParam = true;
 				}
 
-				parts.add(String.format("@param %s %s", fieldDef.getName(namespace), comment));
+				parts.add(String.format("@param %s %s", component.getName(), comment));
 			}
 		}
 
@@ -132,45 +162,42 @@ public class TinyJavadocProvider implements IFabricJavadocProvider {
 			return null;
 		}
 
-		FieldDef fieldDef = fields.get(new EntryTriple(structClass.qualifiedName, structField.getName(), structField.getDescriptor()));
-		return fieldDef != null ? fieldDef.getComment() : null;
+		return fields.get(structClass.qualifiedName, structField.getName(), structField.getDescriptor());
 	}
 
 	@Override
 	public String getMethodDoc(StructClass structClass, StructMethod structMethod) {
-		MethodDef methodDef = methods.get(new EntryTriple(structClass.qualifiedName, structMethod.getName(), structMethod.getDescriptor()));
-
-		if (methodDef != null) {
-			List<String> parts = new ArrayList<>();
+		return methods.get(structClass.qualifiedName, structMethod.getName(), structMethod.getDescriptor());
+	}
 
-			if (methodDef.getComment() != null) {
-				parts.add(methodDef.getComment());
-			}
+	private String getMethodDoc(MethodDef methodDef) {
+		List<String> parts = new ArrayList<>();
 
-			boolean addedParam = false;
+		if (methodDef.getComment() != null) {
+			parts.add(methodDef.getComment());
+		}
 
-			for (ParameterDef param : methodDef.getParameters()) {
-				String comment = param.getComment();
+		boolean addedParam = false;
 
-				if (comment != null) {
-					if (!addedParam && methodDef.getComment() != null) {
-						//Add a blank line before params when the method has a comment
-						parts.add("");
-						addedParam = true;
-					}
+		for (ParameterDef param : methodDef.getParameters()) {
+			String comment = param.getComment();
 
-					parts.add(String.format("@param %s %s", param.getName(namespace), comment));
+			if (comment != null) {
+				if (!addedParam && methodDef.getComment() != null) {
+					//Add a blank line before params when the method has a comment
+					parts.add("");
+					addedParam = true;
 				}
-			}
 
-			if (parts.isEmpty()) {
-				return null;
+				parts.add(String.format("@param %s %s", param.getName(namespace), comment));
 			}
+		}
 
-			return String.join("\n", parts);
+		if (parts.isEmpty()) {
+			return null;
 		}
 
-		return null;
+		return String.join("\n", parts);
 	}
 
 	private static TinyTree readMappings(File input) {
@@ -188,4 +215,7 @@ public class TinyJavadocProvider implements IFabricJavadocProvider {
 	public static boolean isStatic(StructField structField) {
 		return (structField.getAccessFlags() & Opcodes.ACC_STATIC) != 0;
 	}
+
+	private record Cached(File file, long lastModified, long length, TinyJavadocProvider provider) {
+	}
 }
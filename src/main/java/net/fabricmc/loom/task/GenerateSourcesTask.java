@@ -26,78 +26,124 @@ package net.fabricmc.loom.task;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.CompileClasspath;
+import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.options.Option;
 
 import net.fabricmc.loom.LoomGradleExtension;
+import net.fabricmc.loom.LoomGradlePlugin;
 import net.fabricmc.loom.api.decompilers.DecompilationMetadata;
 import net.fabricmc.loom.api.decompilers.LoomDecompiler;
 import net.fabricmc.loom.configuration.providers.mappings.MappingsProvider;
-import net.fabricmc.loom.decompilers.LineNumberRemapper;
+import net.fabricmc.loom.decompilers.DecompilationCache;
+import net.fabricmc.loom.decompilers.DecompilerBudget;
+import net.fabricmc.loom.decompilers.DecompilerUtils;
 import net.fabricmc.loom.util.Constants;
-import net.fabricmc.loom.util.gradle.ProgressLogger;
-import net.fabricmc.stitch.util.StitchUtil;
 
+@CacheableTask
 public class GenerateSourcesTask extends AbstractLoomTask {
 	public final LoomDecompiler decompiler;
 
 	private File inputJar;
+	private List<String> classes;
 
 	@Inject
 	public GenerateSourcesTask(LoomDecompiler decompiler) {
 		this.decompiler = decompiler;
 
 		setGroup("fabric");
-		getOutputs().upToDateWhen((o) -> false);
+		// The sources jar of --classes also has whatever was decompiled before, which is not known from the inputs
+		getOutputs().upToDateWhen(t -> classes == null && !LoomGradlePlugin.refreshDeps);
+		getOutputs().cacheIf(t -> classes == null && !LoomGradlePlugin.refreshDeps);
 	}
 
 	@TaskAction
 	public void doTask() throws Throwable {
-		int threads = Runtime.getRuntime().availableProcessors();
-		Path javaDocs = getExtension().getMappingsProvider().tinyMappings.toPath();
-		Collection<Path> libraries = getProject().getConfigurations().getByName(Constants.Configurations.MINECRAFT_DEPENDENCIES).getFiles()
-						.stream().map(File::toPath).collect(Collectors.toSet());
+		DecompilerBudget budget = DecompilerBudget.get(getProject());
+		Path javaDocs = getMappings().toPath();
+		Collection<Path> libraries = getLibraries().getFiles().stream().map(File::toPath).collect(Collectors.toSet());
 
-		DecompilationMetadata metadata = new DecompilationMetadata(threads, javaDocs, libraries);
-		Path runtimeJar = getExtension().getMappingsProvider().mappedProvider.getMappedJar().toPath();
-		Path sourcesDestination = getMappedJarFileWithSuffix("-sources.jar").toPath();
-		Path linemap = getMappedJarFileWithSuffix("-sources.lmap").toPath();
-		decompiler.decompile(inputJar.toPath(), sourcesDestination, linemap, metadata);
+		getProject().getLogger().info(":decompiling with {} threads and {}MB of memory", budget.threads(), budget.memory() >> 20);
+		decompile(budget, javaDocs, libraries, getSourcesJar().toPath(), getLineMap().toPath());
+	}
+
+	/**
+	 * Decompiles the classes that are not in the decompilation cache yet, or only those of them that were asked for, and
+	 * writes the sources and line map of all cached classes.
+	 */
+	private void decompile(DecompilerBudget budget, Path javaDocs, Collection<Path> libraries, Path sourcesDestination, Path linemap) throws IOException {
+		DecompilationCache cache = new DecompilationCache(new File(getExtension().getUserCache(), "decompile-cache").toPath());
+		DecompilationCache.Session session = cache.open(inputJar.toPath(), getExtension().getMappingsProvider().getMappings(), decompiler, libraries, LoomGradlePlugin.refreshDeps);
+		Set<String> missing = new TreeSet<>(session.getMissingClasses());
+		int requested = session.getClassCount();
+
+		if (classes != null) {
+			Set<String> requestedClasses = getRequestedClasses(session.getClasses());
+			missing.retainAll(requestedClasses);
+			requested = requestedClasses.size();
+		}
 
-		if (Files.exists(linemap)) {
-			Path linemappedJarDestination = getMappedJarFileWithSuffix("-linemapped.jar").toPath();
+		if (!missing.isEmpty()) {
+			if (missing.size() < requested) {
+				getProject().getLogger().lifecycle(":decompiling {} changed classes, {} are cached", missing.size(), requested - missing.size());
+			}
 
-			// Line map the actually jar used to run the game, not the one used to decompile
-			remapLineNumbers(runtimeJar, linemap, linemappedJarDestination);
+			// Each class is cached as soon as it is decompiled, the other classes are only decompiled against
+			DecompilerUtils.decompile(decompiler, inputJar.toPath(), session::store, new DecompilationMetadata(budget.threads(), javaDocs, libraries, missing::contains, budget.memory()));
+		} else {
+			getProject().getLogger().lifecycle(":all {} classes are cached, skipping decompilation", requested);
+		}
+
+		session.writeSources(sourcesDestination, linemap);
+		missing.removeIf(session::isStored);
+
+		if (!missing.isEmpty()) {
+			getProject().getLogger().warn(":{} classes could not be decompiled and are not in the sources jar, they are decompiled again the next time", missing.size());
+		}
 
-			Files.copy(linemappedJarDestination, runtimeJar, StandardCopyOption.REPLACE_EXISTING);
-			Files.delete(linemappedJarDestination);
+		if (classes != null) {
+			getProject().getLogger().lifecycle(":{} of {} classes are in the sources jar, run {} without --classes to decompile all of them", session.getClassCount() - session.getMissingCount(), session.getClassCount(), getName());
 		}
+
+		cache.cleanup();
 	}
 
-	private void remapLineNumbers(Path oldCompiledJar, Path linemap, Path linemappedJarDestination) throws IOException {
-		getProject().getLogger().info(":adjusting line numbers");
-		LineNumberRemapper remapper = new LineNumberRemapper();
-		remapper.readMappings(linemap.toFile());
+	/**
+	 * @return the top level classes of the classes that were asked for
+	 */
+	private Set<String> getRequestedClasses(Set<String> topLevelClasses) {
+		Set<String> requestedClasses = new TreeSet<>();
+
+		for (String className : classes) {
+			String name = DecompilerUtils.getTopLevelName(className.replace('.', '/'), topLevelClasses);
 
-		ProgressLogger progressLogger = ProgressLogger.getProgressFactory(getProject(), getClass().getName());
-		progressLogger.start("Adjusting line numbers", "linemap");
+			if (!topLevelClasses.contains(name)) {
+				throw new IllegalArgumentException("Could not find class " + className + " in " + inputJar);
+			}
 
-		try (StitchUtil.FileSystemDelegate inFs = StitchUtil.getJarFileSystem(oldCompiledJar.toFile(), true);
-			StitchUtil.FileSystemDelegate outFs = StitchUtil.getJarFileSystem(linemappedJarDestination.toFile(), true)) {
-			remapper.process(progressLogger, inFs.get().getPath("/"), outFs.get().getPath("/"));
+			requestedClasses.add(name);
 		}
 
-		progressLogger.completed();
+		return requestedClasses;
 	}
 
 	private File getMappedJarFileWithSuffix(String suffix) {
@@ -113,11 +159,67 @@ public class GenerateSourcesTask extends AbstractLoomTask {
 		return new File(path.substring(0, path.length() - 4) + suffix);
 	}
 
+	/**
+	 * Only decompiles these classes and their inner classes, the sources jar then only contains the classes that were
+	 * decompiled so far.
+	 */
+	@Option(option = "classes", description = "Only decompile these classes, such as net.minecraft.client.MinecraftClient")
+	public void setClasses(List<String> classes) {
+		this.classes = new ArrayList<>();
+
+		for (String className : classes) {
+			for (String name : className.split(",")) {
+				if (!name.isBlank()) {
+					this.classes.add(name.trim());
+				}
+			}
+		}
+	}
+
+	@Input
+	@Optional
+	public List<String> getClasses() {
+		return classes;
+	}
+
 	@InputFile
+	@PathSensitive(PathSensitivity.NONE)
 	public File getInputJar() {
 		return inputJar;
 	}
 
+	/**
+	 * The mappings the javadoc of the sources comes from.
+	 */
+	@InputFile
+	@PathSensitive(PathSensitivity.NONE)
+	public File getMappings() {
+		return getExtension().getMappingsProvider().tinyMappings;
+	}
+
+	@Input
+	public String getDecompilerName() {
+		return decompiler.getClass().getName();
+	}
+
+	@CompileClasspath
+	public FileCollection getLibraries() {
+		return getProject().getConfigurations().getByName(Constants.Configurations.MINECRAFT_DEPENDENCIES);
+	}
+
+	@OutputFile
+	public File getSourcesJar() {
+		return getMappedJarFileWithSuffix("-sources.jar");
+	}
+
+	/**
+	 * The line map of the sources jar, which not every decompiler writes.
+	 */
+	@OutputFile
+	public File getLineMap() {
+		return getMappedJarFileWithSuffix("-sources.lmap");
+	}
+
 	public GenerateSourcesTask setInputJar(File inputJar) {
 		this.inputJar = inputJar;
 		return this;
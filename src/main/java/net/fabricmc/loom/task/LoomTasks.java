@@ -130,14 +130,33 @@ public final class LoomTasks {
 
 			for (LoomDecompiler decompiler : extension.getDecompilers()) {
 				String taskName = decompiler instanceof FabricFernFlowerDecompiler ? "genSources" : "genSourcesWith" + decompiler.name();
-				// decompiler will be passed to the constructor of GenerateSourcesTask
-				GenerateSourcesTask generateSourcesTask = tasks.register(taskName, GenerateSourcesTask.class, decompiler).get();
-				generateSourcesTask.setInputJar(inputJar);
+				registerGenerateSourcesTask(tasks, taskName, decompiler, inputJar, mappingsProvider.hasUnpickDefinitions());
 
-				if (mappingsProvider.hasUnpickDefinitions()) {
-					generateSourcesTask.dependsOn(tasks.getByName("unpickJar"));
+				if (decompiler instanceof FabricFernFlowerDecompiler) {
+					// The same as genSources, for decompiling only the classes given with --classes
+					registerGenerateSourcesTask(tasks, "genSourcesFor", decompiler, inputJar, mappingsProvider.hasUnpickDefinitions())
+							.setDescription("Decompiles only the classes given with --classes, the sources jar also has the classes that were decompiled before.");
 				}
 			}
 		});
 	}
+
+	private static GenerateSourcesTask registerGenerateSourcesTask(TaskContainer tasks, String taskName, LoomDecompiler decompiler, File inputJar, boolean unpick) {
+		// decompiler will be passed to the constructor of GenerateSourcesTask
+		GenerateSourcesTask generateSourcesTask = tasks.register(taskName, GenerateSourcesTask.class, decompiler).get();
+		generateSourcesTask.setInputJar(inputJar);
+
+		if (unpick) {
+			generateSourcesTask.dependsOn(tasks.getByName("unpickJar"));
+		}
+
+		// Also runs when the sources came from the build cache, which only has the sources jar and line map
+		RemapLineNumbersTask remapLineNumbersTask = tasks.register(taskName + "RemapLineNumbers", RemapLineNumbersTask.class).get();
+		remapLineNumbersTask.setDescription("Adjusts the line numbers of the minecraft jar to the sources of " + taskName + ".");
+		remapLineNumbersTask.setLineMap(generateSourcesTask.getLineMap());
+		remapLineNumbersTask.mustRunAfter(generateSourcesTask);
+		generateSourcesTask.finalizedBy(remapLineNumbersTask);
+
+		return generateSourcesTask;
+	}
 }
@@ -27,15 +27,32 @@ package net.fabricmc.loom.task;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.hash.HashCode;
 import org.cadixdev.lorenz.MappingSet;
 import org.cadixdev.mercury.Mercury;
 import org.cadixdev.mercury.remapper.MercuryRemapper;
@@ -49,15 +66,28 @@ import org.gradle.api.tasks.TaskAction;
 import org.gradle.api.tasks.options.Option;
 
 import net.fabricmc.loom.LoomGradleExtension;
+import net.fabricmc.loom.LoomGradlePlugin;
 import net.fabricmc.loom.configuration.providers.mappings.MappingsProvider;
 import net.fabricmc.loom.configuration.providers.mappings.MojangMappingsDependency;
 import net.fabricmc.loom.configuration.providers.minecraft.MinecraftMappedProvider;
+import net.fabricmc.loom.util.AbiStubJars;
+import net.fabricmc.loom.util.Checksum;
+import net.fabricmc.loom.util.DeletingFileVisitor;
+import net.fabricmc.loom.util.SourceIdentifiers;
 import net.fabricmc.loom.util.SourceRemapper;
 import net.fabricmc.lorenztiny.TinyMappingsJoiner;
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.mapping.tree.FieldDef;
+import net.fabricmc.mapping.tree.MethodDef;
 import net.fabricmc.mapping.tree.TinyMappingFactory;
 import net.fabricmc.mapping.tree.TinyTree;
 
 public class MigrateMappingsTask extends AbstractLoomTask {
+	// Rewriting a group sets up a parser with the whole class path, which is not worth it for fewer files
+	private static final int MIN_FILES_PER_GROUP = 200;
+	// By the hashes of both mappings, reading them takes a while and is the same for every migration between them
+	private static final Map<String, SoftReference<MigrationMappings>> MIGRATION_MAPPINGS = new HashMap<>();
+
 	private Path inputDir;
 	private Path outputDir;
 	private String mappings;
@@ -97,12 +127,21 @@ public class MigrateMappingsTask extends AbstractLoomTask {
 
 		File mappings = loadMappings();
 		MappingsProvider mappingsProvider = extension.getMappingsProvider();
+		long start = System.currentTimeMillis();
 
 		try {
-			TinyTree currentMappings = mappingsProvider.getMappings();
-			TinyTree targetMappings = getMappings(mappings);
-			migrateMappings(project, extension.getMinecraftMappedProvider(), inputDir, outputDir, currentMappings, targetMappings);
+			MigrationMappings migrationMappings = getMigrationMappings(project, mappingsProvider, mappings);
+			MigrationReport report = migrateMappings(project, extension.getMinecraftMappedProvider(), inputDir, outputDir, migrationMappings);
+			report.from = mappingsProvider.mappingsName + ":" + mappingsProvider.mappingsVersion;
+			report.to = this.mappings;
+			report.millis = System.currentTimeMillis() - start;
+
+			File reportFile = new File(extension.getProjectBuildCache(), "migrate-mappings-report.json");
+			Files.createDirectories(reportFile.toPath().getParent());
+			Files.writeString(reportFile.toPath(), LoomGradlePlugin.GSON.toJson(report), StandardCharsets.UTF_8);
+
 			project.getLogger().lifecycle(":remapped project written to " + outputDir.toAbsolutePath());
+			project.getLogger().lifecycle(":{} of {} files changed, report written to {}", report.changed, report.files, reportFile.getAbsolutePath());
 		} catch (IOException e) {
 			throw new IllegalArgumentException("Error while loading mappings", e);
 		}
@@ -158,19 +197,208 @@ public class MigrateMappingsTask extends AbstractLoomTask {
 		}
 	}
 
-	private static void migrateMappings(Project project, MinecraftMappedProvider minecraftMappedProvider,
-										Path inputDir, Path outputDir, TinyTree currentMappings, TinyTree targetMappings
+	/**
+	 * @return the current and target mappings, reused while both stay the same
+	 */
+	private static MigrationMappings getMigrationMappings(Project project, MappingsProvider mappingsProvider, File mappings) throws IOException {
+		String key = HashCode.fromBytes(Checksum.sha256(mappingsProvider.tinyMappings)) + ":" + HashCode.fromBytes(Checksum.sha256(mappings));
+
+		synchronized (MIGRATION_MAPPINGS) {
+			SoftReference<MigrationMappings> ref = MIGRATION_MAPPINGS.get(key);
+
+			if (ref != null && ref.get() != null) {
+				return ref.get();
+			}
+		}
+
+		project.getLogger().info(":reading mappings");
+		TinyTree currentMappings = mappingsProvider.getMappings();
+		TinyTree targetMappings = getMappings(mappings);
+		Set<String> changedNames = Collections.unmodifiableSet(getChangedNames(currentMappings, targetMappings));
+		MigrationMappings migrationMappings = new MigrationMappings(currentMappings, targetMappings, changedNames);
+
+		synchronized (MIGRATION_MAPPINGS) {
+			MIGRATION_MAPPINGS.put(key, new SoftReference<>(migrationMappings));
+		}
+
+		return migrationMappings;
+	}
+
+	/**
+	 * @return the simple names of the classes, fields and methods that are named differently by the target mappings
+	 */
+	private static Set<String> getChangedNames(TinyTree currentMappings, TinyTree targetMappings) {
+		Map<String, ClassDef> targetClasses = new HashMap<>();
+
+		for (ClassDef classDef : targetMappings.getClasses()) {
+			targetClasses.put(classDef.getName("intermediary"), classDef);
+		}
+
+		Set<String> changedNames = new HashSet<>();
+
+		for (ClassDef classDef : currentMappings.getClasses()) {
+			ClassDef targetClass = targetClasses.get(classDef.getName("intermediary"));
+			String name = classDef.getName("named");
+
+			if (targetClass == null || !name.equals(targetClass.getName("named"))) {
+				changedNames.add(name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('$')) + 1));
+			}
+
+			// By name and descriptor, the descriptors of methods start with a ( so they never clash with fields
+			Map<String, String> targetMembers = new HashMap<>();
+
+			if (targetClass != null) {
+				for (FieldDef fieldDef : targetClass.getFields()) {
+					targetMembers.put(fieldDef.getName("intermediary") + fieldDef.getDescriptor("intermediary"), fieldDef.getName("named"));
+				}
+
+				for (MethodDef methodDef : targetClass.getMethods()) {
+					targetMembers.put(methodDef.getName("intermediary") + methodDef.getDescriptor("intermediary"), methodDef.getName("named"));
+				}
+			}
+
+			for (FieldDef fieldDef : classDef.getFields()) {
+				if (!fieldDef.getName("named").equals(targetMembers.get(fieldDef.getName("intermediary") + fieldDef.getDescriptor("intermediary")))) {
+					changedNames.add(fieldDef.getName("named"));
+				}
+			}
+
+			for (MethodDef methodDef : classDef.getMethods()) {
+				if (!methodDef.getName("named").equals(targetMembers.get(methodDef.getName("intermediary") + methodDef.getDescriptor("intermediary")))) {
+					changedNames.add(methodDef.getName("named"));
+				}
+			}
+		}
+
+		return changedNames;
+	}
+
+	/**
+	 * Rewrites the files that mention a changed name, split by package into groups that are rewritten at once, each
+	 * against all sources of the input directory. The other files are copied as they are.
+	 */
+	private static MigrationReport migrateMappings(Project project, MinecraftMappedProvider minecraftMappedProvider,
+										Path inputDir, Path outputDir, MigrationMappings migrationMappings
 	) throws IOException {
-		project.getLogger().info(":joining mappings");
+		Map<String, List<String>> packages = new TreeMap<>();
+		Map<String, Long> sizes = new HashMap<>();
+		Set<String> skipped = new TreeSet<>();
+
+		try (Stream<Path> files = Files.walk(inputDir)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				if (!Files.isRegularFile(file) || !file.getFileName().toString().endsWith(".java")) {
+					continue;
+				}
+
+				String name = inputDir.relativize(file).toString().replace('\\', '/');
+				Set<String> identifiers = SourceIdentifiers.read(Files.readString(file, StandardCharsets.UTF_8)).identifiers();
+
+				if (Collections.disjoint(identifiers, migrationMappings.changedNames())) {
+					skipped.add(name);
+				} else {
+					int packageEnd = name.lastIndexOf('/');
+					packages.computeIfAbsent(packageEnd == -1 ? "" : name.substring(0, packageEnd), s -> new ArrayList<>()).add(name);
+					sizes.put(name, Files.size(file));
+				}
+			}
+		}
+
+		int fileCount = sizes.size() + skipped.size();
+		int groupCount = SourceRemapper.getThreadCount(project, Math.min(packages.size(), (sizes.size() + MIN_FILES_PER_GROUP - 1) / MIN_FILES_PER_GROUP));
+		List<List<String>> groups = getGroups(packages, sizes, groupCount);
+		project.getLogger().lifecycle(":remapping {} of {} files in {} groups", sizes.size(), fileCount, groups.size());
+
+		MigrationReport report = new MigrationReport();
+		Path tempDirectory = Files.createTempDirectory("fabric-loom-migrate");
+
+		try {
+			Set<String> failed = rewrite(project, minecraftMappedProvider, inputDir, tempDirectory, groups, migrationMappings);
+
+			for (String name : skipped) {
+				copy(inputDir.resolve(name), outputDir.resolve(name));
+				report.add(name, "skipped");
+			}
+
+			for (int i = 0; i < groups.size(); i++) {
+				for (String name : groups.get(i)) {
+					Path remapped = tempDirectory.resolve("dst-" + i).resolve(name);
+
+					if (failed.contains(name) || !Files.exists(remapped)) {
+						copy(inputDir.resolve(name), outputDir.resolve(name));
+						report.add(name, "failed");
+					} else {
+						boolean changed = Files.mismatch(inputDir.resolve(name), remapped) != -1;
+						copy(remapped, outputDir.resolve(name));
+						report.add(name, changed ? "changed" : "unchanged");
+					}
+				}
+			}
+		} finally {
+			Files.walkFileTree(tempDirectory, new DeletingFileVisitor());
+		}
+
+		report.entries.sort(Comparator.comparing(entry -> entry.file));
+		return report;
+	}
+
+	/**
+	 * Splits the packages into groups of about the same size, largest packages first into the smallest group so far.
+	 */
+	private static List<List<String>> getGroups(Map<String, List<String>> packages, Map<String, Long> sizes, int groupCount) {
+		List<List<String>> sortedPackages = new ArrayList<>(packages.values());
+		sortedPackages.sort(Comparator.comparingLong((List<String> files) -> getSize(files, sizes)).reversed());
+
+		List<List<String>> groups = new ArrayList<>();
+		long[] groupSizes = new long[groupCount];
+
+		for (int i = 0; i < groupCount; i++) {
+			groups.add(new ArrayList<>());
+		}
+
+		for (List<String> files : sortedPackages) {
+			int smallest = 0;
+
+			for (int i = 1; i < groupCount; i++) {
+				if (groupSizes[i] < groupSizes[smallest]) {
+					smallest = i;
+				}
+			}
+
+			groups.get(smallest).addAll(files);
+			groupSizes[smallest] += getSize(files, sizes);
+		}
+
+		groups.removeIf(List::isEmpty);
+		return groups;
+	}
+
+	private static long getSize(List<String> files, Map<String, Long> sizes) {
+		long size = 0;
+
+		for (String file : files) {
+			size += sizes.get(file);
+		}
+
+		return size;
+	}
 
-		MappingSet mappingSet = new TinyMappingsJoiner(
-				currentMappings, "named",
-				targetMappings, "named",
-				"intermediary"
-		).read();
+	/**
+	 * Rewrites each group with a {@link Mercury} and {@link MappingSet} of its own into {@code dst-<group>} of the temp
+	 * directory, Mercury adds to the mappings while it remaps and they are not thread safe.
+	 *
+	 * @return the files of the groups that could not be rewritten
+	 */
+	private static Set<String> rewrite(Project project, MinecraftMappedProvider minecraftMappedProvider, Path inputDir, Path tempDirectory, List<List<String>> groups, MigrationMappings migrationMappings) throws IOException {
+		Set<String> failed = Collections.synchronizedSet(new HashSet<>());
+
+		if (groups.isEmpty()) {
+			return failed;
+		}
 
-		project.getLogger().lifecycle(":remapping");
-		Mercury mercury = SourceRemapper.createMercuryWithClassPath(project, false);
+		Mercury template = SourceRemapper.createMercuryWithClassPath(project, false);
+		template.getClassPath().add(minecraftMappedProvider.getMappedJar().toPath());
+		template.getClassPath().add(minecraftMappedProvider.getIntermediaryJar().toPath());
+		template.getClassPath().replaceAll(path -> AbiStubJars.get(project, path));
 
 		final JavaPluginConvention convention = project.getConvention().findPlugin(JavaPluginConvention.class);
 		final JavaVersion javaVersion = convention != null
@@ -178,20 +406,120 @@ public class MigrateMappingsTask extends AbstractLoomTask {
 				convention.getSourceCompatibility()
 				:
 				JavaVersion.current();
-		mercury.setSourceCompatibility(javaVersion.toString());
-
-		mercury.getClassPath().add(minecraftMappedProvider.getMappedJar().toPath());
-		mercury.getClassPath().add(minecraftMappedProvider.getIntermediaryJar().toPath());
 
-		mercury.getProcessors().add(MercuryRemapper.create(mappingSet));
+		ExecutorService executor = Executors.newFixedThreadPool(groups.size(), runnable -> {
+			Thread thread = new Thread(runnable, "Mappings migrator");
+			thread.setDaemon(true);
+			return thread;
+		});
 
 		try {
-			mercury.rewrite(inputDir, outputDir);
-		} catch (Exception e) {
-			project.getLogger().warn("Could not remap fully!", e);
+			List<Future<?>> futures = new ArrayList<>();
+
+			for (int i = 0; i < groups.size(); i++) {
+				List<String> group = groups.get(i);
+				Path srcPath = tempDirectory.resolve("src-" + i);
+				Path dstPath = tempDirectory.resolve("dst-" + i);
+
+				for (String name : group) {
+					copy(inputDir.resolve(name), srcPath.resolve(name));
+				}
+
+				Files.createDirectories(dstPath);
+
+				// The files of the other groups are found on the source path
+				Mercury mercury = new Mercury();
+				mercury.setGracefulClasspathChecks(true);
+				mercury.setSourceCompatibility(javaVersion.toString());
+				mercury.getClassPath().addAll(template.getClassPath());
+				mercury.getSourcePath().add(inputDir);
+
+				futures.add(executor.submit(() -> {
+					try {
+						mercury.getProcessors().add(MercuryRemapper.create(migrationMappings.join()));
+						mercury.rewrite(srcPath, dstPath);
+					} catch (Exception e) {
+						project.getLogger().warn("Could not remap fully!", e);
+						failed.addAll(group);
+					}
+
+					return null;
+				}));
+			}
+
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while migrating mappings", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Failed to migrate mappings", e.getCause());
+		} finally {
+			executor.shutdownNow();
 		}
 
-		project.getLogger().info(":cleaning file descriptors");
-		System.gc();
+		return failed;
+	}
+
+	private static void copy(Path source, Path target) throws IOException {
+		Files.createDirectories(target.getParent());
+		Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * The current and target mappings, which are only read, and the simple names of everything the target mappings
+	 * rename for finding the files to rewrite.
+	 */
+	private record MigrationMappings(TinyTree currentMappings, TinyTree targetMappings, Set<String> changedNames) {
+		/**
+		 * @return new mappings from the current to the target names, for a single {@link Mercury}
+		 */
+		MappingSet join() {
+			return new TinyMappingsJoiner(
+					currentMappings, "named",
+					targetMappings, "named",
+					"intermediary"
+			).read();
+		}
+	}
+
+	/**
+	 * Written as JSON once the mappings are migrated, each file is either changed, unchanged, skipped as it mentions
+	 * nothing the target mappings rename, or failed to be rewritten and copied as it is.
+	 */
+	@SuppressWarnings("unused")
+	private static class MigrationReport {
+		public String from;
+		public String to;
+		public long millis;
+		public int files;
+		public int changed;
+		public int unchanged;
+		public int skipped;
+		public int failed;
+		public List<Entry> entries = new ArrayList<>();
+
+		void add(String file, String status) {
+			entries.add(new Entry(file, status));
+			files++;
+
+			switch (status) {
+			case "changed" -> changed++;
+			case "unchanged" -> unchanged++;
+			case "skipped" -> skipped++;
+			default -> failed++;
+			}
+		}
+
+		private static class Entry {
+			public String file;
+			public String status;
+
+			Entry(String file, String status) {
+				this.file = file;
+				this.status = status;
+			}
+		}
 	}
 }
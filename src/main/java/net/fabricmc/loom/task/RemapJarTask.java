@@ -47,7 +47,6 @@ import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.TaskAction;
 import org.gradle.jvm.tasks.Jar;
 import org.jetbrains.annotations.ApiStatus;
-import org.zeroturnaround.zip.ZipUtil;
 
 import net.fabricmc.loom.LoomGradleExtension;
 import net.fabricmc.loom.build.JarRemapper;
@@ -59,9 +58,9 @@ import net.fabricmc.loom.build.nesting.NestedDependencyProvider;
 import net.fabricmc.loom.build.nesting.NestedJarProvider;
 import net.fabricmc.loom.configuration.accesswidener.AccessWidenerJarProcessor;
 import net.fabricmc.loom.configuration.providers.mappings.MappingsProvider;
+import net.fabricmc.loom.util.AbiStubJars;
 import net.fabricmc.loom.util.Constants;
 import net.fabricmc.loom.util.TinyRemapperMappingsHelper;
-import net.fabricmc.loom.util.ZipReprocessorUtil;
 import net.fabricmc.stitch.util.Pair;
 import net.fabricmc.tinyremapper.TinyRemapper;
 import net.fabricmc.tinyremapper.TinyUtils;
@@ -120,6 +119,7 @@ public class RemapJarTask extends Jar {
 
 		if (isMainRemapTask) {
 			jarRemapper.addToClasspath(getRemapClasspath());
+			jarRemapper.setAbiStubDirectory(AbiStubJars.getDirectory(project));
 
 			jarRemapper.addMappings(TinyRemapperMappingsHelper.create(mappingsProvider.getMappings(), fromM, toM, false));
 		}
@@ -143,7 +143,8 @@ public class RemapJarTask extends Jar {
 						byte[] data;
 
 						try {
-							data = accessWidenerJarProcessor.getRemappedAccessWidener(remapper);
+							// Only the mappings are needed to remap the access widener, the remapper's classpath is not.
+							data = accessWidenerJarProcessor.getRemappedAccessWidener(mappingsProvider.getMappingsIndex().createRemapper(fromM, toM));
 						} catch (IOException e) {
 							throw new RuntimeException("Failed to remap access widener");
 						}
@@ -156,30 +157,24 @@ public class RemapJarTask extends Jar {
 
 					return null;
 				})
-				.complete((data, accessWidener) -> {
-					if (!Files.exists(output)) {
-						throw new RuntimeException("Failed to remap " + input + " to " + output + " - file missing!");
-					}
-
-					if (MixinRefmapHelper.addRefmapName(extension.getRefmapName(), output)) {
+				.transformOutput((transaction, accessWidener) -> {
+					if (MixinRefmapHelper.addRefmapName(extension.getRefmapName(), transaction)) {
 						project.getLogger().debug("Transformed mixin reference maps in output JAR!");
 					}
 
 					if (getAddNestedDependencies().getOrElse(false)) {
-						JarNester.nestJars(nestedJarProvider.provide(), output.toFile(), project.getLogger());
+						JarNester.nestJars(nestedJarProvider.provide(), transaction, output.getFileName().toString(), project.getLogger());
 					}
 
 					if (accessWidener != null) {
-						boolean replaced = ZipUtil.replaceEntry(data.output.toFile(), accessWidener.getLeft(), accessWidener.getRight());
-						Preconditions.checkArgument(replaced, "Failed to remap access widener");
+						Preconditions.checkArgument(transaction.hasEntry(accessWidener.getLeft()), "Failed to remap access widener");
+						transaction.put(accessWidener.getLeft(), accessWidener.getRight());
 					}
-
-					if (isReproducibleFileOrder() || !isPreserveFileTimestamps()) {
-						try {
-							ZipReprocessorUtil.reprocessZip(output.toFile(), isReproducibleFileOrder(), isPreserveFileTimestamps());
-						} catch (IOException e) {
-							throw new RuntimeException("Failed to re-process jar", e);
-						}
+				})
+				.reproducibility(isReproducibleFileOrder(), isPreserveFileTimestamps())
+				.complete((data, accessWidener) -> {
+					if (!Files.exists(output)) {
+						throw new RuntimeException("Failed to remap " + input + " to " + output + " - file missing!");
 					}
 				});
 	}
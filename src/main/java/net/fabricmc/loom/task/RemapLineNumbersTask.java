@@ -0,0 +1,119 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.task;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+
+import net.fabricmc.loom.configuration.providers.minecraft.MinecraftMappedProvider;
+import net.fabricmc.loom.decompilers.LineNumberRemapper;
+import net.fabricmc.loom.util.Checksum;
+import net.fabricmc.loom.util.gradle.ProgressLogger;
+
+/**
+ * Line maps the mapped jar with the line map of a {@link GenerateSourcesTask}, so the game runs with the line numbers
+ * of the decompiled sources.
+ *
+ * <p>This runs after the sources task, even when its sources came from the build cache, and only writes a new line
+ * mapped jar when the mapped jar or line map changed.
+ */
+public class RemapLineNumbersTask extends AbstractLoomTask {
+	private File lineMap;
+
+	@TaskAction
+	public void doTask() throws IOException {
+		if (!lineMap.exists()) {
+			getProject().getLogger().info(":no line map to adjust line numbers with");
+			return;
+		}
+
+		MinecraftMappedProvider mappedProvider = getExtension().getMappingsProvider().mappedProvider;
+		Path runtimeJar = mappedProvider.getMappedJar().toPath();
+
+		// A new jar for every jar and line map, the mapped jar and line mapped jars in use are never written to
+		Hasher hasher = Hashing.sha256().newHasher();
+		hasher.putBytes(Checksum.sha256(runtimeJar.toFile()));
+		hasher.putBytes(Checksum.sha256(lineMap));
+		String classifier = MinecraftMappedProvider.LINE_MAPPED_CLASSIFIER + "-" + hasher.hash().toString().substring(0, 16);
+
+		if (classifier.equals(mappedProvider.getLineMappedClassifier())) {
+			return;
+		}
+
+		Path linemappedJarDestination = mappedProvider.getLineMappedJar(classifier).toPath();
+
+		if (!Files.exists(linemappedJarDestination)) {
+			Path tempFile = Files.createTempFile(linemappedJarDestination.getParent(), linemappedJarDestination.getFileName().toString(), ".tmp");
+
+			try {
+				// Line map the actually jar used to run the game, not the one used to decompile
+				remapLineNumbers(runtimeJar, tempFile);
+
+				try {
+					Files.move(tempFile, linemappedJarDestination, StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(tempFile, linemappedJarDestination);
+				}
+			} finally {
+				Files.deleteIfExists(tempFile);
+			}
+		}
+
+		mappedProvider.setLineMappedClassifier(classifier);
+		getProject().getLogger().lifecycle(":the line mapped minecraft jar is used from the next time the project is loaded");
+	}
+
+	private void remapLineNumbers(Path oldCompiledJar, Path linemappedJarDestination) throws IOException {
+		getProject().getLogger().info(":adjusting line numbers");
+		LineNumberRemapper remapper = new LineNumberRemapper();
+		remapper.readMappings(lineMap);
+
+		ProgressLogger progressLogger = ProgressLogger.getProgressFactory(getProject(), getClass().getName());
+		progressLogger.start("Adjusting line numbers", "linemap");
+
+		remapper.process(progressLogger, oldCompiledJar, linemappedJarDestination, getExtension().getCacheJarCompression());
+
+		progressLogger.completed();
+	}
+
+	@Internal
+	public File getLineMap() {
+		return lineMap;
+	}
+
+	public RemapLineNumbersTask setLineMap(File lineMap) {
+		this.lineMap = lineMap;
+		return this;
+	}
+}
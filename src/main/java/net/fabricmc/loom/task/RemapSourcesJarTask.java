@@ -48,12 +48,20 @@ public class RemapSourcesJarTask extends AbstractLoomTask {
 	@TaskAction
 	public void remap() throws Exception {
 		if (sourceRemapper == null) {
-			SourceRemapper.remapSources(getProject(), getInput(), getOutput(), direction.equals("named"), reproducibleFileOrder, preserveFileTimestamps);
+			SourceRemapper.remapSources(getProject(), getInput(), getOutput(), direction.equals("named"), reproducibleFileOrder, preserveFileTimestamps, getCacheDirectory());
 		} else {
-			sourceRemapper.scheduleRemapSources(getInput(), getOutput(), reproducibleFileOrder, preserveFileTimestamps);
+			sourceRemapper.scheduleRemapSources(getInput(), getOutput(), reproducibleFileOrder, preserveFileTimestamps, getCacheDirectory());
 		}
 	}
 
+	/**
+	 * Where the remapped files are kept, so the next run only remaps the files that changed since.
+	 */
+	@Internal
+	public File getCacheDirectory() {
+		return new File(getExtension().getProjectBuildCache(), "remapped-sources/" + getName());
+	}
+
 	@Internal
 	public SourceRemapper getSourceRemapper() {
 		return sourceRemapper;
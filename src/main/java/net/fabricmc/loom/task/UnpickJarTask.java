@@ -28,62 +28,95 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+import javax.inject.Inject;
+
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.CompileClasspath;
 import org.gradle.api.tasks.InputFile;
-import org.gradle.api.tasks.Internal;
-import org.gradle.api.tasks.JavaExec;
 import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
 
-import net.fabricmc.loom.LoomGradleExtension;
 import net.fabricmc.loom.configuration.providers.LaunchProvider;
 import net.fabricmc.loom.util.Constants;
 
-public class UnpickJarTask extends JavaExec {
+/**
+ * Runs unpick on the mapped jar in a worker process that is reused between builds.
+ *
+ * <p>All inputs are declared, so the task is skipped when they did not change and its output can be taken from the
+ * build cache.
+ */
+@CacheableTask
+public abstract class UnpickJarTask extends AbstractLoomTask {
 	File inputJar;
 	File unpickDefinition;
 
 	File outputJar;
 
-	public UnpickJarTask() {
-		getOutputs().upToDateWhen(e -> false);
-		classpath(getProject().getConfigurations().getByName(Constants.Configurations.UNPICK_CLASSPATH));
-		setMain("daomephsta.unpick.cli.Main");
-	}
+	@Inject
+	protected abstract WorkerExecutor getWorkerExecutor();
 
-	@Override
-	public void exec() {
-		fileArg(getInputJar(), getOutputJar(), getUnpickDefinition());
-		fileArg(getConstantJar());
+	@TaskAction
+	public void doTask() {
+		List<String> args = new ArrayList<>();
+		fileArg(args, getInputJar(), getOutputJar(), getUnpickDefinition());
+		fileArg(args, getConstantJar().getSingleFile());
 
 		// Classpath
-		fileArg(getExtension().getMinecraftMappedProvider().getMappedJar());
-		fileArg(getMinecraftDependencies());
+		fileArg(args, getExtension().getMinecraftMappedProvider().getMappedJar());
+		getMinecraftDependencies().forEach(file -> fileArg(args, file));
+
+		File loggingConfig = getExtension().getUnpickLoggingConfigFile();
+		writeUnpickLogConfig(loggingConfig.toPath());
 
-		writeUnpickLogConfig();
-		systemProperty("java.util.logging.config.file", getExtension().getUnpickLoggingConfigFile().getAbsolutePath());
+		WorkQueue workQueue = getWorkerExecutor().processIsolation(spec -> {
+			spec.getClasspath().from(getUnpickClasspath());
+			spec.getForkOptions().systemProperty("java.util.logging.config.file", loggingConfig.getAbsolutePath());
+		});
 
-		super.exec();
+		workQueue.submit(UnpickWorkAction.class, parameters -> parameters.getArguments().set(args));
 	}
 
-	private void writeUnpickLogConfig() {
+	private static void writeUnpickLogConfig(Path loggingConfig) {
 		try (InputStream is = LaunchProvider.class.getClassLoader().getResourceAsStream("unpick-logging.properties")) {
-			Files.deleteIfExists(getExtension().getUnpickLoggingConfigFile().toPath());
-			Files.copy(is, getExtension().getUnpickLoggingConfigFile().toPath());
+			byte[] config = is.readAllBytes();
+
+			// Left alone when unchanged, so a running worker keeps reading the same file
+			if (!Files.exists(loggingConfig) || !Arrays.equals(Files.readAllBytes(loggingConfig), config)) {
+				Files.write(loggingConfig, config);
+			}
 		} catch (IOException e) {
 			throw new RuntimeException("Failed to copy unpick logging config", e);
 		}
 	}
 
-	private File[] getMinecraftDependencies() {
-		return getProject().getConfigurations().getByName(Constants.Configurations.MINECRAFT_DEPENDENCIES)
-				.resolve().toArray(new File[0]);
+	@CompileClasspath
+	public FileCollection getMinecraftDependencies() {
+		return getProject().getConfigurations().getByName(Constants.Configurations.MINECRAFT_DEPENDENCIES);
+	}
+
+	@CompileClasspath
+	public FileCollection getConstantJar() {
+		return getProject().getConfigurations().getByName(Constants.Configurations.MAPPING_CONSTANTS);
 	}
 
-	private File getConstantJar() {
-		return getProject().getConfigurations().getByName(Constants.Configurations.MAPPING_CONSTANTS).getSingleFile();
+	@Classpath
+	public FileCollection getUnpickClasspath() {
+		return getProject().getConfigurations().getByName(Constants.Configurations.UNPICK_CLASSPATH);
 	}
 
 	@InputFile
+	@PathSensitive(PathSensitivity.NONE)
 	public File getInputJar() {
 		return inputJar;
 	}
@@ -94,6 +127,7 @@ public class UnpickJarTask extends JavaExec {
 	}
 
 	@InputFile
+	@PathSensitive(PathSensitivity.NONE)
 	public File getUnpickDefinition() {
 		return unpickDefinition;
 	}
@@ -113,14 +147,9 @@ public class UnpickJarTask extends JavaExec {
 		return this;
 	}
 
-	private void fileArg(File... files) {
+	private static void fileArg(List<String> args, File... files) {
 		for (File file : files) {
-			args(file.getAbsolutePath());
+			args.add(file.getAbsolutePath());
 		}
 	}
-
-	@Internal
-	protected LoomGradleExtension getExtension() {
-		return getProject().getExtensions().getByType(LoomGradleExtension.class);
-	}
 }
@@ -22,45 +22,28 @@
  * SOFTWARE.
  */
 
-package net.fabricmc.loom.util;
+package net.fabricmc.loom.task;
 
-import java.io.OutputStream;
-import java.util.function.Consumer;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
 
 /**
- * Created by covers1624 on 20/12/18.
+ * Runs the command line of unpick in a Gradle worker, unpick is only on the classpath of the worker.
  */
-public class ConsumingOutputStream extends OutputStream {
-	private final Consumer<String> consumer;
-
-	private StringBuilder buffer = new StringBuilder();
-
-	public ConsumingOutputStream(Consumer<String> consumer) {
-		this.consumer = consumer;
+public abstract class UnpickWorkAction implements WorkAction<UnpickWorkAction.Parameters> {
+	public interface Parameters extends WorkParameters {
+		ListProperty<String> getArguments();
 	}
 
 	@Override
-	public void write(int b) {
-		char ch = (char) (b & 0xFF);
-		buffer.append(ch);
-
-		if (ch == '\n' || ch == '\r') {
-			flush();
-		}
-	}
-
-	@Override
-	public void flush() {
-		String str = buffer.toString();
-
-		if (str.endsWith("\r") || str.endsWith("\n")) {
-			str = str.trim();
-
-			if (!str.isEmpty()) {
-				consumer.accept(str);
-			}
+	public void execute() {
+		String[] args = getParameters().getArguments().get().toArray(new String[0]);
 
-			buffer = new StringBuilder();
+		try {
+			Class.forName("daomephsta.unpick.cli.Main").getMethod("main", String[].class).invoke(null, (Object) args);
+		} catch (ReflectiveOperationException e) {
+			throw new RuntimeException("Failed to run unpick", e);
 		}
 	}
 }
@@ -0,0 +1,122 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+
+/**
+ * Hashes the parts of a class that other classes can depend on, leaving out the code of its methods.
+ */
+public final class AbiHashingVisitor extends ClassVisitor {
+	private final Hasher hasher;
+	private String name;
+
+	public AbiHashingVisitor(Hasher hasher) {
+		super(Constants.ASM_VERSION);
+		this.hasher = hasher;
+	}
+
+	/**
+	 * @return the ABI hash of a class
+	 */
+	public static byte[] hash(byte[] classBytes) {
+		Hasher hasher = Hashing.sha256().newHasher();
+		new ClassReader(classBytes).accept(new AbiHashingVisitor(hasher), ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+		return hasher.hash().asBytes();
+	}
+
+	/**
+	 * @return the internal name of the visited class
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+		this.name = name;
+		hasher.putInt(access);
+		putString(hasher, name);
+		putString(hasher, signature);
+		putString(hasher, superName);
+
+		for (String anInterface : interfaces) {
+			putString(hasher, anInterface);
+		}
+	}
+
+	@Override
+	public void visitInnerClass(String name, String outerName, String innerName, int access) {
+		putString(hasher, name);
+		putString(hasher, outerName);
+		putString(hasher, innerName);
+		hasher.putInt(access);
+	}
+
+	@Override
+	public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+		hasher.putInt(access);
+		putString(hasher, name);
+		putString(hasher, descriptor);
+		putString(hasher, signature);
+		putString(hasher, value != null ? value.getClass().getName() + ":" + value : null);
+		return null;
+	}
+
+	@Override
+	public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+		hasher.putInt(access);
+		putString(hasher, name);
+		putString(hasher, descriptor);
+		putString(hasher, signature);
+
+		if (exceptions != null) {
+			for (String exception : exceptions) {
+				putString(hasher, exception);
+			}
+		}
+
+		// Not null, the remapper only visits the code of methods it has a visitor for
+		return new MethodVisitor(api) {
+		};
+	}
+
+	private static void putString(Hasher hasher, String string) {
+		if (string == null) {
+			hasher.putInt(-1);
+			return;
+		}
+
+		hasher.putInt(string.length());
+		hasher.putString(string, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,207 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.stream.Stream;
+
+import com.google.common.hash.Hashing;
+import org.gradle.api.Project;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import net.fabricmc.loom.LoomGradleExtension;
+import net.fabricmc.loom.util.zip.ParallelZipWriter;
+import net.fabricmc.loom.util.zip.ZipArchive;
+import net.fabricmc.loom.util.zip.ZipCompression;
+
+/**
+ * Copies of class path jars with only what is needed to resolve symbols against them: the classes and their members
+ * with their signatures, annotations and constants, but without the code of their methods, debug info or resources.
+ *
+ * <p>Mercury and TinyRemapper never look at the method bodies of the jars on their class path, parsing them costs
+ * time and heap for nothing, which adds up for the Minecraft jars. The stub of a jar is kept in the user cache by the
+ * path of the jar, and made again once its size or modification time changes.
+ *
+ * <p>Other builds may read the same stubs at any time, so a stub is never written to once it exists, and only removed by
+ * {@link #cleanup(Path)} after it has not been used for a while.
+ */
+public final class AbiStubJars {
+	private static final int VERSION = 1;
+	private static final Duration MAX_UNUSED_TIME = Duration.ofDays(14);
+	private static final Duration CLEANUP_INTERVAL = Duration.ofDays(1);
+
+	private AbiStubJars() {
+	}
+
+	public static Path getDirectory(Project project) {
+		return new File(project.getExtensions().getByType(LoomGradleExtension.class).getUserCache(), "abi-stubs").toPath();
+	}
+
+	/**
+	 * @return the stub of the jar, or the path itself when it is not a jar or could not be read
+	 */
+	public static Path get(Project project, Path path) {
+		return get(getDirectory(project), path);
+	}
+
+	public static Path[] get(Project project, Path... paths) {
+		Path directory = getDirectory(project);
+		Path[] stubs = new Path[paths.length];
+
+		for (int i = 0; i < paths.length; i++) {
+			stubs[i] = get(directory, paths[i]);
+		}
+
+		return stubs;
+	}
+
+	/**
+	 * @return the stub of the jar, or the path itself when it is not a jar or could not be read
+	 */
+	public static Path get(Path directory, Path path) {
+		if (!Files.isRegularFile(path) || !path.getFileName().toString().endsWith(".jar") || path.startsWith(directory)) {
+			return path;
+		}
+
+		try {
+			return getStub(directory, path);
+		} catch (IOException | RuntimeException e) {
+			// Left to the tool reading the class path, as if there were no stubs
+			return path;
+		}
+	}
+
+	private static Path getStub(Path directory, Path jar) throws IOException {
+		Path jarDirectory = directory.resolve(Hashing.sha256().hashString(jar.toAbsolutePath().toString(), StandardCharsets.UTF_8).toString().substring(0, 16));
+		String name = VERSION + "-" + Files.size(jar) + "-" + Files.getLastModifiedTime(jar).toMillis() + ".jar";
+		Path stub = jarDirectory.resolve(name);
+
+		if (Files.exists(stub)) {
+			markUsed(stub);
+			return stub;
+		}
+
+		Files.createDirectories(jarDirectory);
+		Path temp = Files.createTempFile(jarDirectory, "stub", ".tmp");
+
+		try {
+			// Stored, the stub is read far more often than it is written
+			try (ZipArchive archive = ZipArchive.open(jar); ParallelZipWriter writer = ParallelZipWriter.create(temp, ZipCompression.STORED, false)) {
+				for (ZipArchive.Entry entry : archive.getEntries()) {
+					if (!entry.isDirectory() && entry.getName().endsWith(".class")) {
+						writer.transform(archive, entry, AbiStubJars::stripClass);
+					}
+				}
+			}
+
+			try {
+				Files.move(temp, stub, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, stub);
+			}
+		} catch (IOException e) {
+			// Another build made the same stub at the same time
+			if (!Files.exists(stub)) {
+				throw e;
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+
+		return stub;
+	}
+
+	/**
+	 * Keeps the stub from being removed by {@link #cleanup(Path)}, at most once a day.
+	 */
+	private static void markUsed(Path stub) {
+		try {
+			Instant now = Instant.now();
+
+			if (Files.getLastModifiedTime(stub).toInstant().isBefore(now.minus(CLEANUP_INTERVAL))) {
+				Files.setLastModifiedTime(stub, FileTime.from(now));
+			}
+		} catch (IOException e) {
+			// Only means it may be made again after the next cleanup
+		}
+	}
+
+	/**
+	 * Removes the stubs that have not been used recently, and the directories of jars that have none left, at most
+	 * once a day.
+	 */
+	public static void cleanup(Path directory) throws IOException {
+		Path marker = directory.resolve(".last-cleanup");
+		Instant now = Instant.now();
+
+		if (!Files.isDirectory(directory) || Files.exists(marker) && Files.getLastModifiedTime(marker).toInstant().isAfter(now.minus(CLEANUP_INTERVAL))) {
+			return;
+		}
+
+		Files.write(marker, new byte[0]);
+
+		Instant oldest = now.minus(MAX_UNUSED_TIME);
+
+		try (Stream<Path> jarDirectories = Files.list(directory)) {
+			for (Path jarDirectory : (Iterable<Path>) jarDirectories::iterator) {
+				if (!Files.isDirectory(jarDirectory)) {
+					continue;
+				}
+
+				try (Stream<Path> files = Files.list(jarDirectory)) {
+					for (Path file : (Iterable<Path>) files::iterator) {
+						if (Files.getLastModifiedTime(file).toInstant().isBefore(oldest)) {
+							Files.deleteIfExists(file);
+						}
+					}
+				}
+
+				try {
+					Files.deleteIfExists(jarDirectory);
+				} catch (DirectoryNotEmptyException e) {
+					// Still has stubs in use
+				}
+			}
+		}
+	}
+
+	private static byte[] stripClass(byte[] classBytes) {
+		// Without the reader, so the constant pool of the stub only has what is left of the class
+		ClassWriter writer = new ClassWriter(0);
+		new ClassReader(classBytes).accept(writer, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+		return writer.toByteArray();
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The identifiers of a Java source file, without those in comments and literals.
+ *
+ * <p>Every reference to a type or member in the file uses its simple name as an identifier, so a file that does not
+ * have a name as an identifier cannot reference anything by that name. This does not parse the file, it only tells
+ * the tokens apart.
+ */
+public record SourceIdentifiers(Set<String> identifiers, Set<String> declaredTypes) {
+	public static SourceIdentifiers read(String source) {
+		Set<String> identifiers = new HashSet<>();
+		Set<String> declaredTypes = new HashSet<>();
+		boolean afterTypeKeyword = false;
+		int length = source.length();
+		int i = 0;
+
+		while (i < length) {
+			char c = source.charAt(i);
+
+			if (Character.isJavaIdentifierStart(c)) {
+				int start = i;
+
+				while (i < length && Character.isJavaIdentifierPart(source.charAt(i))) {
+					i++;
+				}
+
+				String identifier = source.substring(start, i);
+				identifiers.add(identifier);
+
+				if (afterTypeKeyword) {
+					declaredTypes.add(identifier);
+				}
+
+				afterTypeKeyword = isTypeKeyword(identifier);
+			} else if (c == '/' && i + 1 < length && source.charAt(i + 1) == '/') {
+				i = source.indexOf('\n', i);
+				i = i == -1 ? length : i;
+			} else if (c == '/' && i + 1 < length && source.charAt(i + 1) == '*') {
+				i = source.indexOf("*/", i + 2);
+				i = i == -1 ? length : i + 2;
+			} else if (c == '"' && source.startsWith("\"\"\"", i)) {
+				i = skipLiteral(source, i + 3, "\"\"\"");
+				afterTypeKeyword = false;
+			} else if (c == '"' || c == '\'') {
+				i = skipLiteral(source, i + 1, String.valueOf(c));
+				afterTypeKeyword = false;
+			} else {
+				if (!Character.isWhitespace(c)) {
+					afterTypeKeyword = false;
+				}
+
+				i++;
+			}
+		}
+
+		return new SourceIdentifiers(identifiers, declaredTypes);
+	}
+
+	/**
+	 * @return the index after the end of the literal, skipping escaped characters
+	 */
+	private static int skipLiteral(String source, int i, String end) {
+		while (i < source.length()) {
+			if (source.charAt(i) == '\\') {
+				i += 2;
+			} else if (source.startsWith(end, i)) {
+				return i + end.length();
+			} else if (end.length() == 1 && source.charAt(i) == '\n') {
+				// Unterminated, which does not compile anyway
+				return i;
+			} else {
+				i++;
+			}
+		}
+
+		return source.length();
+	}
+
+	private static boolean isTypeKeyword(String identifier) {
+		return switch (identifier) {
+		case "class", "interface", "enum", "record" -> true;
+		default -> false;
+		};
+	}
+}
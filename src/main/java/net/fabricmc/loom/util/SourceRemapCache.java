@@ -0,0 +1,359 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import net.fabricmc.loom.util.zip.ZipArchive;
+
+/**
+ * Keeps the remapped Java files of the last remap of a sources jar, so that only the files that changed since then
+ * and the files that reference the types declared in them have to be remapped again.
+ *
+ * <p>A file that references a changed type is found by the simple name of the type, see {@link SourceIdentifiers},
+ * which is repeated for the types it declares in turn. All files are remapped again when the fingerprint of the
+ * mappings and the ABI of the class path changes.
+ *
+ * <p>The cache directory holds the index of the file hashes, a copy of the sources the files are remapped against
+ * and the remapped files.
+ */
+public final class SourceRemapCache {
+	private static final int VERSION = 1;
+
+	private final Path directory;
+	private final Path sourcesDirectory;
+	private final Path remappedDirectory;
+	private final Path index;
+
+	public SourceRemapCache(Path directory) {
+		this.directory = directory;
+		this.sourcesDirectory = directory.resolve("sources");
+		this.remappedDirectory = directory.resolve("remapped");
+		this.index = directory.resolve("index");
+	}
+
+	/**
+	 * Brings the copy of the sources up to date with the given ones.
+	 *
+	 * @param sources the contents of the Java files by their name
+	 * @return the files that have to be remapped, all of them when nothing could be reused
+	 */
+	public Set<String> update(Map<String, byte[]> sources, String fingerprint) throws IOException {
+		Map<String, String> hashes = new TreeMap<>();
+
+		for (Map.Entry<String, byte[]> entry : sources.entrySet()) {
+			hashes.put(entry.getKey(), Hashing.sha256().hashBytes(entry.getValue()).toString());
+		}
+
+		Map<String, String> oldHashes = readIndex(fingerprint);
+		// Written again once the remapped files are stored
+		Files.deleteIfExists(index);
+
+		if (oldHashes == null) {
+			delete(sourcesDirectory);
+			delete(remappedDirectory);
+
+			for (Map.Entry<String, byte[]> entry : sources.entrySet()) {
+				write(sourcesDirectory.resolve(entry.getKey()), entry.getValue());
+			}
+
+			return new HashSet<>(sources.keySet());
+		}
+
+		Set<String> changed = new HashSet<>();
+		Set<String> dirtyTypes = new HashSet<>();
+
+		for (Map.Entry<String, String> entry : hashes.entrySet()) {
+			if (!entry.getValue().equals(oldHashes.get(entry.getKey())) || !Files.exists(remappedDirectory.resolve(entry.getKey()))) {
+				changed.add(entry.getKey());
+			}
+		}
+
+		for (String name : oldHashes.keySet()) {
+			if (!hashes.containsKey(name)) {
+				changed.add(name);
+			}
+		}
+
+		if (changed.isEmpty()) {
+			return Set.of();
+		}
+
+		// The types a changed file declared before and after the change
+		for (String name : changed) {
+			Path oldSource = sourcesDirectory.resolve(name);
+
+			if (Files.exists(oldSource)) {
+				dirtyTypes.addAll(SourceIdentifiers.read(Files.readString(oldSource, StandardCharsets.UTF_8)).declaredTypes());
+			}
+
+			if (sources.containsKey(name)) {
+				dirtyTypes.addAll(readIdentifiers(sources.get(name)).declaredTypes());
+			}
+		}
+
+		Set<String> dirty = new HashSet<>(changed);
+		dirty.retainAll(sources.keySet());
+		addReferencingFiles(sources, dirty, dirtyTypes);
+
+		for (String name : changed) {
+			if (sources.containsKey(name)) {
+				write(sourcesDirectory.resolve(name), sources.get(name));
+			} else {
+				Files.deleteIfExists(sourcesDirectory.resolve(name));
+				Files.deleteIfExists(remappedDirectory.resolve(name));
+			}
+		}
+
+		return dirty;
+	}
+
+	/**
+	 * Adds the files that reference the dirty types to the dirty files, until no more types become dirty.
+	 */
+	private static void addReferencingFiles(Map<String, byte[]> sources, Set<String> dirty, Set<String> dirtyTypes) {
+		Map<String, List<String>> filesByIdentifier = new HashMap<>();
+		Map<String, Set<String>> declaredTypes = new HashMap<>();
+
+		for (Map.Entry<String, byte[]> entry : sources.entrySet()) {
+			if (dirty.contains(entry.getKey())) {
+				continue;
+			}
+
+			SourceIdentifiers identifiers = readIdentifiers(entry.getValue());
+			declaredTypes.put(entry.getKey(), identifiers.declaredTypes());
+
+			for (String identifier : identifiers.identifiers()) {
+				filesByIdentifier.computeIfAbsent(identifier, s -> new ArrayList<>()).add(entry.getKey());
+			}
+		}
+
+		Deque<String> queue = new ArrayDeque<>(dirtyTypes);
+
+		while (!queue.isEmpty()) {
+			for (String name : filesByIdentifier.getOrDefault(queue.poll(), List.of())) {
+				if (dirty.add(name)) {
+					for (String type : declaredTypes.get(name)) {
+						if (dirtyTypes.add(type)) {
+							queue.add(type);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replaces the remapped files with the output of Mercury, the files that it did not write are removed.
+	 */
+	public void store(Path output, Set<String> remapped) throws IOException {
+		for (String name : remapped) {
+			Path source = output.resolve(name);
+			Path target = remappedDirectory.resolve(name);
+
+			if (Files.exists(source)) {
+				Files.createDirectories(target.getParent());
+				Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+			} else {
+				Files.deleteIfExists(target);
+			}
+		}
+	}
+
+	/**
+	 * Marks the remapped files as complete for the given sources.
+	 */
+	public void commit(Map<String, byte[]> sources, String fingerprint) throws IOException {
+		Files.createDirectories(directory);
+
+		try (BufferedWriter writer = Files.newBufferedWriter(index, StandardCharsets.UTF_8)) {
+			writer.write(VERSION + " " + fingerprint);
+			writer.newLine();
+
+			for (Map.Entry<String, byte[]> entry : new TreeMap<>(sources).entrySet()) {
+				writer.write(Hashing.sha256().hashBytes(entry.getValue()).toString() + " " + entry.getKey());
+				writer.newLine();
+			}
+		}
+	}
+
+	/**
+	 * @return the remapped file, or null if Mercury did not write one for it
+	 */
+	public Path getRemapped(String name) {
+		Path path = remappedDirectory.resolve(name);
+		return Files.exists(path) ? path : null;
+	}
+
+	/**
+	 * @return the sources as of the last {@link #update(Map, String)}, to remap the dirty files against
+	 */
+	public Path getSourcesDirectory() {
+		return sourcesDirectory;
+	}
+
+	/**
+	 * The fingerprint of the ABI of a class path, jars are only read again once their size or time changes.
+	 */
+	public String getClassPathFingerprint(List<Path> classPath) throws IOException {
+		Path classPathIndex = directory.resolve("classpath");
+		Map<String, String> oldHashes = new HashMap<>();
+
+		if (Files.exists(classPathIndex)) {
+			for (String line : Files.readAllLines(classPathIndex, StandardCharsets.UTF_8)) {
+				int separator = line.indexOf(' ');
+				oldHashes.put(line.substring(separator + 1), line.substring(0, separator));
+			}
+		}
+
+		Hasher hasher = Hashing.sha256().newHasher();
+		List<String> lines = new ArrayList<>();
+
+		for (Path path : classPath) {
+			String hash;
+
+			if (Files.isDirectory(path)) {
+				hash = getAbiHash(path);
+			} else if (Files.isRegularFile(path)) {
+				String key = path.toAbsolutePath() + "|" + Files.size(path) + "|" + Files.getLastModifiedTime(path).toMillis();
+				hash = oldHashes.get(key);
+
+				if (hash == null) {
+					hash = getJarAbiHash(path);
+				}
+
+				lines.add(hash + " " + key);
+			} else {
+				hash = "missing";
+			}
+
+			hasher.putString(hash, StandardCharsets.UTF_8);
+		}
+
+		Files.createDirectories(directory);
+		Files.write(classPathIndex, lines, StandardCharsets.UTF_8);
+		return hasher.hash().toString();
+	}
+
+	private static String getAbiHash(Path directory) throws IOException {
+		Map<String, byte[]> hashes = new TreeMap<>();
+
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				if (file.toString().endsWith(".class")) {
+					hashes.put(directory.relativize(file).toString().replace('\\', '/'), AbiHashingVisitor.hash(Files.readAllBytes(file)));
+				}
+			}
+		}
+
+		return hash(hashes);
+	}
+
+	private static String getJarAbiHash(Path jar) throws IOException {
+		Map<String, byte[]> hashes = new TreeMap<>();
+
+		try (ZipArchive archive = ZipArchive.open(jar)) {
+			for (ZipArchive.Entry entry : archive.getEntries()) {
+				if (entry.getName().endsWith(".class")) {
+					hashes.put(entry.getName(), AbiHashingVisitor.hash(archive.read(entry)));
+				}
+			}
+		} catch (IOException e) {
+			// Not a jar, which Mercury skips as well
+			return Hashing.sha256().hashBytes(Files.readAllBytes(jar)).toString();
+		}
+
+		return hash(hashes);
+	}
+
+	private static String hash(Map<String, byte[]> hashes) {
+		Hasher hasher = Hashing.sha256().newHasher();
+
+		for (Map.Entry<String, byte[]> entry : hashes.entrySet()) {
+			hasher.putString(entry.getKey(), StandardCharsets.UTF_8);
+			hasher.putBytes(entry.getValue());
+		}
+
+		return hasher.hash().toString();
+	}
+
+	/**
+	 * @return the hashes of the files of the last remap, or null if it was remapped with another fingerprint
+	 */
+	private Map<String, String> readIndex(String fingerprint) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+			if (!(VERSION + " " + fingerprint).equals(reader.readLine())) {
+				return null;
+			}
+
+			Map<String, String> hashes = new HashMap<>();
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				int separator = line.indexOf(' ');
+				hashes.put(line.substring(separator + 1), line.substring(0, separator));
+			}
+
+			return hashes;
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	private static SourceIdentifiers readIdentifiers(byte[] source) {
+		return SourceIdentifiers.read(new String(source, StandardCharsets.UTF_8));
+	}
+
+	private static void write(Path path, byte[] data) throws IOException {
+		Files.createDirectories(path.getParent());
+		Files.write(path, data);
+	}
+
+	private static void delete(Path directory) throws IOException {
+		if (Files.exists(directory)) {
+			Files.walkFileTree(directory, new DeletingFileVisitor());
+		}
+	}
+}
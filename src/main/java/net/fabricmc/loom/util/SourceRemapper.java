@@ -26,34 +26,51 @@ package net.fabricmc.loom.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.function.Consumer;
-
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import org.cadixdev.lorenz.MappingSet;
 import org.cadixdev.mercury.Mercury;
 import org.cadixdev.mercury.remapper.MercuryRemapper;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Dependency;
 import org.gradle.api.plugins.JavaPlugin;
-import org.zeroturnaround.zip.ZipUtil;
 
 import net.fabricmc.loom.LoomGradleExtension;
+import net.fabricmc.loom.LoomGradlePlugin;
 import net.fabricmc.loom.configuration.RemappedConfigurationEntry;
 import net.fabricmc.loom.configuration.providers.LaunchProvider;
 import net.fabricmc.loom.configuration.providers.mappings.MappingsProvider;
 import net.fabricmc.loom.util.gradle.ProgressLogger;
+import net.fabricmc.loom.util.zip.JarTransaction;
+import net.fabricmc.loom.util.zip.ZipArchive;
 import net.fabricmc.lorenztiny.TinyMappingsReader;
 import net.fabricmc.mapping.tree.TinyTree;
 import net.fabricmc.stitch.util.StitchUtil;
 
 public class SourceRemapper {
+	// Roughly what parsing and rewriting one sources jar with its own copy of the mappings takes, it comes out of the heap of the daemon
+	private static final long MEMORY_PER_REMAPPER = 256 * 1024 * 1024;
+
 	private final Project project;
 	private final boolean toNamed;
-	private final List<Consumer<ProgressLogger>> remapTasks = new ArrayList<>();
+	private final List<RemapTask> remapTasks = new ArrayList<>();
 
 	private Mercury mercury;
 
@@ -63,49 +80,175 @@ public class SourceRemapper {
 	}
 
 	public static void remapSources(Project project, File input, File output, boolean named, boolean reproducibleFileOrder, boolean preserveFileTimestamps) {
+		remapSources(project, input, output, named, reproducibleFileOrder, preserveFileTimestamps, null);
+	}
+
+	public static void remapSources(Project project, File input, File output, boolean named, boolean reproducibleFileOrder, boolean preserveFileTimestamps, File cacheDirectory) {
 		SourceRemapper sourceRemapper = new SourceRemapper(project, named);
-		sourceRemapper.scheduleRemapSources(input, output, reproducibleFileOrder, preserveFileTimestamps);
+		sourceRemapper.scheduleRemapSources(input, output, reproducibleFileOrder, preserveFileTimestamps, cacheDirectory);
 		sourceRemapper.remapAll();
 	}
 
 	public void scheduleRemapSources(File source, File destination, boolean reproducibleFileOrder, boolean preserveFileTimestamps) {
-		remapTasks.add((logger) -> {
-			try {
-				logger.progress("remapping sources - " + source.getName());
-				remapSourcesInner(source, destination);
-				ZipReprocessorUtil.reprocessZip(destination, reproducibleFileOrder, preserveFileTimestamps);
+		scheduleRemapSources(source, destination, reproducibleFileOrder, preserveFileTimestamps, null);
+	}
 
-				// Set the remapped sources creation date to match the sources if we're likely succeeded in making it
-				destination.setLastModified(source.lastModified());
-			} catch (Exception e) {
-				// Failed to remap, lets clean up to ensure we try again next time
-				destination.delete();
-				throw new RuntimeException("Failed to remap sources for " + source, e);
-			}
-		});
+	/**
+	 * @param cacheDirectory where the remapped files of a sources jar are kept, so that only the files that changed
+	 *                       and the files that reference them are remapped the next time, or null to remap all of them
+	 */
+	public void scheduleRemapSources(File source, File destination, boolean reproducibleFileOrder, boolean preserveFileTimestamps, File cacheDirectory) {
+		remapTasks.add(new RemapTask(source, destination, reproducibleFileOrder, preserveFileTimestamps, cacheDirectory));
 	}
 
+	/**
+	 * Remaps all scheduled jars, several at once when there are enough cores and heap for them. Each thread has its own
+	 * {@link Mercury} as it is not thread safe, they share the class path. Each has its own {@link MappingSet} too, as
+	 * Mercury adds to the mappings while it remaps.
+	 *
+	 * <p>A jar that fails to remap does not stop the others, the failures are thrown together once all are done.
+	 */
 	public void remapAll() {
 		if (remapTasks.isEmpty()) {
 			return;
 		}
 
+		int threads = getThreadCount(project, remapTasks.size());
 		project.getLogger().lifecycle(":remapping sources");
 
+		if (threads > 1) {
+			project.getLogger().info(":remapping {} sources jars with {} threads", remapTasks.size(), threads);
+		}
+
 		ProgressLogger progressLogger = ProgressLogger.getProgressFactory(project, SourceRemapper.class.getName());
 		progressLogger.start("Remapping dependency sources", "sources");
 
-		remapTasks.forEach(consumer -> consumer.accept(progressLogger));
+		List<RuntimeException> failures = new ArrayList<>();
+
+		if (threads == 1) {
+			Mercury mercury = getMercuryInstance();
+
+			for (RemapTask task : remapTasks) {
+				remap(task, mercury, progressLogger, failures);
+			}
+		} else {
+			remapParallel(threads, progressLogger, failures);
+		}
 
 		progressLogger.completed();
+		close();
+
+		if (failures.size() == 1) {
+			throw failures.get(0);
+		} else if (!failures.isEmpty()) {
+			RuntimeException exception = new RuntimeException("Failed to remap sources of " + failures.size() + " jars");
+			failures.forEach(exception::addSuppressed);
+			throw exception;
+		}
+	}
 
-		// TODO: FIXME - WORKAROUND https://github.com/FabricMC/fabric-loom/issues/45
-		System.gc();
+	/**
+	 * Forgets the scheduled jars and lets go of the {@link Mercury} of this remapper, the cached one of the extension
+	 * is kept until it is evicted. JDT closes the jars of the class path once each rewrite is done, nothing has to be
+	 * collected to release them.
+	 */
+	private void close() {
+		remapTasks.clear();
+		mercury = null;
 	}
 
-	private void remapSourcesInner(File source, File destination) throws Exception {
-		project.getLogger().info(":remapping source jar");
+	private void remapParallel(int threads, ProgressLogger progressLogger, List<RuntimeException> failures) {
+		BlockingQueue<Mercury> mercuryPool = new ArrayBlockingQueue<>(threads);
 		Mercury mercury = getMercuryInstance();
+		mercuryPool.add(mercury);
+
+		for (int i = 1; i < threads; i++) {
+			Mercury copy = copyMercury(mercury);
+			copy.getProcessors().add(MercuryRemapper.create(readMappings()));
+			mercuryPool.add(copy);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "Source remapper");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+
+			for (RemapTask task : remapTasks) {
+				futures.add(executor.submit(() -> {
+					Mercury pooledMercury = mercuryPool.take();
+
+					try {
+						remap(task, pooledMercury, progressLogger, failures);
+					} finally {
+						mercuryPool.add(pooledMercury);
+					}
+
+					return null;
+				}));
+			}
+
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while remapping sources", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Failed to remap sources", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void remap(RemapTask task, Mercury mercury, ProgressLogger progressLogger, List<RuntimeException> failures) {
+		File source = task.source();
+		File destination = task.destination();
+
+		try {
+			synchronized (progressLogger) {
+				progressLogger.progress("remapping sources - " + source.getName());
+			}
+
+			remapSourcesInner(source, destination, mercury, task.reproducibleFileOrder(), task.preserveFileTimestamps(), task.cacheDirectory());
+
+			// Set the remapped sources creation date to match the sources if we're likely succeeded in making it
+			destination.setLastModified(source.lastModified());
+		} catch (Exception e) {
+			// Failed to remap, lets clean up to ensure we try again next time
+			destination.delete();
+
+			synchronized (failures) {
+				failures.add(new RuntimeException("Failed to remap sources for " + source, e));
+			}
+		}
+	}
+
+	/**
+	 * @return how many threads may remap sources at once with a {@link Mercury} each, as the cores and free heap of the
+	 * daemon allow for, but not more than there is work for
+	 */
+	public static int getThreadCount(Project project, int tasks) {
+		LoomGradleExtension extension = project.getExtensions().getByType(LoomGradleExtension.class);
+		int threads = extension.sourceRemapThreads > 0 ? extension.sourceRemapThreads : Runtime.getRuntime().availableProcessors();
+		long memory;
+
+		if (extension.sourceRemapMemory > 0) {
+			memory = extension.sourceRemapMemory * 1024L * 1024L;
+		} else {
+			Runtime runtime = Runtime.getRuntime();
+			memory = (runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory())) / 2;
+		}
+
+		threads = (int) Math.min(threads, memory / MEMORY_PER_REMAPPER);
+		return Math.max(1, Math.min(threads, tasks));
+	}
+
+	private void remapSourcesInner(File source, File destination, Mercury mercury, boolean reproducibleFileOrder, boolean preserveFileTimestamps, File cacheDirectory) throws Exception {
+		project.getLogger().info(":remapping source jar " + source.getName());
 
 		if (source.equals(destination)) {
 			if (source.isDirectory()) {
@@ -121,16 +264,13 @@ public class SourceRemapper {
 			}
 		}
 
-		Path srcPath = source.toPath();
-		boolean isSrcTmp = false;
-
-		if (!source.isDirectory()) {
-			// create tmp directory
-			isSrcTmp = true;
-			srcPath = Files.createTempDirectory("fabric-loom-src");
-			ZipUtil.unpack(source, srcPath.toFile());
+		if (!source.isDirectory() && !destination.isDirectory()) {
+			remapJar(source, destination, mercury, reproducibleFileOrder, preserveFileTimestamps, cacheDirectory);
+			return;
 		}
 
+		Path srcPath = source.toPath();
+
 		if (!destination.isDirectory() && destination.exists()) {
 			if (!destination.delete()) {
 				throw new RuntimeException("Could not delete " + destination.getName() + "!");
@@ -150,30 +290,147 @@ public class SourceRemapper {
 
 		if (dstFs != null) {
 			dstFs.close();
+			ZipReprocessorUtil.reprocessZip(destination, reproducibleFileOrder, preserveFileTimestamps);
 		}
+	}
+
+	/**
+	 * Remaps a sources jar into another jar. Only the Java files are extracted, as Mercury can only parse files on
+	 * disk, the other entries are copied from the jar without being inflated.
+	 *
+	 * @param cacheDirectory where the remapped files are kept to only remap the changed ones next time, or null
+	 */
+	private void remapJar(File source, File destination, Mercury mercury, boolean reproducibleFileOrder, boolean preserveFileTimestamps, File cacheDirectory) throws IOException {
+		Path tempDirectory = Files.createTempDirectory("fabric-loom-src");
+
+		try (JarTransaction transaction = JarTransaction.open(source.toPath())) {
+			Map<String, byte[]> sources = readJavaFiles(transaction.getArchive());
+			Function<String, Path> remappedFiles;
+			SourceRemapCache cache = null;
+			String fingerprint = null;
+
+			if (cacheDirectory == null) {
+				Path srcPath = tempDirectory.resolve("src");
+				Path dstPath = tempDirectory.resolve("dst");
+				writeJavaFiles(srcPath, sources, sources.keySet());
+				rewrite(mercury, source, srcPath, dstPath, !sources.isEmpty());
+				remappedFiles = name -> Files.exists(dstPath.resolve(name)) ? dstPath.resolve(name) : null;
+			} else {
+				cache = new SourceRemapCache(cacheDirectory.toPath());
+				fingerprint = getFingerprint(cache, mercury);
+				Set<String> dirty = cache.update(sources, fingerprint);
+
+				if (!dirty.isEmpty()) {
+					remapDirty(cache, sources, dirty, mercury, source, tempDirectory);
+				} else {
+					project.getLogger().info(":all source files of " + source.getName() + " are up to date");
+				}
+
+				remappedFiles = cache::getRemapped;
+			}
+
+			for (String name : sources.keySet()) {
+				Path remapped = remappedFiles.apply(name);
+
+				if (remapped != null) {
+					transaction.put(name, remapped);
+				} else {
+					transaction.delete(name);
+				}
+			}
 
-		if (isSrcTmp) {
-			Files.walkFileTree(srcPath, new DeletingFileVisitor());
+			transaction.commitTo(destination.toPath(), reproducibleFileOrder, preserveFileTimestamps);
+
+			if (cache != null) {
+				cache.commit(sources, fingerprint);
+			}
+		} finally {
+			Files.walkFileTree(tempDirectory, new DeletingFileVisitor());
 		}
 	}
 
-	private Mercury getMercuryInstance() {
-		if (this.mercury != null) {
-			return this.mercury;
+	/**
+	 * Remaps the dirty files against the up to date copy of all sources in the cache, so the files they reference
+	 * resolve without being remapped themselves.
+	 */
+	private void remapDirty(SourceRemapCache cache, Map<String, byte[]> sources, Set<String> dirty, Mercury mercury, File source, Path tempDirectory) throws IOException {
+		Path dstPath = tempDirectory.resolve("dst");
+
+		if (dirty.size() == sources.size()) {
+			rewrite(mercury, source, cache.getSourcesDirectory(), dstPath, true);
+		} else {
+			project.getLogger().info(":remapping " + dirty.size() + " of " + sources.size() + " source files of " + source.getName());
+			Path srcPath = tempDirectory.resolve("src");
+			writeJavaFiles(srcPath, sources, dirty);
+
+			// The source path is only added to a copy, the shared instance is used for other jars as well. The copy is only
+			// used on this thread while the shared instance waits, so they can share its mappings
+			Mercury dirtyMercury = copyMercury(mercury);
+			dirtyMercury.getProcessors().addAll(mercury.getProcessors());
+			dirtyMercury.getSourcePath().add(cache.getSourcesDirectory());
+			rewrite(dirtyMercury, source, srcPath, dstPath, true);
 		}
 
-		LoomGradleExtension extension = project.getExtensions().getByType(LoomGradleExtension.class);
-		MappingsProvider mappingsProvider = extension.getMappingsProvider();
+		cache.store(dstPath, dirty);
+	}
 
-		MappingSet mappings = extension.getOrCreateSrcMappingCache(toNamed ? 1 : 0, () -> {
+	private void rewrite(Mercury mercury, File source, Path srcPath, Path dstPath, boolean hasJavaFiles) throws IOException {
+		Files.createDirectories(srcPath);
+		Files.createDirectories(dstPath);
+
+		if (hasJavaFiles) {
 			try {
-				TinyTree m = mappingsProvider.getMappings();
-				project.getLogger().info(":loading " + (toNamed ? "intermediary -> named" : "named -> intermediary") + " source mappings");
-				return new TinyMappingsReader(m, toNamed ? "intermediary" : "named", toNamed ? "named" : "intermediary").read();
+				mercury.rewrite(srcPath, dstPath);
 			} catch (Exception e) {
-				throw new RuntimeException(e);
+				project.getLogger().warn("Could not remap " + source.getName() + " fully!", e);
 			}
-		});
+		}
+	}
+
+	/**
+	 * The mappings, the direction and the ABI of the class path the files are remapped with.
+	 */
+	private String getFingerprint(SourceRemapCache cache, Mercury mercury) throws IOException {
+		LoomGradleExtension extension = project.getExtensions().getByType(LoomGradleExtension.class);
+		Hasher hasher = Hashing.sha256().newHasher();
+		hasher.putString(String.valueOf(LoomGradlePlugin.class.getPackage().getImplementationVersion()), StandardCharsets.UTF_8);
+		hasher.putBoolean(toNamed);
+		hasher.putBytes(Checksum.sha256(extension.getMappingsProvider().tinyMappings));
+		hasher.putString(cache.getClassPathFingerprint(mercury.getClassPath()), StandardCharsets.UTF_8);
+		return hasher.hash().toString();
+	}
+
+	private static Map<String, byte[]> readJavaFiles(ZipArchive archive) throws IOException {
+		Map<String, byte[]> sources = new LinkedHashMap<>();
+		Path root = Paths.get("root");
+
+		for (ZipArchive.Entry entry : archive.getEntries()) {
+			Path path = root.resolve(entry.getName()).normalize();
+
+			// Entries outside of the jar root would be written outside of the directory Mercury reads
+			if (!entry.isDirectory() && isJavaFile(path) && path.startsWith(root)) {
+				sources.put(entry.getName(), archive.read(entry));
+			}
+		}
+
+		return sources;
+	}
+
+	private static void writeJavaFiles(Path directory, Map<String, byte[]> sources, Set<String> names) throws IOException {
+		for (String name : names) {
+			Path path = directory.resolve(name);
+			Files.createDirectories(path.getParent());
+			Files.write(path, sources.get(name));
+		}
+	}
+
+	private Mercury getMercuryInstance() {
+		if (this.mercury != null) {
+			return this.mercury;
+		}
+
+		LoomGradleExtension extension = project.getExtensions().getByType(LoomGradleExtension.class);
+		MappingSet mappings = getMappings();
 
 		Mercury mercury = extension.getOrCreateSrcMercuryCache(toNamed ? 1 : 0, () -> {
 			Mercury m = createMercuryWithClassPath(project, toNamed);
@@ -198,6 +455,7 @@ public class SourceRemapper {
 			}
 
 			m.getProcessors().add(MercuryRemapper.create(mappings));
+			m.getClassPath().replaceAll(path -> AbiStubJars.get(project, path));
 
 			return m;
 		});
@@ -206,6 +464,39 @@ public class SourceRemapper {
 		return mercury;
 	}
 
+	/**
+	 * @return another {@link Mercury} with the class path of the given one and without processors
+	 */
+	private Mercury copyMercury(Mercury mercury) {
+		Mercury copy = new Mercury();
+		copy.setGracefulClasspathChecks(true);
+		copy.getClassPath().addAll(mercury.getClassPath());
+		return copy;
+	}
+
+	/**
+	 * @return the mappings of the cached {@link Mercury}, only to be used by it
+	 */
+	private MappingSet getMappings() {
+		LoomGradleExtension extension = project.getExtensions().getByType(LoomGradleExtension.class);
+		return extension.getOrCreateSrcMappingCache(toNamed ? 1 : 0, this::readMappings);
+	}
+
+	/**
+	 * @return new mappings, which are not thread safe and so belong to a single {@link Mercury}
+	 */
+	private MappingSet readMappings() {
+		MappingsProvider mappingsProvider = project.getExtensions().getByType(LoomGradleExtension.class).getMappingsProvider();
+
+		try {
+			TinyTree m = mappingsProvider.getMappings();
+			project.getLogger().info(":loading " + (toNamed ? "intermediary -> named" : "named -> intermediary") + " source mappings");
+			return new TinyMappingsReader(m, toNamed ? "intermediary" : "named", toNamed ? "named" : "intermediary").read();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	private static void copyNonJavaFiles(Path from, Path to, Project project, File source) throws IOException {
 		Files.walk(from).forEach(path -> {
 			Path targetPath = to.resolve(from.relativize(path).toString());
@@ -243,6 +534,9 @@ public class SourceRemapper {
 		return m;
 	}
 
+	private record RemapTask(File source, File destination, boolean reproducibleFileOrder, boolean preserveFileTimestamps, File cacheDirectory) {
+	}
+
 	private static boolean isJavaFile(Path path) {
 		String name = path.getFileName().toString();
 		// ".java" is not a valid java file
@@ -0,0 +1,108 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.mapping.tree.FieldDef;
+import net.fabricmc.mapping.tree.MethodDef;
+import net.fabricmc.mapping.tree.TinyTree;
+
+/**
+ * Hash based lookups of the classes, fields and methods of a {@link TinyTree} by their name in any namespace.
+ *
+ * <p>The index for a namespace is built the first time it is queried and kept for the lifetime of the index.
+ */
+public final class TinyMappingsIndex {
+	private final TinyTree mappings;
+	private final List<String> validNamespaces;
+	private final Map<String, Namespace> namespaces = new ConcurrentHashMap<>();
+
+	public TinyMappingsIndex(TinyTree mappings) {
+		this.mappings = mappings;
+		this.validNamespaces = mappings.getMetadata().getNamespaces();
+	}
+
+	public TinyTree getMappings() {
+		return mappings;
+	}
+
+	public ClassDef getClass(String namespace, String name) {
+		return getNamespace(namespace).classes.get(name);
+	}
+
+	public FieldDef getField(String namespace, String owner, String name, String descriptor) {
+		return getNamespace(namespace).fields.get(memberKey(owner, name, descriptor));
+	}
+
+	public MethodDef getMethod(String namespace, String owner, String name, String descriptor) {
+		return getNamespace(namespace).methods.get(memberKey(owner, name, descriptor));
+	}
+
+	/**
+	 * Creates a remapper that only uses the mappings to look up names, no classpath is read.
+	 */
+	public TinyMappingsRemapper createRemapper(String from, String to) {
+		getNamespace(to); // Validate the target namespace early
+		return new TinyMappingsRemapper(this, from, to);
+	}
+
+	private Namespace getNamespace(String namespace) {
+		if (!validNamespaces.contains(namespace)) {
+			throw new IllegalArgumentException(String.format("'%s' is not a valid namespace, it must be one of: '%s'", namespace, String.join(", ", validNamespaces)));
+		}
+
+		return namespaces.computeIfAbsent(namespace, Namespace::new);
+	}
+
+	private static String memberKey(String owner, String name, String descriptor) {
+		return owner + "/" + name + ";" + descriptor;
+	}
+
+	private final class Namespace {
+		private final Map<String, ClassDef> classes = new HashMap<>();
+		private final Map<String, FieldDef> fields = new HashMap<>();
+		private final Map<String, MethodDef> methods = new HashMap<>();
+
+		private Namespace(String namespace) {
+			for (ClassDef classDef : mappings.getClasses()) {
+				String className = classDef.getName(namespace);
+				classes.put(className, classDef);
+
+				for (FieldDef fieldDef : classDef.getFields()) {
+					fields.put(memberKey(className, fieldDef.getName(namespace), fieldDef.getDescriptor(namespace)), fieldDef);
+				}
+
+				for (MethodDef methodDef : classDef.getMethods()) {
+					methods.put(memberKey(className, methodDef.getName(namespace), methodDef.getDescriptor(namespace)), methodDef);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import org.objectweb.asm.commons.Remapper;
+
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.mapping.tree.FieldDef;
+import net.fabricmc.mapping.tree.MethodDef;
+
+/**
+ * A {@link Remapper} that resolves names purely from a {@link TinyMappingsIndex}.
+ *
+ * <p>Members are only looked up on the class that declares them in the mappings, inherited members are not resolved.
+ * This is enough for remapping access wideners, without the cost of reading the classpath into a TinyRemapper.
+ */
+public class TinyMappingsRemapper extends Remapper {
+	private final TinyMappingsIndex index;
+	private final String from;
+	private final String to;
+
+	TinyMappingsRemapper(TinyMappingsIndex index, String from, String to) {
+		this.index = index;
+		this.from = from;
+		this.to = to;
+	}
+
+	@Override
+	public String map(String internalName) {
+		ClassDef classDef = index.getClass(from, internalName);
+		return classDef != null ? classDef.getName(to) : internalName;
+	}
+
+	@Override
+	public String mapFieldName(String owner, String name, String descriptor) {
+		FieldDef fieldDef = index.getField(from, owner, name, descriptor);
+		return fieldDef != null ? fieldDef.getName(to) : name;
+	}
+
+	@Override
+	public String mapRecordComponentName(String owner, String name, String descriptor) {
+		// Record components are mapped via their backing field
+		return mapFieldName(owner, name, descriptor);
+	}
+
+	@Override
+	public String mapMethodName(String owner, String name, String descriptor) {
+		MethodDef methodDef = index.getMethod(from, owner, name, descriptor);
+		return methodDef != null ? methodDef.getName(to) : name;
+	}
+}
@@ -24,70 +24,87 @@
 
 package net.fabricmc.loom.util;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.attribute.FileTime;
-import java.util.Calendar;
 import java.util.Comparator;
-import java.util.GregorianCalendar;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
-public class ZipReprocessorUtil {
-	/**
-	 * See {@link org.gradle.api.internal.file.archive.ZipCopyAction} about this.
-	 */
-	private static final long CONSTANT_TIME_FOR_ZIP_ENTRIES = new GregorianCalendar(1980, Calendar.FEBRUARY, 1, 0, 0, 0).getTimeInMillis();
+import net.fabricmc.loom.util.zip.JarTransaction;
+import net.fabricmc.loom.util.zip.ZipArchiveWriter;
 
+public class ZipReprocessorUtil {
 	private ZipReprocessorUtil() { }
 
+	/**
+	 * Rewrites a zip in place with sorted entries and/or constant timestamps.
+	 *
+	 * <p>The compressed data of the entries is copied as is, only the headers are rewritten. The zip is written to a
+	 * temporary file that then replaces the original, see {@link ZipArchiveWriter#resetTimestamps(long)} for the timestamps.
+	 * Zips that cannot be copied like this, such as Zip64 archives, have all of their entries inflated and deflated again.
+	 */
 	public static void reprocessZip(File file, boolean reproducibleFileOrder, boolean preserveFileTimestamps) throws IOException {
 		if (!reproducibleFileOrder && preserveFileTimestamps) {
 			return;
 		}
 
-		try (ZipFile zipFile = new ZipFile(file)) {
-			ZipEntry[] entries;
+		try (JarTransaction transaction = JarTransaction.open(file.toPath())) {
+			transaction.commitTo(file.toPath(), reproducibleFileOrder, preserveFileTimestamps);
+		} catch (ZipException e) {
+			reprocessZipWithStreams(file, reproducibleFileOrder, preserveFileTimestamps);
+		}
+	}
+
+	private static void reprocessZipWithStreams(File file, boolean reproducibleFileOrder, boolean preserveFileTimestamps) throws IOException {
+		Path tempFile = Files.createTempFile(file.toPath().toAbsolutePath().getParent(), file.getName(), ".tmp");
 
-			if (reproducibleFileOrder) {
-				entries = zipFile.stream().sorted(Comparator.comparing(ZipEntry::getName)).toArray(ZipEntry[]::new);
-			} else {
-				entries = zipFile.stream().toArray(ZipEntry[]::new);
-			}
+		try {
+			try (ZipFile zipFile = new ZipFile(file)) {
+				ZipEntry[] entries;
 
-			ByteArrayOutputStream outZip = new ByteArrayOutputStream(zipFile.size());
+				if (reproducibleFileOrder) {
+					entries = zipFile.stream().sorted(Comparator.comparing(ZipEntry::getName)).toArray(ZipEntry[]::new);
+				} else {
+					entries = zipFile.stream().toArray(ZipEntry[]::new);
+				}
 
-			try (ZipOutputStream zipOutputStream = new ZipOutputStream(outZip)) {
-				for (ZipEntry entry : entries) {
-					ZipEntry newEntry = entry;
+				try (ZipOutputStream zipOutputStream = new ZipOutputStream(Files.newOutputStream(tempFile))) {
+					for (ZipEntry entry : entries) {
+						ZipEntry newEntry = new ZipEntry(entry);
+						// Deflated again, possibly to another size
+						newEntry.setCompressedSize(-1);
 
-					if (!preserveFileTimestamps) {
-						newEntry = new ZipEntry(entry.getName());
-						newEntry.setTime(CONSTANT_TIME_FOR_ZIP_ENTRIES);
-						newEntry.setLastModifiedTime(FileTime.fromMillis(CONSTANT_TIME_FOR_ZIP_ENTRIES));
-						newEntry.setLastAccessTime(FileTime.fromMillis(CONSTANT_TIME_FOR_ZIP_ENTRIES));
-					}
+						if (!preserveFileTimestamps) {
+							newEntry = new ZipEntry(entry.getName());
+							newEntry.setTime(ZipArchiveWriter.CONSTANT_TIME_FOR_ZIP_ENTRIES);
+							newEntry.setLastModifiedTime(FileTime.fromMillis(ZipArchiveWriter.CONSTANT_TIME_FOR_ZIP_ENTRIES));
+							newEntry.setLastAccessTime(FileTime.fromMillis(ZipArchiveWriter.CONSTANT_TIME_FOR_ZIP_ENTRIES));
+						}
 
-					zipOutputStream.putNextEntry(newEntry);
-					InputStream inputStream = zipFile.getInputStream(entry);
-					byte[] buf = new byte[1024];
-					int length;
+						zipOutputStream.putNextEntry(newEntry);
 
-					while ((length = inputStream.read(buf)) > 0) {
-						zipOutputStream.write(buf, 0, length);
-					}
+						try (InputStream inputStream = zipFile.getInputStream(entry)) {
+							inputStream.transferTo(zipOutputStream);
+						}
 
-					zipOutputStream.closeEntry();
+						zipOutputStream.closeEntry();
+					}
 				}
 			}
 
-			try (FileOutputStream fileOutputStream = new FileOutputStream(file)) {
-				outZip.writeTo(fileOutputStream);
+			// Written over rather than replaced, so the zip keeps its permissions as before
+			try (OutputStream output = Files.newOutputStream(file.toPath())) {
+				Files.copy(tempFile, output);
 			}
+		} finally {
+			Files.deleteIfExists(tempFile);
 		}
 	}
 }
@@ -0,0 +1,309 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.zip;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.zip.ZipEntry;
+
+import com.google.gson.JsonObject;
+
+import net.fabricmc.loom.LoomGradlePlugin;
+
+/**
+ * Collects additions, replacements, deletions and transformations of the entries of a jar, and applies all of them
+ * in a single pass when committed.
+ *
+ * <p>Entries that are not changed are copied without being inflated or compressed again, the changes are written to a
+ * temporary file next to the jar that then replaces the jar. Nothing is written when the transaction is not committed.
+ */
+public final class JarTransaction implements Closeable {
+	private final Path jar;
+	private final ZipArchive archive;
+	private final Map<String, Content> puts = new LinkedHashMap<>();
+	private final Map<String, List<UnaryOperator<byte[]>>> transformers = new LinkedHashMap<>();
+	private final Set<String> deletions = new HashSet<>();
+	private ZipCompression compression = ZipCompression.DEFAULT;
+	private boolean committed;
+
+	private JarTransaction(Path jar, ZipArchive archive) {
+		this.jar = jar;
+		this.archive = archive;
+	}
+
+	public static JarTransaction open(Path jar) throws IOException {
+		return new JarTransaction(jar, ZipArchive.open(jar));
+	}
+
+	/**
+	 * @return the jar as it was when the transaction was opened
+	 */
+	public ZipArchive getArchive() {
+		return archive;
+	}
+
+	/**
+	 * Sets how the entries that are written are compressed. Unchanged entries keep their compression, unless
+	 * they need to be stored and are not.
+	 */
+	public JarTransaction compression(ZipCompression compression) {
+		this.compression = compression;
+		return this;
+	}
+
+	/**
+	 * @return true when the entry will exist once the transaction is committed
+	 */
+	public boolean hasEntry(String name) {
+		return puts.containsKey(name) || (archive.hasEntry(name) && !deletions.contains(name));
+	}
+
+	/**
+	 * Adds an entry, or replaces it if it already exists.
+	 */
+	public JarTransaction put(String name, byte[] data) {
+		return put(name, new Content(() -> data, -1));
+	}
+
+	/**
+	 * Adds an entry with the contents of a file, or replaces it if it already exists. The file is read on commit.
+	 */
+	public JarTransaction put(String name, Path file) {
+		return put(name, new Content(() -> Files.readAllBytes(file), file.toFile().lastModified()));
+	}
+
+	private JarTransaction put(String name, Content content) {
+		deletions.remove(name);
+		puts.put(name, content);
+		return this;
+	}
+
+	public JarTransaction delete(String name) {
+		puts.remove(name);
+		transformers.remove(name);
+		deletions.add(name);
+		return this;
+	}
+
+	/**
+	 * Transforms the contents of an entry, nothing happens if the entry does not exist when committing.
+	 *
+	 * <p>Multiple transformers of the same entry are applied in the order they were added.
+	 */
+	public JarTransaction transform(String name, UnaryOperator<byte[]> transformer) {
+		transformers.computeIfAbsent(name, s -> new ArrayList<>()).add(transformer);
+		return this;
+	}
+
+	/**
+	 * Transforms an entry containing a json object.
+	 */
+	public JarTransaction transformJson(String name, Consumer<JsonObject> transformer) {
+		return transform(name, input -> {
+			JsonObject json = LoomGradlePlugin.GSON.fromJson(new String(input, StandardCharsets.UTF_8), JsonObject.class);
+			transformer.accept(json);
+			return LoomGradlePlugin.GSON.toJson(json).getBytes(StandardCharsets.UTF_8);
+		});
+	}
+
+	/**
+	 * Writes all of the collected changes to the jar.
+	 *
+	 * @return false if there were no changes to write, the jar is left untouched in that case
+	 */
+	public boolean commit() throws IOException {
+		checkNotCommitted();
+
+		if (!hasChanges()) {
+			return false;
+		}
+
+		write(jar, false, true);
+		return true;
+	}
+
+	/**
+	 * Writes the jar with all of the collected changes to another file, the original jar is left untouched.
+	 *
+	 * @param reproducibleFileOrder sort the entries by their name
+	 * @param preserveFileTimestamps when false all entries use a constant time, see {@link ZipArchiveWriter#resetTimestamps(long)}
+	 */
+	public void commitTo(Path target, boolean reproducibleFileOrder, boolean preserveFileTimestamps) throws IOException {
+		checkNotCommitted();
+		write(target, reproducibleFileOrder, preserveFileTimestamps);
+	}
+
+	private void checkNotCommitted() {
+		if (committed) {
+			throw new IllegalStateException("Transaction has already been committed");
+		}
+
+		committed = true;
+	}
+
+	private void write(Path target, boolean reproducibleFileOrder, boolean preserveFileTimestamps) throws IOException {
+		// Entries from the jar come first in their original order, followed by the new entries
+		Set<String> entryNames = new LinkedHashSet<>();
+
+		for (ZipArchive.Entry entry : archive.getEntries()) {
+			if (!deletions.contains(entry.getName())) {
+				entryNames.add(entry.getName());
+			}
+		}
+
+		entryNames.addAll(puts.keySet());
+		List<String> names = new ArrayList<>(entryNames);
+
+		if (reproducibleFileOrder) {
+			names.sort(Comparator.naturalOrder());
+		}
+
+		Path tempFile = createTempFile(target);
+
+		try {
+			try (ZipArchiveWriter writer = ZipArchiveWriter.create(tempFile)) {
+				if (!preserveFileTimestamps) {
+					writer.resetTimestamps(ZipArchiveWriter.CONSTANT_TIME_FOR_ZIP_ENTRIES);
+				}
+
+				int now = ZipArchiveWriter.toDosTime(System.currentTimeMillis());
+
+				for (String name : names) {
+					ZipArchive.Entry entry = archive.getEntry(name);
+					Content content = puts.get(name);
+
+					if (content != null) {
+						int time = entry != null ? entry.getDosTime() : content.time() > 0 ? ZipArchiveWriter.toDosTime(content.time()) : now;
+						writer.write(name, transform(name, content.data().get()), time, compression);
+					} else if (transformers.containsKey(name) || (compression.method() == ZipEntry.STORED && entry.getMethod() != ZipEntry.STORED)) {
+						writer.write(name, transform(name, archive.read(entry)), entry.getDosTime(), compression);
+					} else {
+						writer.copyRaw(archive, entry);
+					}
+				}
+			}
+
+			archive.close();
+			replace(tempFile, target);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	private boolean hasChanges() {
+		if (!puts.isEmpty()) {
+			return true;
+		}
+
+		for (String name : deletions) {
+			if (archive.hasEntry(name)) {
+				return true;
+			}
+		}
+
+		for (String name : transformers.keySet()) {
+			if (archive.hasEntry(name)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private byte[] transform(String name, byte[] data) {
+		for (UnaryOperator<byte[]> transformer : transformers.getOrDefault(name, List.of())) {
+			data = transformer.apply(data);
+		}
+
+		return data;
+	}
+
+	/**
+	 * Creates an empty file next to the target with the default permissions, unlike {@link Files#createTempFile} which
+	 * makes it only readable by its owner, and the target would keep that once replaced.
+	 */
+	private static Path createTempFile(Path target) throws IOException {
+		Path parent = target.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+
+		while (true) {
+			Path tempFile = parent.resolve(target.getFileName() + "." + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + ".tmp");
+
+			try {
+				return Files.createFile(tempFile);
+			} catch (FileAlreadyExistsException e) {
+				// Try another name
+			}
+		}
+	}
+
+	/**
+	 * Moves the source over the target, keeping the permissions of the target if it exists.
+	 */
+	static void replace(Path source, Path target) throws IOException {
+		PosixFileAttributeView targetAttributes = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+
+		if (targetAttributes != null && Files.exists(target)) {
+			Files.setPosixFilePermissions(source, targetAttributes.readAttributes().permissions());
+		}
+
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		archive.close();
+	}
+
+	private record Content(DataSupplier data, long time) {
+	}
+
+	@FunctionalInterface
+	private interface DataSupplier {
+		byte[] get() throws IOException;
+	}
+}
@@ -0,0 +1,269 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.zip;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip from multiple threads, the entries are compressed on worker threads and only the final write is serialized.
+ *
+ * <p>The entries are written in the order they were added or sorted by their name. All entries share the time the
+ * writer was created at, so the output only depends on the entries that were added when sorted.
+ *
+ * <p>All writers compress on the same worker threads. Adding an entry blocks while too many entries of the writer are
+ * still waiting to be compressed, so the uncompressed data that is held at once stays bounded. Entries in the order
+ * they were added are written as soon as they and the ones before them are done. Sorted entries can only be written
+ * once the writer is closed, until then the whole compressed zip is held on the heap.
+ */
+public final class ParallelZipWriter implements Closeable {
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+	private static final int MAX_PENDING_ENTRIES = THREADS * 4;
+	private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREADS, runnable -> {
+		Thread thread = new Thread(runnable, "Zip writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final ZipArchiveWriter writer;
+	private final ZipCompression compression;
+	private final boolean sortEntries;
+	private final Semaphore pendingEntries = new Semaphore(MAX_PENDING_ENTRIES);
+	private final int dosTime = ZipArchiveWriter.toDosTime(System.currentTimeMillis());
+	// Not written yet, only ever written with the lock of the writer held and in order
+	private final Deque<PendingEntry> entries = new ArrayDeque<>();
+	private final Set<String> names = new HashSet<>();
+	private boolean closed;
+
+	private ParallelZipWriter(ZipArchiveWriter writer, ZipCompression compression, boolean sortEntries) {
+		this.writer = writer;
+		this.compression = compression;
+		this.sortEntries = sortEntries;
+	}
+
+	public static ParallelZipWriter create(Path path, ZipCompression compression, boolean sortEntries) throws IOException {
+		return new ParallelZipWriter(ZipArchiveWriter.create(path), compression, sortEntries);
+	}
+
+	/**
+	 * Runs the task on a worker thread, once fewer than {@link #MAX_PENDING_ENTRIES} entries of this writer are waiting
+	 * for theirs. Must not be called from a worker thread, as it may wait for the other tasks.
+	 */
+	private <T> CompletableFuture<T> submit(Supplier<T> task) {
+		pendingEntries.acquireUninterruptibly();
+
+		try {
+			return CompletableFuture.supplyAsync(task, EXECUTOR).whenComplete((result, exception) -> pendingEntries.release());
+		} catch (RuntimeException e) {
+			pendingEntries.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Adds an entry, it is compressed in the background. Can be called from any thread.
+	 */
+	public void write(String name, byte[] data) throws IOException {
+		ZipCompression entryCompression = name.endsWith("/") || data.length == 0 ? ZipCompression.STORED : compression;
+		add(new PendingEntry(name, submit(() -> new CompressedEntry(entryCompression.method(), ZipArchiveWriter.crc(data), data.length, entryCompression.compress(data, data.length))), null, null), false);
+	}
+
+	/**
+	 * Adds a directory entry if it has not been added yet. Can be called from any thread.
+	 */
+	public void writeDirectory(String name) throws IOException {
+		String directoryName = name.endsWith("/") ? name : name + "/";
+		add(new PendingEntry(directoryName, CompletableFuture.completedFuture(new CompressedEntry(ZipEntry.STORED, 0, 0, new byte[0])), null, null), true);
+	}
+
+	/**
+	 * Adds an entry of another archive that is copied without being inflated, the archive must stay open until this writer is closed.
+	 *
+	 * <p>When this writer stores its entries, deflated entries are inflated on a worker thread instead.
+	 */
+	public void copy(ZipArchive archive, ZipArchive.Entry entry) throws IOException {
+		if (compression.method() == ZipEntry.STORED && entry.getMethod() != ZipEntry.STORED) {
+			add(new PendingEntry(entry.getName(), submit(() -> {
+				try {
+					byte[] data = archive.read(entry);
+					return new CompressedEntry(ZipEntry.STORED, entry.getCrc(), data.length, data);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}), null, null), false);
+			return;
+		}
+
+		add(new PendingEntry(entry.getName(), null, archive, entry), false);
+	}
+
+	/**
+	 * Adds an entry of another archive that is transformed on a worker thread, the archive must stay open until this
+	 * writer is closed. When the transformer returns null the entry is copied as with {@link #copy(ZipArchive, ZipArchive.Entry)}.
+	 */
+	public void transform(ZipArchive archive, ZipArchive.Entry entry, UnaryOperator<byte[]> transformer) throws IOException {
+		add(new PendingEntry(entry.getName(), submit(() -> {
+			byte[] data;
+
+			try {
+				data = archive.read(entry);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			byte[] transformed = transformer.apply(data);
+
+			if (transformed == null) {
+				// Unchanged, only stored again when this writer needs it to be
+				return compression.method() == ZipEntry.STORED && entry.getMethod() != ZipEntry.STORED ? new CompressedEntry(ZipEntry.STORED, entry.getCrc(), data.length, data) : null;
+			}
+
+			ZipCompression entryCompression = transformed.length == 0 ? ZipCompression.STORED : compression;
+			return new CompressedEntry(entryCompression.method(), ZipArchiveWriter.crc(transformed), transformed.length, entryCompression.compress(transformed, transformed.length));
+		}), archive, entry), false);
+	}
+
+	/**
+	 * @param ignoreDuplicate whether an entry with a name that was already added is left out, rather than rejected
+	 */
+	private void add(PendingEntry entry, boolean ignoreDuplicate) throws IOException {
+		synchronized (entries) {
+			if (closed) {
+				throw new IllegalStateException("Writer has already been closed");
+			}
+
+			if (!names.add(entry.name())) {
+				if (ignoreDuplicate) {
+					return;
+				}
+
+				throw new ZipException("Duplicate entry: " + entry.name());
+			}
+
+			entries.add(entry);
+		}
+
+		if (!sortEntries) {
+			writeDone();
+		}
+	}
+
+	/**
+	 * Writes the entries that are done up to the first one that is not. Entries that failed are left for {@link #close()}
+	 * to report.
+	 */
+	private void writeDone() throws IOException {
+		synchronized (writer) {
+			while (true) {
+				PendingEntry entry;
+
+				synchronized (entries) {
+					entry = entries.peek();
+
+					if (entry == null || entry.compressed() != null && (!entry.compressed().isDone() || entry.compressed().isCompletedExceptionally())) {
+						return;
+					}
+
+					entries.poll();
+				}
+
+				writeEntry(entry);
+			}
+		}
+	}
+
+	private void writeEntry(PendingEntry entry) throws IOException {
+		CompressedEntry compressed;
+
+		try {
+			compressed = entry.compressed() != null ? entry.compressed().get() : null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing zip", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to write zip entry", e.getCause());
+		}
+
+		if (compressed == null) {
+			writer.copyRaw(entry.archive(), entry.archiveEntry());
+		} else {
+			writer.writeCompressed(entry.name(), compressed.method(), dosTime, compressed.crc(), compressed.size(), compressed.data(), compressed.data().length);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (entries) {
+			if (closed) {
+				return;
+			}
+
+			closed = true;
+		}
+
+		try (writer) {
+			synchronized (writer) {
+				List<PendingEntry> remaining;
+
+				synchronized (entries) {
+					remaining = new ArrayList<>(entries);
+					entries.clear();
+				}
+
+				if (sortEntries) {
+					remaining.sort(Comparator.comparing(PendingEntry::name));
+				}
+
+				for (PendingEntry entry : remaining) {
+					writeEntry(entry);
+				}
+			}
+		}
+	}
+
+	private record PendingEntry(String name, CompletableFuture<CompressedEntry> compressed, ZipArchive archive, ZipArchive.Entry archiveEntry) {
+	}
+
+	private record CompressedEntry(int method, int crc, long size, byte[] data) {
+	}
+}
@@ -0,0 +1,406 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.zip;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A read only view of a zip file that gives access to the raw, still compressed, data of each entry.
+ *
+ * <p>This allows entries to be copied into another zip by {@link ZipArchiveWriter} without being inflated and
+ * deflated again. Zip64 and encrypted archives are not supported.
+ */
+public final class ZipArchive implements Closeable {
+	static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+	static final int LOCAL_HEADER_SIZE = 30;
+	static final int CENTRAL_HEADER_SIZE = 46;
+	static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+
+	private final Path path;
+	private final FileChannel channel;
+	private final List<Entry> entries;
+	private final Map<String, Entry> entriesByName;
+
+	private ZipArchive(Path path, FileChannel channel) throws IOException {
+		this.path = path;
+		this.channel = channel;
+		this.entries = readCentralDirectory();
+		this.entriesByName = new HashMap<>(entries.size() * 2);
+
+		for (Entry entry : entries) {
+			entriesByName.putIfAbsent(entry.getName(), entry);
+		}
+	}
+
+	public static ZipArchive open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+
+		try {
+			return new ZipArchive(path, channel);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @return the entries in the order they are stored in the central directory
+	 */
+	public List<Entry> getEntries() {
+		return Collections.unmodifiableList(entries);
+	}
+
+	public Entry getEntry(String name) {
+		return entriesByName.get(name);
+	}
+
+	public boolean hasEntry(String name) {
+		return entriesByName.containsKey(name);
+	}
+
+	/**
+	 * Reads and inflates the contents of an entry.
+	 */
+	public byte[] read(Entry entry) throws IOException {
+		byte[] compressed = readRaw(entry);
+
+		if (entry.getMethod() == ZipEntry.STORED) {
+			return compressed;
+		}
+
+		if (entry.getMethod() != ZipEntry.DEFLATED) {
+			throw new ZipException("Unsupported compression method " + entry.getMethod() + " for " + entry.getName() + " in " + path);
+		}
+
+		byte[] data = new byte[Math.toIntExact(entry.getSize())];
+		Inflater inflater = new Inflater(true);
+
+		try {
+			inflater.setInput(compressed);
+			int read = 0;
+
+			while (read < data.length && !inflater.finished()) {
+				int count = inflater.inflate(data, read, data.length - read);
+
+				if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new ZipException("Truncated entry " + entry.getName() + " in " + path);
+				}
+
+				read += count;
+			}
+
+			if (read != data.length) {
+				throw new ZipException("Invalid size for entry " + entry.getName() + " in " + path);
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException("Invalid deflate data for entry " + entry.getName() + " in " + path + ": " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+
+		return data;
+	}
+
+	/**
+	 * Reads the data of an entry exactly as it is stored in the archive.
+	 */
+	public byte[] readRaw(Entry entry) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(entry.getCompressedSize()));
+		readFully(buffer, getDataOffset(entry));
+		return buffer.array();
+	}
+
+	/**
+	 * Copies the data of an entry exactly as it is stored in the archive to the target channel.
+	 */
+	public void transferRawTo(Entry entry, WritableByteChannel target) throws IOException {
+		long position = getDataOffset(entry);
+		long remaining = entry.getCompressedSize();
+
+		while (remaining > 0) {
+			long transferred = channel.transferTo(position, remaining, target);
+
+			if (transferred <= 0) {
+				throw new ZipException("Unexpected end of file while copying " + entry.getName() + " from " + path);
+			}
+
+			position += transferred;
+			remaining -= transferred;
+		}
+	}
+
+	byte[] getLocalExtra(Entry entry) throws IOException {
+		readLocalHeader(entry);
+		return entry.localExtra;
+	}
+
+	private long getDataOffset(Entry entry) throws IOException {
+		readLocalHeader(entry);
+		return entry.dataOffset;
+	}
+
+	private void readLocalHeader(Entry entry) throws IOException {
+		if (entry.dataOffset >= 0) {
+			return;
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(header, entry.localHeaderOffset);
+
+		if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+			throw new ZipException("Invalid local header for " + entry.getName() + " in " + path);
+		}
+
+		int nameLength = Short.toUnsignedInt(header.getShort(26));
+		int extraLength = Short.toUnsignedInt(header.getShort(28));
+		ByteBuffer extra = ByteBuffer.allocate(extraLength);
+		readFully(extra, entry.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength);
+
+		entry.localExtra = extra.array();
+		entry.dataOffset = entry.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+	}
+
+	private List<Entry> readCentralDirectory() throws IOException {
+		long fileSize = channel.size();
+		int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + 0xFFFF);
+
+		if (tailSize < END_OF_CENTRAL_DIRECTORY_SIZE) {
+			throw new ZipException("Not a zip file: " + path);
+		}
+
+		ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(tail, fileSize - tailSize);
+
+		int eocd = -1;
+
+		for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE && i + END_OF_CENTRAL_DIRECTORY_SIZE + Short.toUnsignedInt(tail.getShort(i + 20)) == tailSize) {
+				eocd = i;
+				break;
+			}
+		}
+
+		if (eocd < 0) {
+			throw new ZipException("Could not find the end of central directory in " + path);
+		}
+
+		int entryCount = Short.toUnsignedInt(tail.getShort(eocd + 10));
+		long centralDirectorySize = Integer.toUnsignedLong(tail.getInt(eocd + 12));
+		long centralDirectoryOffset = Integer.toUnsignedLong(tail.getInt(eocd + 16));
+
+		if (entryCount == 0xFFFF || centralDirectorySize == 0xFFFFFFFFL || centralDirectoryOffset == 0xFFFFFFFFL) {
+			throw new ZipException("Zip64 archives are not supported: " + path);
+		}
+
+		ByteBuffer centralDirectory = ByteBuffer.allocate(Math.toIntExact(centralDirectorySize)).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(centralDirectory, centralDirectoryOffset);
+
+		List<Entry> entries = new ArrayList<>(entryCount);
+		int pos = 0;
+
+		for (int i = 0; i < entryCount; i++) {
+			if (centralDirectory.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+				throw new ZipException("Invalid central directory header in " + path);
+			}
+
+			Entry entry = new Entry();
+			entry.versionMadeBy = Short.toUnsignedInt(centralDirectory.getShort(pos + 4));
+			entry.versionNeeded = Short.toUnsignedInt(centralDirectory.getShort(pos + 6));
+			entry.flags = Short.toUnsignedInt(centralDirectory.getShort(pos + 8));
+			entry.method = Short.toUnsignedInt(centralDirectory.getShort(pos + 10));
+			entry.dosTime = centralDirectory.getInt(pos + 12);
+			entry.crc = centralDirectory.getInt(pos + 16);
+			entry.compressedSize = Integer.toUnsignedLong(centralDirectory.getInt(pos + 20));
+			entry.size = Integer.toUnsignedLong(centralDirectory.getInt(pos + 24));
+			int nameLength = Short.toUnsignedInt(centralDirectory.getShort(pos + 28));
+			int extraLength = Short.toUnsignedInt(centralDirectory.getShort(pos + 30));
+			int commentLength = Short.toUnsignedInt(centralDirectory.getShort(pos + 32));
+			entry.internalAttributes = Short.toUnsignedInt(centralDirectory.getShort(pos + 36));
+			entry.externalAttributes = centralDirectory.getInt(pos + 38);
+			entry.localHeaderOffset = Integer.toUnsignedLong(centralDirectory.getInt(pos + 42));
+
+			pos += CENTRAL_HEADER_SIZE;
+			entry.rawName = slice(centralDirectory, pos, nameLength);
+			entry.extra = slice(centralDirectory, pos + nameLength, extraLength);
+			entry.comment = slice(centralDirectory, pos + nameLength + extraLength, commentLength);
+			entry.name = new String(entry.rawName, StandardCharsets.UTF_8);
+			pos += nameLength + extraLength + commentLength;
+
+			if ((entry.flags & 1) != 0) {
+				throw new ZipException("Encrypted entries are not supported: " + entry.name + " in " + path);
+			}
+
+			if (entry.compressedSize == 0xFFFFFFFFL || entry.size == 0xFFFFFFFFL || entry.localHeaderOffset == 0xFFFFFFFFL) {
+				throw new ZipException("Zip64 archives are not supported: " + path);
+			}
+
+			entries.add(entry);
+		}
+
+		return entries;
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+
+			if (read < 0) {
+				throw new ZipException("Unexpected end of file " + path);
+			}
+
+			position += read;
+		}
+	}
+
+	private static byte[] slice(ByteBuffer buffer, int offset, int length) {
+		byte[] bytes = new byte[length];
+		buffer.get(offset, bytes);
+		return bytes;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * An entry as described by the central directory of a {@link ZipArchive}.
+	 */
+	public static final class Entry {
+		private String name;
+		private byte[] rawName;
+		private int versionMadeBy;
+		private int versionNeeded;
+		private int flags;
+		private int method;
+		private int dosTime;
+		private int crc;
+		private long compressedSize;
+		private long size;
+		private byte[] extra;
+		private byte[] comment;
+		private int internalAttributes;
+		private int externalAttributes;
+		private long localHeaderOffset;
+
+		// Lazily read from the local header
+		private volatile byte[] localExtra;
+		private volatile long dataOffset = -1;
+
+		private Entry() {
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public boolean isDirectory() {
+			return name.endsWith("/");
+		}
+
+		public int getMethod() {
+			return method;
+		}
+
+		/**
+		 * @return the last modified time and date, packed in the MS-DOS format used by zip files
+		 */
+		public int getDosTime() {
+			return dosTime;
+		}
+
+		public int getCrc() {
+			return crc;
+		}
+
+		public long getCompressedSize() {
+			return compressedSize;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		byte[] getRawName() {
+			return rawName;
+		}
+
+		int getVersionMadeBy() {
+			return versionMadeBy;
+		}
+
+		int getVersionNeeded() {
+			return versionNeeded;
+		}
+
+		int getFlags() {
+			return flags;
+		}
+
+		byte[] getExtra() {
+			return extra;
+		}
+
+		byte[] getComment() {
+			return comment;
+		}
+
+		int getInternalAttributes() {
+			return internalAttributes;
+		}
+
+		int getExternalAttributes() {
+			return externalAttributes;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+}
@@ -0,0 +1,333 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.zip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip file entry by entry, either from uncompressed data or by copying the raw data of an entry
+ * from a {@link ZipArchive}.
+ *
+ * <p>The sizes and crc of every entry are known before it is written, so no data descriptors are used. Unless
+ * {@link #resetTimestamps(long)} is used, then every entry is deflated and written in the same layout as a
+ * {@link java.util.zip.ZipOutputStream} would, so reproducible archives stay byte for byte identical.
+ */
+public final class ZipArchiveWriter implements Closeable {
+	private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+	private static final int FLAG_UTF8 = 1 << 11;
+	private static final int VERSION_STORED = 10;
+	private static final int VERSION_DEFLATED = 20;
+	private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+	private static final int EXTENDED_TIMESTAMP_ID = 0x5455;
+
+	/**
+	 * See {@link org.gradle.api.internal.file.archive.ZipCopyAction} about this.
+	 */
+	public static final long CONSTANT_TIME_FOR_ZIP_ENTRIES = new GregorianCalendar(1980, Calendar.FEBRUARY, 1, 0, 0, 0).getTimeInMillis();
+
+	private final FileChannel channel;
+	private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+	private final Set<String> names = new HashSet<>();
+	private int entryCount;
+	private boolean closed;
+
+	// Only set when resetting timestamps
+	private int constantDosTime;
+	private byte[] constantLocalExtra;
+	private byte[] constantCentralExtra;
+
+	private ZipArchiveWriter(FileChannel channel) {
+		this.channel = channel;
+	}
+
+	public static ZipArchiveWriter create(Path path) throws IOException {
+		return new ZipArchiveWriter(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+	}
+
+	/**
+	 * Writes all following entries with the given time, dropping any other metadata they have.
+	 */
+	public void resetTimestamps(long time) {
+		int unixTime = (int) (time / 1000);
+		constantDosTime = toDosTime(time);
+
+		// Extended timestamp with the modification and access times in the local header, only the modification time in the central header
+		ByteBuffer localExtra = ByteBuffer.allocate(13).order(ByteOrder.LITTLE_ENDIAN);
+		localExtra.putShort((short) EXTENDED_TIMESTAMP_ID).putShort((short) 9).put((byte) 3).putInt(unixTime).putInt(unixTime);
+		constantLocalExtra = localExtra.array();
+
+		ByteBuffer centralExtra = ByteBuffer.allocate(9).order(ByteOrder.LITTLE_ENDIAN);
+		centralExtra.putShort((short) EXTENDED_TIMESTAMP_ID).putShort((short) 5).put((byte) 3).putInt(unixTime);
+		constantCentralExtra = centralExtra.array();
+	}
+
+	private boolean isResettingTimestamps() {
+		return constantLocalExtra != null;
+	}
+
+	/**
+	 * Copies an entry from another archive without inflating it, keeping its name, time, attributes and extra data.
+	 *
+	 * <p>When resetting timestamps only the data of deflated entries is copied, stored entries are deflated.
+	 */
+	public void copyRaw(ZipArchive archive, ZipArchive.Entry entry) throws IOException {
+		if (isResettingTimestamps()) {
+			if (entry.getMethod() == ZipEntry.STORED) {
+				writeCompressed(entry.getName(), ZipEntry.STORED, 0, entry.getCrc(), entry.getSize(), archive.readRaw(entry), Math.toIntExact(entry.getCompressedSize()));
+				return;
+			}
+
+			if (entry.getMethod() != ZipEntry.DEFLATED) {
+				throw new ZipException("Unsupported compression method " + entry.getMethod() + " for " + entry.getName());
+			}
+
+			addName(entry.getName());
+			writeResetEntry(entry.getRawName(), entry.getCrc(), entry.getCompressedSize(), entry.getSize(), () -> archive.transferRawTo(entry, channel));
+			return;
+		}
+
+		addName(entry.getName());
+
+		long offset = channel.position();
+		int flags = entry.getFlags() & ~FLAG_DATA_DESCRIPTOR;
+		writeLocalHeader(entry.getRawName(), entry.getVersionNeeded(), flags, entry.getMethod(), entry.getDosTime(), entry.getCrc(), entry.getCompressedSize(), entry.getSize(), archive.getLocalExtra(entry));
+		archive.transferRawTo(entry, channel);
+		writeCentralHeader(entry.getRawName(), entry.getVersionMadeBy(), entry.getVersionNeeded(), flags, entry.getMethod(), entry.getDosTime(), entry.getCrc(), entry.getCompressedSize(), entry.getSize(), entry.getExtra(), entry.getComment(), entry.getInternalAttributes(), entry.getExternalAttributes(), offset);
+	}
+
+	/**
+	 * Deflates and writes a new entry, directories are always stored.
+	 *
+	 * @param dosTime the last modified time of the entry, see {@link #toDosTime(long)}
+	 */
+	public void write(String name, byte[] data, int dosTime) throws IOException {
+		write(name, data, dosTime, ZipCompression.DEFAULT);
+	}
+
+	/**
+	 * Compresses and writes a new entry, directories and empty entries are always stored.
+	 */
+	public void write(String name, byte[] data, int dosTime, ZipCompression compression) throws IOException {
+		int crc = crc(data);
+
+		if (name.endsWith("/") || data.length == 0) {
+			compression = ZipCompression.STORED;
+		}
+
+		byte[] compressed = compression.compress(data, data.length);
+		writeCompressed(name, compression.method(), dosTime, crc, data.length, compressed, compressed.length);
+	}
+
+	public static int crc(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Writes an entry whose data has already been compressed with the given method.
+	 */
+	public void writeCompressed(String name, int method, int dosTime, int crc, long size, byte[] compressed, int compressedLength) throws IOException {
+		addName(name);
+
+		byte[] rawName = name.getBytes(StandardCharsets.UTF_8);
+
+		if (isResettingTimestamps()) {
+			if (method == ZipEntry.STORED) {
+				compressed = ZipCompression.DEFAULT.compress(compressed, compressedLength);
+				compressedLength = compressed.length;
+			}
+
+			byte[] data = compressed;
+			int length = compressedLength;
+			writeResetEntry(rawName, crc, length, size, () -> writeFully(ByteBuffer.wrap(data, 0, length)));
+			return;
+		}
+
+		int version = method == ZipEntry.STORED ? VERSION_STORED : VERSION_DEFLATED;
+		long offset = channel.position();
+
+		writeLocalHeader(rawName, version, FLAG_UTF8, method, dosTime, crc, compressedLength, size, new byte[0]);
+		writeFully(ByteBuffer.wrap(compressed, 0, compressedLength));
+		writeCentralHeader(rawName, VERSION_DEFLATED, version, FLAG_UTF8, method, dosTime, crc, compressedLength, size, new byte[0], new byte[0], 0, 0, offset);
+	}
+
+	private void writeResetEntry(byte[] name, int crc, long compressedSize, long size, DataWriter data) throws IOException {
+		int flags = FLAG_DATA_DESCRIPTOR | FLAG_UTF8;
+		long offset = channel.position();
+
+		// The sizes and crc are only written to the data descriptor
+		writeLocalHeader(name, VERSION_DEFLATED, flags, ZipEntry.DEFLATED, constantDosTime, 0, 0, 0, constantLocalExtra);
+		data.write();
+
+		ByteBuffer descriptor = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+		descriptor.putInt(DATA_DESCRIPTOR_SIGNATURE);
+		descriptor.putInt(crc);
+		descriptor.putInt((int) compressedSize);
+		descriptor.putInt((int) size);
+		writeFully(descriptor.flip());
+
+		writeCentralHeader(name, VERSION_DEFLATED, VERSION_DEFLATED, flags, ZipEntry.DEFLATED, constantDosTime, crc, compressedSize, size, constantCentralExtra, new byte[0], 0, 0, offset);
+	}
+
+	public boolean hasEntry(String name) {
+		return names.contains(name);
+	}
+
+	/**
+	 * Converts a java time to the MS-DOS date and time format used by zip files, in the default time zone.
+	 */
+	public static int toDosTime(long time) {
+		LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+		int year = dateTime.getYear() - 1980;
+
+		if (year < 0) {
+			// 1980-01-01 00:00:00, the earliest time that can be stored
+			return (1 << 21) | (1 << 16);
+		}
+
+		year = Math.min(year, 127);
+		return year << 25 | dateTime.getMonthValue() << 21 | dateTime.getDayOfMonth() << 16 | dateTime.getHour() << 11 | dateTime.getMinute() << 5 | dateTime.getSecond() >> 1;
+	}
+
+	private void addName(String name) throws ZipException {
+		if (!names.add(name)) {
+			throw new ZipException("Duplicate entry: " + name);
+		}
+
+		if (++entryCount > 0xFFFF) {
+			throw new ZipException("Zip64 archives are not supported, too many entries");
+		}
+	}
+
+	private void writeLocalHeader(byte[] name, int versionNeeded, int flags, int method, int dosTime, int crc, long compressedSize, long size, byte[] extra) throws IOException {
+		checkZip32(compressedSize);
+		checkZip32(size);
+		checkZip32(channel.position());
+
+		ByteBuffer header = ByteBuffer.allocate(ZipArchive.LOCAL_HEADER_SIZE + name.length + extra.length).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(ZipArchive.LOCAL_HEADER_SIGNATURE);
+		header.putShort((short) versionNeeded);
+		header.putShort((short) flags);
+		header.putShort((short) method);
+		header.putInt(dosTime);
+		header.putInt(crc);
+		header.putInt((int) compressedSize);
+		header.putInt((int) size);
+		header.putShort((short) name.length);
+		header.putShort((short) extra.length);
+		header.put(name);
+		header.put(extra);
+		writeFully(header.flip());
+	}
+
+	private void writeCentralHeader(byte[] name, int versionMadeBy, int versionNeeded, int flags, int method, int dosTime, int crc, long compressedSize, long size, byte[] extra, byte[] comment, int internalAttributes, int externalAttributes, long offset) {
+		ByteBuffer header = ByteBuffer.allocate(ZipArchive.CENTRAL_HEADER_SIZE + name.length + extra.length + comment.length).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(ZipArchive.CENTRAL_HEADER_SIGNATURE);
+		header.putShort((short) versionMadeBy);
+		header.putShort((short) versionNeeded);
+		header.putShort((short) flags);
+		header.putShort((short) method);
+		header.putInt(dosTime);
+		header.putInt(crc);
+		header.putInt((int) compressedSize);
+		header.putInt((int) size);
+		header.putShort((short) name.length);
+		header.putShort((short) extra.length);
+		header.putShort((short) comment.length);
+		header.putShort((short) 0); // Disk number
+		header.putShort((short) internalAttributes);
+		header.putInt(externalAttributes);
+		header.putInt((int) offset);
+		header.put(name);
+		header.put(extra);
+		header.put(comment);
+		centralDirectory.write(header.array(), 0, header.position());
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static void checkZip32(long value) throws ZipException {
+		if (value >= 0xFFFFFFFFL) {
+			throw new ZipException("Zip64 archives are not supported, the archive or an entry is too large");
+		}
+	}
+
+	@FunctionalInterface
+	private interface DataWriter {
+		void write() throws IOException;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+
+		closed = true;
+
+		try {
+			long offset = channel.position();
+			checkZip32(offset);
+			checkZip32(centralDirectory.size());
+			writeFully(ByteBuffer.wrap(centralDirectory.toByteArray()));
+
+			ByteBuffer end = ByteBuffer.allocate(ZipArchive.END_OF_CENTRAL_DIRECTORY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			end.putInt(ZipArchive.END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+			end.putShort((short) 0); // Disk number
+			end.putShort((short) 0); // Disk with the central directory
+			end.putShort((short) entryCount);
+			end.putShort((short) entryCount);
+			end.putInt(centralDirectory.size());
+			end.putInt((int) offset);
+			end.putShort((short) 0); // Comment length
+			writeFully(end.flip());
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.zip;
+
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * How the entries written to a zip are compressed, either stored or deflated at a given level.
+ */
+public record ZipCompression(int method, int level) {
+	public static final ZipCompression STORED = new ZipCompression(ZipEntry.STORED, 0);
+	public static final ZipCompression DEFAULT = deflated(Deflater.DEFAULT_COMPRESSION);
+
+	public ZipCompression {
+		Preconditions.checkArgument(method == ZipEntry.STORED || method == ZipEntry.DEFLATED, "Unsupported compression method %s", method);
+		Preconditions.checkArgument(level == Deflater.DEFAULT_COMPRESSION || (level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION), "Invalid compression level %s", level);
+	}
+
+	public static ZipCompression deflated(int level) {
+		return new ZipCompression(ZipEntry.DEFLATED, level);
+	}
+
+	/**
+	 * Compresses the first {@code length} bytes of the data, stored data is returned as is.
+	 */
+	public byte[] compress(byte[] data, int length) {
+		if (method == ZipEntry.STORED) {
+			return length == data.length ? data : Arrays.copyOf(data, length);
+		}
+
+		Deflater deflater = new Deflater(level, true);
+
+		try {
+			deflater.setInput(data, 0, length);
+			deflater.finish();
+
+			byte[] compressed = new byte[Math.max(64, length / 2)];
+			int compressedLength = 0;
+
+			while (!deflater.finished()) {
+				if (compressedLength == compressed.length) {
+					compressed = Arrays.copyOf(compressed, compressed.length * 2);
+				}
+
+				compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+			}
+
+			return Arrays.copyOf(compressed, compressedLength);
+		} finally {
+			deflater.end();
+		}
+	}
+}
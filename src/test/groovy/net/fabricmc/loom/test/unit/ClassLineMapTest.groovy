@@ -0,0 +1,93 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2021 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.test.unit
+
+import java.nio.file.Files
+
+import net.fabricmc.loom.decompilers.ClassLineMap
+import spock.lang.Specification
+
+class ClassLineMapTest extends Specification {
+    def "reads the binary line map"() {
+        given:
+            def file = File.createTempDir().toPath().resolve("sources.lmap")
+            def classLineMap = ClassLineMap.of("net/minecraft/Foo", [3, 10, 5, 12, 4, 11] as int[])
+
+        when:
+            new DataOutputStream(Files.newOutputStream(file)).withCloseable {
+                it.writeInt(ClassLineMap.MAGIC)
+                classLineMap.write(it)
+            }
+            def classes = ClassLineMap.readFile(file)
+
+        then:
+            classes.keySet() == ["net/minecraft/Foo"] as Set
+            classes["net/minecraft/Foo"].toMapping() == [3, 10, 4, 11, 5, 12] as int[]
+            classes["net/minecraft/Foo"].maxLine() == 5
+            classes["net/minecraft/Foo"].maxLineDest() == 12
+    }
+
+    def "reads the text line map of older versions"() {
+        given:
+            def file = File.createTempDir().toPath().resolve("sources.lmap")
+            file.text = "net/minecraft/Foo\t9\t20\n\t3\t10\n\t5\t12\n\t3\t11\n\nnet/minecraft/Bar\t2\t4\n\t1\t4\n"
+
+        when:
+            def classes = ClassLineMap.readFile(file)
+            def foo = classes["net/minecraft/Foo"]
+
+        then:
+            classes.keySet() == ["net/minecraft/Foo", "net/minecraft/Bar"] as Set
+            foo.maxLine() == 9
+            foo.maxLineDest() == 20
+            foo.toMapping() == [3, 11, 5, 12] as int[]
+            foo.remap(3) == 11
+            foo.remap(4) == 12
+            foo.remap(6) == 20
+            foo.remap(9) == 20
+            classes["net/minecraft/Bar"].remap(1) == 4
+    }
+
+    def "reads an empty line map"() {
+        given:
+            def file = Files.createFile(File.createTempDir().toPath().resolve("sources.lmap"))
+
+        expect:
+            ClassLineMap.readFile(file).isEmpty()
+    }
+
+    def "rejects an invalid text line map"() {
+        given:
+            def file = File.createTempDir().toPath().resolve("sources.lmap")
+            file.text = "net/minecraft/Foo\t9\t20\n\tthree\t10\n"
+
+        when:
+            ClassLineMap.readFile(file)
+
+        then:
+            def e = thrown(IOException)
+            e.message.contains("at line 2")
+    }
+}
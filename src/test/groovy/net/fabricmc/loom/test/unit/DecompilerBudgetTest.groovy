@@ -0,0 +1,66 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.test.unit
+
+import net.fabricmc.loom.decompilers.DecompilerBudget
+import spock.lang.Specification
+
+class DecompilerBudgetTest extends Specification {
+    def "parse memory limit"() {
+        when:
+            def bytes = DecompilerBudget.parseMemoryLimit(limit)
+
+        then:
+            bytes == expected
+
+        where:
+            limit                    | expected
+            null                     | 0
+            "max"                    | 0                  // cgroup v2 without a limit
+            "4294967296"             | 4294967296
+            "9223372036854771712"    | 0                  // cgroup v1 without a limit
+            "garbage"                | 0
+    }
+
+    def "parse cpu limit"() {
+        when:
+            def cores = DecompilerBudget.parseCpuLimit(max)
+
+        then:
+            cores == expected
+
+        where:
+            max                      | expected
+            null                     | 0
+            "max 100000"             | 0                  // cgroup v2 without a quota
+            "200000 100000"          | 2
+            "150000 100000"          | 2                  // rounded up
+            "50000 100000"           | 1
+            "-1 100000"              | 0                  // cgroup v1 without a quota
+            "400000\t100000"         | 4
+            "100000"                 | 0
+            "abc 100000"             | 0
+    }
+}
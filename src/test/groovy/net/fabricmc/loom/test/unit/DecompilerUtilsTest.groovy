@@ -0,0 +1,77 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2021 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.test.unit
+
+import java.nio.file.Path
+import java.util.concurrent.ConcurrentHashMap
+
+import net.fabricmc.loom.api.decompilers.DecompilationMetadata
+import net.fabricmc.loom.api.decompilers.LoomDecompiler
+import net.fabricmc.loom.decompilers.DecompilerUtils
+import net.fabricmc.loom.test.util.ZipTestTrait
+import spock.lang.Specification
+
+class DecompilerUtilsTest extends Specification implements ZipTestTrait {
+    def "reads the text line map of a decompiler that writes a sources jar"() {
+        given:
+            def directory = File.createTempDir().toPath()
+            def compiledJar = directory.resolve("compiled.jar")
+            writeZip(compiledJar, ["net/minecraft/Foo.class": new byte[0]])
+            def decompiler = new TextLineMapDecompiler()
+            def sources = new ConcurrentHashMap<String, String>()
+            def lineMappings = new ConcurrentHashMap<String, int[]>()
+
+        when:
+            DecompilerUtils.decompile(decompiler, compiledJar, { className, source, lineMapping ->
+                sources[className] = source
+
+                if (lineMapping != null) {
+                    lineMappings[className] = lineMapping
+                }
+            }, new DecompilationMetadata(1, null, [], { it != "net/minecraft/Skipped" }, 0))
+
+        then:
+            sources == ["net/minecraft/Foo": "class Foo {}", "net/minecraft/Bar": "class Bar {}"]
+            lineMappings.keySet() == ["net/minecraft/Foo"] as Set
+            lineMappings["net/minecraft/Foo"] == [3, 10, 5, 12] as int[]
+    }
+
+    private class TextLineMapDecompiler implements LoomDecompiler {
+        @Override
+        String name() {
+            return "Text"
+        }
+
+        @Override
+        void decompile(Path compiledJar, Path sourcesDestination, Path linemapDestination, DecompilationMetadata metaData) {
+            writeZip(sourcesDestination, [
+                "net/minecraft/Foo.java": "class Foo {}".bytes,
+                "net/minecraft/Bar.java": "class Bar {}".bytes,
+                "net/minecraft/Skipped.java": "class Skipped {}".bytes
+            ])
+            linemapDestination.text = "net/minecraft/Foo\t5\t12\n\t5\t12\n\t3\t10\n"
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.test.unit
+
+import groovy.json.JsonSlurper
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.PosixFilePermissions
+import java.util.zip.Deflater
+import net.fabricmc.loom.test.util.ZipTestTrait
+import net.fabricmc.loom.util.zip.JarTransaction
+import net.fabricmc.loom.util.zip.ZipArchive
+import spock.lang.IgnoreIf
+import spock.lang.Specification
+
+class JarTransactionTest extends Specification implements ZipTestTrait {
+    static final Map<String, byte[]> ENTRIES = [
+            "META-INF/": new byte[0],
+            "META-INF/MANIFEST.MF": "Manifest-Version: 1.0\r\n".bytes,
+            "fabric.mod.json": '{"id":"test"}'.bytes,
+            "empty.txt": new byte[0],
+            "b/Test.class": (0..<4096).collect { (byte) (it * 31 % 251) } as byte[],
+            "a/text.txt": ("Lorem ipsum dolor sit amet " * 100).bytes,
+    ]
+
+    Path tempDir = File.createTempDir().toPath()
+
+    def "applies all changes on commit"() {
+        given:
+            def jar = tempDir.resolve("test.jar")
+            writeZip(jar, ENTRIES, [], Deflater.BEST_COMPRESSION)
+            def rawClass = ZipArchive.open(jar).withCloseable { it.readRaw(it.getEntry("b/Test.class")) }
+
+        when:
+            def committed = JarTransaction.open(jar).withCloseable {
+                it.put("added.txt", "added".bytes)
+                        .put("empty.txt", "replaced".bytes)
+                        .delete("a/text.txt")
+                        .transform("META-INF/MANIFEST.MF") { data -> (new String(data) + "Fabric: true\r\n").bytes }
+                        .transformJson("fabric.mod.json") { json -> json.addProperty("version", "1.0.0") }
+                        .commit()
+            }
+
+            def entries = readZip(jar)
+            def rawClassAfter = ZipArchive.open(jar).withCloseable { it.readRaw(it.getEntry("b/Test.class")) }
+
+        then:
+            committed
+            entries.keySet().toList() == ["META-INF/", "META-INF/MANIFEST.MF", "fabric.mod.json", "empty.txt", "b/Test.class", "added.txt"]
+            new String(entries["added.txt"]) == "added"
+            new String(entries["empty.txt"]) == "replaced"
+            new String(entries["META-INF/MANIFEST.MF"]) == "Manifest-Version: 1.0\r\nFabric: true\r\n"
+            new JsonSlurper().parse(entries["fabric.mod.json"]) == [id: "test", version: "1.0.0"]
+            Arrays.equals(entries["b/Test.class"], ENTRIES["b/Test.class"])
+            Arrays.equals(rawClassAfter, rawClass)     // Copied without being deflated again
+    }
+
+    def "leaves the jar untouched without changes"() {
+        given:
+            def jar = tempDir.resolve("test.jar")
+            writeZip(jar, ENTRIES)
+            def bytes = Files.readAllBytes(jar)
+
+        when:
+            def committed = JarTransaction.open(jar).withCloseable {
+                it.delete("missing.txt").transform("missing.json") { data -> data }
+                it.commit()
+            }
+
+        then:
+            !committed
+            Arrays.equals(Files.readAllBytes(jar), bytes)
+    }
+
+    def "can only be committed once"() {
+        given:
+            def jar = tempDir.resolve("test.jar")
+            writeZip(jar, ENTRIES)
+            def transaction = JarTransaction.open(jar)
+
+        when:
+            transaction.put("added.txt", "added".bytes).commit()
+            transaction.commit()
+
+        then:
+            thrown(IllegalStateException)
+
+        cleanup:
+            transaction.close()
+    }
+
+    def "sorted entries with reset timestamps match ZipOutputStream"() {
+        given:
+            def jar = tempDir.resolve("test.jar")
+            def output = tempDir.resolve("output.jar")
+            // Stored entries are deflated again, the others keep their data
+            writeZip(jar, ENTRIES, ["a/text.txt"])
+
+        when:
+            JarTransaction.open(jar).withCloseable {
+                it.commitTo(output, true, false)
+            }
+
+        then:
+            Arrays.equals(Files.readAllBytes(output), reprocessWithZipOutputStream(jar))
+    }
+
+    @IgnoreIf({ os.windows })
+    def "keeps the permissions of the jar"() {
+        given:
+            def jar = tempDir.resolve("test.jar")
+            writeZip(jar, ENTRIES)
+            Files.setPosixFilePermissions(jar, PosixFilePermissions.fromString("rw-r--r--"))
+
+        when:
+            JarTransaction.open(jar).withCloseable {
+                it.put("added.txt", "added".bytes).commit()
+            }
+
+        then:
+            PosixFilePermissions.toString(Files.getPosixFilePermissions(jar)) == "rw-r--r--"
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.test.unit
+
+import java.nio.file.Path
+import java.util.zip.ZipEntry
+import java.util.zip.ZipException
+import net.fabricmc.loom.test.util.ZipTestTrait
+import net.fabricmc.loom.util.zip.ParallelZipWriter
+import net.fabricmc.loom.util.zip.ZipArchive
+import net.fabricmc.loom.util.zip.ZipCompression
+import spock.lang.Specification
+
+class ParallelZipWriterTest extends Specification implements ZipTestTrait {
+    Path tempDir = File.createTempDir().toPath()
+
+    def "writes entries from many threads"() {
+        given:
+            def zip = tempDir.resolve("test.zip")
+            def entries = (0..<1000).collectEntries { ["entry-${it}.txt".toString(), ("Entry ${it} " * (it % 50)).bytes] }
+
+        when:
+            ParallelZipWriter.create(zip, ZipCompression.DEFAULT, sortEntries).withCloseable { writer ->
+                entries.entrySet().parallelStream().forEach { writer.write(it.key, it.value) }
+            }
+
+            def written = readZip(zip)
+
+        then:
+            written.size() == entries.size()
+            written.every { name, data -> Arrays.equals(data, entries[name]) }
+            !sortEntries || written.keySet().toList() == written.keySet().toList().toSorted()
+
+        where:
+            sortEntries << [true, false]
+    }
+
+    def "copies, transforms and stores entries"() {
+        given:
+            def input = tempDir.resolve("input.zip")
+            def output = tempDir.resolve("output.zip")
+            writeZip(input, ["a.txt": ("a" * 1000).bytes, "b.txt": ("b" * 1000).bytes, "c.txt": ("c" * 1000).bytes])
+
+        when:
+            def archive = ZipArchive.open(input)
+
+            ParallelZipWriter.create(output, compression, true).withCloseable { writer ->
+                writer.copy(archive, archive.getEntry("a.txt"))
+                writer.transform(archive, archive.getEntry("b.txt")) { data -> "transformed".bytes }
+                writer.transform(archive, archive.getEntry("c.txt")) { data -> null }
+                writer.writeDirectory("dir")
+                writer.writeDirectory("dir/")
+            }
+
+            archive.close()
+
+            def written = readZip(output)
+            def methods = ZipArchive.open(output).withCloseable { copy -> copy.entries.findAll { !it.directory }.collect { it.method }.unique() }
+
+        then:
+            written.keySet().toList() == ["a.txt", "b.txt", "c.txt", "dir/"]
+            new String(written["a.txt"]) == "a" * 1000
+            new String(written["b.txt"]) == "transformed"
+            new String(written["c.txt"]) == "c" * 1000
+            methods == [method]
+
+        where:
+            compression                 | method
+            ZipCompression.DEFAULT      | ZipEntry.DEFLATED
+            ZipCompression.STORED       | ZipEntry.STORED
+    }
+
+    def "writes unsorted entries in the order they were added"() {
+        given:
+            def input = tempDir.resolve("input.zip")
+            def output = tempDir.resolve("output.zip")
+            writeZip(input, ["z.txt": "z".bytes, "y.txt": ("y" * 1000).bytes])
+
+        when:
+            def archive = ZipArchive.open(input)
+
+            ParallelZipWriter.create(output, ZipCompression.DEFAULT, false).withCloseable { writer ->
+                (0..<100).each { writer.write("entry-${99 - it}.txt", ("Entry ${it} " * 100).bytes) }
+                writer.copy(archive, archive.getEntry("z.txt"))
+                writer.writeDirectory("dir")
+                writer.transform(archive, archive.getEntry("y.txt")) { data -> "transformed".bytes }
+            }
+
+            archive.close()
+
+        then:
+            readZip(output).keySet().toList() == (0..<100).collect { "entry-${99 - it}.txt".toString() } + ["z.txt", "dir/", "y.txt"]
+    }
+
+    def "reports entries that failed when closed"() {
+        given:
+            def input = tempDir.resolve("input.zip")
+            writeZip(input, ["a.txt": "a".bytes])
+            def archive = ZipArchive.open(input)
+            def writer = ParallelZipWriter.create(tempDir.resolve("output.zip"), ZipCompression.DEFAULT, false)
+
+        when:
+            writer.transform(archive, archive.getEntry("a.txt")) { data -> throw new IllegalStateException("broken") }
+            writer.write("b.txt", "b".bytes)
+            writer.close()
+
+        then:
+            def e = thrown(IOException)
+            e.cause instanceof IllegalStateException
+
+        cleanup:
+            archive.close()
+    }
+
+    def "rejects duplicate entries"() {
+        given:
+            def zip = tempDir.resolve("test.zip")
+            def writer = ParallelZipWriter.create(zip, ZipCompression.DEFAULT, false)
+
+        when:
+            writer.write("a.txt", "a".bytes)
+            writer.write("a.txt", "b".bytes)
+
+        then:
+            thrown(ZipException)
+
+        cleanup:
+            writer.close()
+    }
+}
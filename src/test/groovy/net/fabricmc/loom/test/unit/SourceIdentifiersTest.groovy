@@ -0,0 +1,53 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.test.unit
+
+import net.fabricmc.loom.util.SourceIdentifiers
+import spock.lang.Specification
+
+class SourceIdentifiersTest extends Specification {
+    def "reads identifiers and declared types"() {
+        when:
+            def identifiers = SourceIdentifiers.read(source)
+
+        then:
+            identifiers.identifiers().containsAll(expectedIdentifiers)
+            identifiers.identifiers().intersect(hidden as Set).isEmpty()
+            identifiers.declaredTypes() == declaredTypes as Set
+
+        where:
+            source                                                              | expectedIdentifiers           | hidden                    | declaredTypes
+            "public class Foo extends Bar { Baz baz; }"                         | ["Foo", "Bar", "Baz", "baz"]  | []                        | ["Foo"]
+            "interface A {} enum B {} record C(int x) {} @interface D {}"       | ["A", "B", "C", "D", "x"]     | []                        | ["A", "B", "C", "D"]
+            "// class Commented\nclass Real {}"                                 | ["Real"]                      | ["Commented"]             | ["Real"]
+            "/* class Block\n Hidden */ class Real {}"                          | ["Real"]                      | ["Block", "Hidden"]       | ["Real"]
+            "/** {@link Linked} */ class Real {}"                               | ["Real"]                      | ["Linked"]                | ["Real"]
+            'class Real { String s = "class Quoted \\" Escaped"; }'             | ["Real", "String", "s"]       | ["Quoted", "Escaped"]     | ["Real"]
+            'class Real { String s = """\n  class Block " Hidden\n  """; }'     | ["Real", "String", "s"]       | ["Block", "Hidden"]       | ["Real"]
+            "class Real { char a = '\"'; char b = '\\''; Other o; }"            | ["Real", "Other", "o"]        | []                        | ["Real"]
+            "class Real { Class<?> c = Foo.class; Bar bar; }"                   | ["Real", "Foo", "Bar"]        | []                        | ["Real"]
+            "class Real { Object o = Foo.class\n        .cast(null); }"         | ["Real", "Foo", "cast"]       | []                        | ["Real"]
+    }
+}
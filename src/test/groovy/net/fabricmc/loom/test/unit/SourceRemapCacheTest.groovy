@@ -0,0 +1,135 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.test.unit
+
+import java.nio.file.Files
+import java.nio.file.Path
+import net.fabricmc.loom.util.SourceRemapCache
+import spock.lang.Specification
+
+class SourceRemapCacheTest extends Specification {
+    static final Map<String, byte[]> SOURCES = [
+            "a/Foo.java": "package a; public class Foo {}".bytes,
+            "b/Bar.java": "package b; import a.Foo; public class Bar extends Foo {}".bytes,
+            "c/Baz.java": "package c; public class Baz { b.Bar bar; }".bytes,
+            "d/Other.java": "package d; public class Other {}".bytes,
+    ]
+
+    Path tempDir = File.createTempDir().toPath()
+    SourceRemapCache cache = new SourceRemapCache(tempDir.resolve("cache"))
+
+    def "remaps all files the first time"() {
+        expect:
+            cache.update(SOURCES, "fingerprint") == SOURCES.keySet()
+    }
+
+    def "remaps nothing when nothing changed"() {
+        given:
+            remap(SOURCES, "fingerprint")
+
+        expect:
+            cache.update(SOURCES, "fingerprint").isEmpty()
+    }
+
+    def "remaps a changed file and the files that reference its types"() {
+        given:
+            remap(SOURCES, "fingerprint")
+            def sources = new LinkedHashMap<>(SOURCES)
+            sources[changed] = (new String(SOURCES[changed]) + "\n// changed").bytes
+
+        expect:
+            cache.update(sources, "fingerprint") == dirty as Set
+
+        where:
+            changed         | dirty
+            "a/Foo.java"    | ["a/Foo.java", "b/Bar.java", "c/Baz.java"]    // Baz only references Foo through Bar
+            "b/Bar.java"    | ["b/Bar.java", "c/Baz.java"]
+            "c/Baz.java"    | ["c/Baz.java"]
+            "d/Other.java"  | ["d/Other.java"]
+    }
+
+    def "remaps the files that referenced a deleted file"() {
+        given:
+            remap(SOURCES, "fingerprint")
+            def sources = new LinkedHashMap<>(SOURCES)
+            sources.remove("a/Foo.java")
+
+        when:
+            def dirty = cache.update(sources, "fingerprint")
+
+        then:
+            dirty == ["b/Bar.java", "c/Baz.java"] as Set
+            cache.getRemapped("a/Foo.java") == null
+            !Files.exists(cache.getSourcesDirectory().resolve("a/Foo.java"))
+    }
+
+    def "remaps an added file and the files that reference its types"() {
+        given:
+            def sources = new LinkedHashMap<>(SOURCES)
+            sources["e/Unused.java"] = "package e; public class Unused { Missing missing; }".bytes
+            remap(sources, "fingerprint")
+            sources["e/Missing.java"] = "package e; public class Missing {}".bytes
+
+        expect:
+            cache.update(sources, "fingerprint") == ["e/Missing.java", "e/Unused.java"] as Set
+    }
+
+    def "remaps all files when the fingerprint changes"() {
+        given:
+            remap(SOURCES, "fingerprint")
+
+        expect:
+            cache.update(SOURCES, "other fingerprint") == SOURCES.keySet()
+    }
+
+    def "remaps the files that were not stored"() {
+        given:
+            cache.update(SOURCES, "fingerprint")
+            def output = tempDir.resolve("output")
+            write(output, "a/Foo.java", SOURCES["a/Foo.java"])
+            cache.store(output, SOURCES.keySet())
+            cache.commit(SOURCES, "fingerprint")
+
+        expect:
+            cache.update(SOURCES, "fingerprint") == ["b/Bar.java", "c/Baz.java", "d/Other.java"] as Set
+    }
+
+    /**
+     * Updates the cache and stores every dirty file as if Mercury remapped it.
+     */
+    private void remap(Map<String, byte[]> sources, String fingerprint) {
+        def dirty = cache.update(sources, fingerprint)
+        def output = tempDir.resolve("output")
+        dirty.each { write(output, it, sources[it]) }
+        cache.store(output, dirty)
+        cache.commit(sources, fingerprint)
+    }
+
+    private static void write(Path directory, String name, byte[] data) {
+        def path = directory.resolve(name)
+        Files.createDirectories(path.parent)
+        Files.write(path, data)
+    }
+}
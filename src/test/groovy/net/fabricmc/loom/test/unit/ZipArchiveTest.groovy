@@ -0,0 +1,163 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.test.unit
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.zip.Deflater
+import java.util.zip.ZipEntry
+import net.fabricmc.loom.test.util.ZipTestTrait
+import net.fabricmc.loom.util.zip.ZipArchive
+import net.fabricmc.loom.util.zip.ZipArchiveWriter
+import net.fabricmc.loom.util.zip.ZipCompression
+import spock.lang.Specification
+
+class ZipArchiveTest extends Specification implements ZipTestTrait {
+    static final Map<String, byte[]> ENTRIES = [
+            "META-INF/": new byte[0],
+            "META-INF/MANIFEST.MF": "Manifest-Version: 1.0\r\n".bytes,
+            "empty.txt": new byte[0],
+            "net/fabricmc/Test.class": (0..<4096).collect { (byte) (it * 31 % 251) } as byte[],
+            "text.txt": ("Lorem ipsum dolor sit amet " * 100).bytes,
+    ]
+
+    Path tempDir = File.createTempDir().toPath()
+
+    def "round trip"() {
+        given:
+            def zip = tempDir.resolve("test.zip")
+            def time = ZipArchiveWriter.toDosTime(System.currentTimeMillis())
+
+        when:
+            ZipArchiveWriter.create(zip).withCloseable { writer ->
+                ENTRIES.each { name, data -> writer.write(name, data, time, compression) }
+            }
+
+            def archive = ZipArchive.open(zip)
+            def entries = archive.entries.collectEntries { [it.name, archive.read(it)] }
+            def methods = archive.entries.collect { it.method }.unique()
+            def times = archive.entries.collect { it.dosTime }.unique()
+            archive.close()
+
+        then:
+            entries.keySet().toList() == ENTRIES.keySet().toList()
+            entries.every { name, data -> Arrays.equals(data, ENTRIES[name]) }
+            readZip(zip).every { name, data -> Arrays.equals(data, ENTRIES[name]) }
+            methods == expectedMethods
+            times == [time]
+
+        where:
+            compression                 | expectedMethods
+            ZipCompression.STORED       | [ZipEntry.STORED]
+            ZipCompression.DEFAULT      | [ZipEntry.STORED, ZipEntry.DEFLATED]     // Directories and empty entries are always stored
+    }
+
+    def "reads zips written by ZipOutputStream"() {
+        given:
+            def zip = tempDir.resolve("test.zip")
+            writeZip(zip, ENTRIES, ["text.txt"])
+
+        when:
+            def archive = ZipArchive.open(zip)
+            def entries = archive.entries.collectEntries { [it.name, archive.read(it)] }
+            def textMethod = archive.getEntry("text.txt").method
+            def classMethod = archive.getEntry("net/fabricmc/Test.class").method
+            archive.close()
+
+        then:
+            entries.keySet().toList() == ENTRIES.keySet().toList()
+            entries.every { name, data -> Arrays.equals(data, ENTRIES[name]) }
+            textMethod == ZipEntry.STORED
+            classMethod == ZipEntry.DEFLATED
+    }
+
+    def "raw copy keeps the compressed data"() {
+        given:
+            def input = tempDir.resolve("input.zip")
+            def output = tempDir.resolve("output.zip")
+            writeZip(input, ENTRIES, ["text.txt"], Deflater.BEST_COMPRESSION)
+
+        when:
+            def archive = ZipArchive.open(input)
+
+            ZipArchiveWriter.create(output).withCloseable { writer ->
+                archive.entries.each { writer.copyRaw(archive, it) }
+            }
+
+            def copy = ZipArchive.open(output)
+            def sameRaw = archive.entries.every { Arrays.equals(copy.readRaw(copy.getEntry(it.name)), archive.readRaw(it)) }
+            def sameHeaders = archive.entries.every {
+                def copied = copy.getEntry(it.name)
+                copied.method == it.method && copied.crc == it.crc && copied.dosTime == it.dosTime && copied.size == it.size
+            }
+            copy.close()
+            archive.close()
+
+        then:
+            sameRaw
+            sameHeaders
+            readZip(output).every { name, data -> Arrays.equals(data, ENTRIES[name]) }
+    }
+
+    def "re-deflating changes the compressed data but not the contents"() {
+        given:
+            def input = tempDir.resolve("input.zip")
+            def output = tempDir.resolve("output.zip")
+            writeZip(input, ENTRIES, [], Deflater.BEST_COMPRESSION)
+
+        when:
+            def archive = ZipArchive.open(input)
+            def entry = archive.getEntry("net/fabricmc/Test.class")
+
+            ZipArchiveWriter.create(output).withCloseable { writer ->
+                writer.write(entry.name, archive.read(entry), entry.dosTime, ZipCompression.deflated(Deflater.BEST_SPEED))
+            }
+
+            def copy = ZipArchive.open(output)
+            def copied = copy.getEntry(entry.name)
+            def sameRaw = Arrays.equals(copy.readRaw(copied), archive.readRaw(entry))
+            def sameData = Arrays.equals(copy.read(copied), archive.read(entry))
+            def sameCrc = copied.crc == entry.crc
+            copy.close()
+            archive.close()
+
+        then:
+            !sameRaw
+            sameData
+            sameCrc
+    }
+
+    def "rejects files that are not zips"() {
+        given:
+            def file = tempDir.resolve("test.zip")
+            Files.write(file, "not a zip".bytes)
+
+        when:
+            ZipArchive.open(file)
+
+        then:
+            thrown(IOException)
+    }
+}
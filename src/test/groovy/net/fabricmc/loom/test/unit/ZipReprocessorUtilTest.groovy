@@ -0,0 +1,103 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.test.unit
+
+import java.nio.file.FileSystems
+import java.nio.file.Files
+import java.nio.file.Path
+import net.fabricmc.loom.test.util.ZipTestTrait
+import net.fabricmc.loom.util.ZipReprocessorUtil
+import spock.lang.Specification
+
+class ZipReprocessorUtilTest extends Specification implements ZipTestTrait {
+    static final Map<String, byte[]> ENTRIES = [
+            "META-INF/MANIFEST.MF": "Manifest-Version: 1.0\r\n".bytes,
+            "z/": new byte[0],
+            "z/Last.class": ("public class Last { int field; }\n" * 200).bytes,
+            "a/First.class": ("public class First { int field; }\n" * 10000).bytes,
+            "a/random.bin": new Random(42).with { random -> (0..<70000).collect { (byte) random.nextInt(256) } as byte[] },
+            "empty.txt": new byte[0],
+    ]
+
+    Path tempDir = File.createTempDir().toPath()
+
+    def "sorted entries with reset timestamps match ZipOutputStream"() {
+        given:
+            def zip = tempDir.resolve("test.zip")
+
+            switch (writer) {
+                case "ZipOutputStream":
+                    writeZip(zip, entries)
+                    break
+                case "ZipOutputStream with stored entries":
+                    writeZip(zip, entries, ["a/First.class", "empty.txt"])
+                    break
+                case "zip file system":
+                    // As the outputs of TinyRemapper and Mercury are written
+                    FileSystems.newFileSystem(zip, [create: "true"]).withCloseable { fs ->
+                        entries.each { name, data ->
+                            def path = fs.getPath(name)
+
+                            if (name.endsWith("/")) {
+                                Files.createDirectories(path)
+                            } else {
+                                Files.createDirectories(path.parent ?: fs.getPath("/"))
+                                Files.write(path, data)
+                            }
+                        }
+                    }
+
+                    break
+            }
+
+            def expected = reprocessWithZipOutputStream(zip)
+
+        when:
+            ZipReprocessorUtil.reprocessZip(zip.toFile(), true, false)
+
+        then:
+            Arrays.equals(Files.readAllBytes(zip), expected)
+
+        where:
+            writer                                  | entries
+            "ZipOutputStream"                       | ENTRIES
+            "ZipOutputStream with stored entries"   | ENTRIES
+            "zip file system"                       | ENTRIES
+            "ZipOutputStream"                       | (0..<70000).collectEntries { ["entries/${it}.txt".toString(), "Entry ${it}".bytes] }    // Zip64
+    }
+
+    def "does nothing when keeping the order and timestamps"() {
+        given:
+            def zip = tempDir.resolve("test.zip")
+            writeZip(zip, ENTRIES)
+            def bytes = Files.readAllBytes(zip)
+
+        when:
+            ZipReprocessorUtil.reprocessZip(zip.toFile(), false, true)
+
+        then:
+            Arrays.equals(Files.readAllBytes(zip), bytes)
+    }
+}
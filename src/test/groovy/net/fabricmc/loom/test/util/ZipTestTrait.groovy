@@ -0,0 +1,103 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.test.util
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import java.util.zip.CRC32
+import java.util.zip.Deflater
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import java.util.zip.ZipOutputStream
+import net.fabricmc.loom.util.zip.ZipArchiveWriter
+
+trait ZipTestTrait {
+	/**
+	 * Writes the entries in order with a {@link ZipOutputStream}, the ones in stored without compression.
+	 */
+	void writeZip(Path zip, Map<String, byte[]> entries, Collection<String> stored = [], int level = Deflater.DEFAULT_COMPRESSION) {
+		new ZipOutputStream(Files.newOutputStream(zip)).withCloseable { output ->
+			output.level = level
+
+			entries.each { name, data ->
+				def entry = new ZipEntry(name)
+
+				if (stored.contains(name)) {
+					def crc = new CRC32()
+					crc.update(data)
+					entry.method = ZipEntry.STORED
+					entry.size = data.length
+					entry.compressedSize = data.length
+					entry.crc = crc.value
+				}
+
+				output.putNextEntry(entry)
+				output.write(data)
+				output.closeEntry()
+			}
+		}
+	}
+
+	/**
+	 * @return the entries in order, as read by {@link ZipFile}
+	 */
+	Map<String, byte[]> readZip(Path zip) {
+		Map<String, byte[]> entries = [:]
+
+		new ZipFile(zip.toFile()).withCloseable { zipFile ->
+			zipFile.entries().each { entry ->
+				entries[entry.name] = zipFile.getInputStream(entry).bytes
+			}
+		}
+
+		return entries
+	}
+
+	/**
+	 * Sorts the entries and resets their timestamps with a {@link ZipOutputStream}, as zips were reprocessed before
+	 * the entries were copied without being inflated.
+	 */
+	byte[] reprocessWithZipOutputStream(Path zip) {
+		def bytes = new ByteArrayOutputStream()
+
+		new ZipFile(zip.toFile()).withCloseable { zipFile ->
+			new ZipOutputStream(bytes).withCloseable { output ->
+				zipFile.entries().toList().sort { it.name }.each { entry ->
+					def newEntry = new ZipEntry(entry.name)
+					newEntry.time = ZipArchiveWriter.CONSTANT_TIME_FOR_ZIP_ENTRIES
+					newEntry.lastModifiedTime = FileTime.fromMillis(ZipArchiveWriter.CONSTANT_TIME_FOR_ZIP_ENTRIES)
+					newEntry.lastAccessTime = FileTime.fromMillis(ZipArchiveWriter.CONSTANT_TIME_FOR_ZIP_ENTRIES)
+
+					output.putNextEntry(newEntry)
+					output.write(zipFile.getInputStream(entry).bytes)
+					output.closeEntry()
+				}
+			}
+		}
+
+		return bytes.toByteArray()
+	}
+}